@@ -1,5 +1,9 @@
 package com.woops;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
 public class Argument {
   private final Object value;
   // The statement that value comes from (if applicable)
@@ -15,9 +19,9 @@ public class Argument {
     this.value = null; // Don't capture result at construction time
   }
   
+  // The direct value; an argument from a statement takes its value from a ValueFrame
   public Object getValue() {
-    // If we have a statement, get its current result; otherwise use the direct value
-    return statement != null ? statement.getResult() : value;
+    return value;
   }
   
   public Statement getStatement() {
@@ -27,4 +31,17 @@ public class Argument {
   public boolean hasStatement() {
     return statement != null;
   }
+
+  // Copies arguments so that they refer to the copied statements
+  static List<Argument> copyAll(List<Argument> args, Map<Statement, Statement> copies) {
+    List<Argument> copied = new ArrayList<>(args.size());
+    for (Argument arg : args) {
+      if (arg.hasStatement()) {
+        copied.add(new Argument(copies.getOrDefault(arg.statement, arg.statement)));
+      } else {
+        copied.add(new Argument(arg.value));
+      }
+    }
+    return copied;
+  }
 }
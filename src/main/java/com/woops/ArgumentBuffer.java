@@ -0,0 +1,40 @@
+package com.woops;
+
+import java.util.List;
+
+/**
+ * Where the arguments of a call statement come from, laid out once when the statement is
+ * created. Each execution fills an argument array lent by its ValueFrame, so marshaling
+ * allocates nothing and executions sharing the statement don't share the array.
+ *
+ * The array isn't cleared after a call: it only refers to values the frame holds anyway.
+ */
+final class ArgumentBuffer {
+  private final boolean[] fromStatement; // false for slots holding a direct value
+  private final Object[] directValues;
+
+  ArgumentBuffer(List<Argument> args) {
+    fromStatement = new boolean[args.size()];
+    directValues = new Object[args.size()];
+    for (int i = 0; i < fromStatement.length; i++) {
+      Argument arg = args.get(i);
+      if (arg.hasStatement()) {
+        fromStatement[i] = true;
+      } else {
+        directValues[i] = arg.getValue();
+      }
+    }
+  }
+
+  // Returns an argument array holding the values of the source statements in frame, for the
+  // statement executing at the next position of frame
+  Object[] fill(ValueFrame frame) {
+    boolean[] fromStatement = this.fromStatement;
+    Object[] values = frame.argumentArray(fromStatement.length);
+    int index = frame.size();
+    for (int i = 0; i < fromStatement.length; i++) {
+      values[i] = fromStatement[i] ? frame.argument(index, i) : directValues[i];
+    }
+    return values;
+  }
+}
@@ -0,0 +1,199 @@
+package com.woops;
+
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Schedules methods as arms of a multi-armed bandit. A call pays off if it showed new
+ * behaviour of any kind: novelty from the feedback sources, a new object state or a new
+ * contract violation. Calls that threw, timed out or built a duplicate pay nothing, and a
+ * timeout is charged the whole execution deadline.
+ *
+ * Arms are compared by payoff rate divided by cost, the arm's mean execution time relative to
+ * the mean over all arms, so a cheap method that pays off half as often as an expensive one
+ * can still win. The first execution of each arm is left out of its mean, as it pays for class
+ * loading and a cold JIT. The mean starts out as a few executions at the overall mean, and an
+ * arm's cost is kept within a factor of MAX_COST either way, so one slow call doesn't bury it.
+ * Duplicates cost no execution time and only count against the payoff rate.
+ *
+ * Sequences grow and the easy states run out as a run goes on, so every observation discounts
+ * the ones before it by DISCOUNT. A method that stopped paying off loses its lead, and one left
+ * alone sees its exploration bonus grow until it is tried again.
+ *
+ * Arms never rewarded are picked first. Picking scans the arms' counters and allocates nothing.
+ */
+abstract class BanditScheduler implements MethodScheduler {
+  // Floor on the mean execution time, so calls that take no measurable time don't win outright
+  private static final double MIN_NANOS = 10_000;
+  // Executions at the overall mean that every arm's mean execution time starts from
+  private static final int PRIOR_EXECUTIONS = 5;
+  // Most an arm's cost may differ from the average arm's, either way
+  private static final double MAX_COST = 4;
+  // Weight left to an observation after each later one, about a thousand observations' memory
+  private static final double DISCOUNT = 0.999;
+
+  private final List<Method> methods;
+  private final Map<Method, Integer> ids = new HashMap<>();
+  private final long timeoutNanos;
+  // Discounted counts, see DISCOUNT
+  final double[] pulls; // calls rewarded, timeouts included
+  final double[] wins; // calls that showed new behaviour
+  private final double[] executions; // rewarded calls that were executed and timed
+  private final double[] nanos; // total execution time of those
+  double totalPulls = 0;
+  private double totalExecutions = 0;
+  private double totalNanos = 0;
+  private final boolean[] warm; // whether the arm's first execution is behind it
+  private final int[] picks;
+  private final int[] rewarded; // undiscounted pulls and wins, for the statistics
+  private final int[] paidOff;
+
+  BanditScheduler(List<Method> methods, long timeoutMillis) {
+    this.methods = methods;
+    this.timeoutNanos = timeoutMillis * 1_000_000L;
+    this.pulls = new double[methods.size()];
+    this.wins = new double[methods.size()];
+    this.executions = new double[methods.size()];
+    this.rewarded = new int[methods.size()];
+    this.paidOff = new int[methods.size()];
+    this.warm = new boolean[methods.size()];
+    this.nanos = new double[methods.size()];
+    this.picks = new int[methods.size()];
+    for (int i = 0; i < methods.size(); i++) {
+      ids.put(methods.get(i), i);
+    }
+  }
+
+  @Override
+  public int size() {
+    return methods.size();
+  }
+
+  @Override
+  public Method getMethod(int id) {
+    return methods.get(id);
+  }
+
+  @Override
+  public int pick(Random random) {
+    int best = -1;
+    // An untried arm if there is one, each as likely as the others
+    int untried = 0;
+    for (int arm = 0; arm < pulls.length; arm++) {
+      if (pulls[arm] == 0 && random.nextInt(++untried) == 0) best = arm;
+    }
+    if (best < 0) {
+      double meanNanos = totalExecutions == 0 ? MIN_NANOS : Math.max(MIN_NANOS, totalNanos / totalExecutions);
+      double bestScore = Double.NEGATIVE_INFINITY;
+      for (int arm = 0; arm < pulls.length; arm++) {
+        double armNanos = (nanos[arm] + PRIOR_EXECUTIONS * meanNanos) / (executions[arm] + PRIOR_EXECUTIONS);
+        double cost = Math.min(MAX_COST, Math.max(1 / MAX_COST, armNanos / meanNanos));
+        double score = payoff(arm, random) / cost;
+        if (score > bestScore) {
+          best = arm;
+          bestScore = score;
+        }
+      }
+    }
+    picks[best]++;
+    return best;
+  }
+
+  // The estimate of arm's payoff rate that it is ranked by
+  abstract double payoff(int arm, Random random);
+
+  @Override
+  public void reward(Method method, int novelty, boolean newState, boolean newViolation, long nanos) {
+    Integer arm = ids.get(method);
+    if (arm != null) observe(arm, novelty > 0 || newState || newViolation, nanos);
+  }
+
+  @Override
+  public void timedOut(Method method) {
+    Integer arm = ids.get(method);
+    if (arm != null) observe(arm, false, timeoutNanos);
+  }
+
+  // A call that took no time was never executed
+  private void observe(int arm, boolean won, long callNanos) {
+    for (int i = 0; i < pulls.length; i++) {
+      pulls[i] *= DISCOUNT;
+      wins[i] *= DISCOUNT;
+      executions[i] *= DISCOUNT;
+      nanos[i] *= DISCOUNT;
+    }
+    totalPulls *= DISCOUNT;
+    totalExecutions *= DISCOUNT;
+    totalNanos *= DISCOUNT;
+
+    rewarded[arm]++;
+    pulls[arm]++;
+    totalPulls++;
+    if (won) {
+      paidOff[arm]++;
+      wins[arm]++;
+    }
+    if (callNanos > 0 && !warm[arm]) {
+      warm[arm] = true;
+    } else if (callNanos > 0) {
+      executions[arm]++;
+      nanos[arm] += callNanos;
+      totalExecutions++;
+      totalNanos += callNanos;
+    }
+  }
+
+  @Override
+  public String getStatistics() {
+    StringBuilder out = new StringBuilder();
+    for (int arm = 0; arm < methods.size(); arm++) {
+      double meanMillis = executions[arm] == 0 ? 0 : nanos[arm] / executions[arm] / 1_000_000;
+      out.append(String.format("  %s: %d picks, %d of %d paid off, lately %.3f ms each%n",
+                               methods.get(arm).getName(), picks[arm], paidOff[arm], rewarded[arm], meanMillis));
+    }
+    return out.toString();
+  }
+
+  // Upper confidence bound on the payoff rate
+  static final class Ucb1 extends BanditScheduler {
+    Ucb1(List<Method> methods, long timeoutMillis) {
+      super(methods, timeoutMillis);
+    }
+
+    @Override
+    double payoff(int arm, Random random) {
+      return wins[arm] / pulls[arm] + Math.sqrt(2 * Math.log(Math.max(1, totalPulls)) / pulls[arm]);
+    }
+  }
+
+  // A payoff rate drawn from the Beta posterior of the arm's wins and losses
+  static final class Thompson extends BanditScheduler {
+    Thompson(List<Method> methods, long timeoutMillis) {
+      super(methods, timeoutMillis);
+    }
+
+    @Override
+    double payoff(int arm, Random random) {
+      double x = gamma(1 + wins[arm], random);
+      double y = gamma(1 + pulls[arm] - wins[arm], random);
+      return x / (x + y);
+    }
+
+    // Marsaglia and Tsang's method, for shape at least 1
+    private static double gamma(double shape, Random random) {
+      double d = shape - 1.0 / 3;
+      double c = 1 / Math.sqrt(9 * d);
+      while (true) {
+        double x = random.nextGaussian();
+        double v = 1 + c * x;
+        if (v <= 0) continue;
+        v = v * v * v;
+        double u = random.nextDouble();
+        if (Math.log(u) < 0.5 * x * x + d - d * v + d * Math.log(v)) return d * v;
+      }
+    }
+  }
+}
@@ -0,0 +1,188 @@
+package com.woops;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A sequence flattened into primitive arrays, for keeping many of them in memory.
+ *
+ * Each statement is an operation id: a constructor or method, or the type of a constant.
+ * Operation ids are handed out once per JVM and shared by every compact sequence. The arguments
+ * of all statements sit back to back in one int array as positions of earlier statements, and
+ * constants are slots in a long table, for primitives, or an object table for everything else.
+ * A sequence of n statements thus takes a few arrays rather than several objects per statement.
+ *
+ * Compact sequences are immutable and hold no results, only which statements had non-null ones.
+ * toSequence() builds fresh, unexecuted statements to run or print.
+ */
+public final class CompactSequence {
+  // Operation ids: constructors and methods, and the classes constants are declared as
+  private static final Map<Object, Integer> OPERATION_IDS = new HashMap<>();
+  private static final List<Object> OPERATIONS = new ArrayList<>();
+
+  private final int[] operations; // constants are stored as ~id of their type
+  private final int[] argumentStarts; // into arguments, one past the end for the last statement
+  private final int[] arguments; // statement positions, or a constant's slot in its table
+  private final long[] primitives;
+  private final Object[] objects;
+  private final long[] nonNullResults; // bits of a BitSet
+
+  private CompactSequence(int[] operations, int[] argumentStarts, int[] arguments, long[] primitives,
+                          Object[] objects, long[] nonNullResults) {
+    this.operations = operations;
+    this.argumentStarts = argumentStarts;
+    this.arguments = arguments;
+    this.primitives = primitives;
+    this.objects = objects;
+    this.nonNullResults = nonNullResults;
+  }
+
+  // Flattens seq, or throws IllegalArgumentException if it holds an argument that doesn't come
+  // from an earlier statement or a statement of an unknown kind
+  public static CompactSequence of(Sequence seq) {
+    int size = seq.size();
+    int[] operations = new int[size];
+    int[] argumentStarts = new int[size + 1];
+    IntArray arguments = new IntArray(size * 2);
+    long[] primitives = new long[4];
+    int primitiveCount = 0;
+    List<Object> objects = new ArrayList<>();
+    BitSet nonNull = new BitSet(size);
+    // Arguments refer to the latest position of a statement, as SequenceCodec does
+    Map<Statement, Integer> positions = new IdentityHashMap<>();
+
+    int i = 0;
+    for (Statement stmt : seq.getStatements()) {
+      argumentStarts[i] = arguments.size;
+      if (stmt instanceof ConstantAssignment) {
+        Class<?> type = stmt.getType();
+        operations[i] = ~operationId(type);
+        if (type.isPrimitive()) {
+          if (primitiveCount == primitives.length) primitives = Arrays.copyOf(primitives, primitiveCount * 2);
+          arguments.add(primitiveCount);
+          primitives[primitiveCount++] = toBits(type, ((ConstantAssignment) stmt).getValue());
+        } else {
+          arguments.add(objects.size());
+          objects.add(((ConstantAssignment) stmt).getValue());
+        }
+      } else if (stmt instanceof MethodCall) {
+        operations[i] = operationId(((MethodCall) stmt).getMethod());
+        addPositions(arguments, ((MethodCall) stmt).getArguments(), positions);
+      } else if (stmt instanceof ConstructorCall) {
+        operations[i] = operationId(((ConstructorCall) stmt).getConstructor());
+        addPositions(arguments, ((ConstructorCall) stmt).getArguments(), positions);
+      } else {
+        throw new IllegalArgumentException("Unsupported statement " + stmt.getClass().getSimpleName());
+      }
+      if (seq.hasNonNullResult(i)) nonNull.set(i);
+      positions.put(stmt, i++);
+    }
+    argumentStarts[size] = arguments.size;
+
+    return new CompactSequence(operations, argumentStarts, arguments.toArray(),
+                               Arrays.copyOf(primitives, primitiveCount), objects.toArray(), nonNull.toLongArray());
+  }
+
+  public int size() {
+    return operations.length;
+  }
+
+  // Builds the statements again, unexecuted, with the non-null results they had when flattened
+  public Sequence toSequence() {
+    Statement[] built = new Statement[operations.length];
+    Sequence seq = new Sequence();
+    for (int i = 0; i < operations.length; i++) {
+      int start = argumentStarts[i];
+      if (operations[i] < 0) {
+        Class<?> type = (Class<?>) operation(~operations[i]);
+        Object value = type.isPrimitive() ? fromBits(type, primitives[arguments[start]])
+                                          : objects[arguments[start]];
+        built[i] = new ConstantAssignment(value, type);
+      } else {
+        List<Argument> args = new ArrayList<>(argumentStarts[i + 1] - start);
+        for (int j = start; j < argumentStarts[i + 1]; j++) {
+          args.add(new Argument(built[arguments[j]]));
+        }
+        Object executable = operation(operations[i]);
+        built[i] = executable instanceof Method ? new MethodCall((Method) executable, args)
+                                                : new ConstructorCall((Constructor<?>) executable, args);
+      }
+      seq.add(built[i]);
+    }
+    seq.setNonNullResults(BitSet.valueOf(nonNullResults));
+    return seq;
+  }
+
+  private static void addPositions(IntArray arguments, List<Argument> args, Map<Statement, Integer> positions) {
+    for (Argument arg : args) {
+      Integer position = arg.hasStatement() ? positions.get(arg.getStatement()) : null;
+      if (position == null) {
+        throw new IllegalArgumentException("Argument does not come from an earlier statement");
+      }
+      arguments.add(position);
+    }
+  }
+
+  private static synchronized int operationId(Object operation) {
+    Integer id = OPERATION_IDS.get(operation);
+    if (id == null) {
+      id = OPERATIONS.size();
+      OPERATION_IDS.put(operation, id);
+      OPERATIONS.add(operation);
+    }
+    return id;
+  }
+
+  private static synchronized Object operation(int id) {
+    return OPERATIONS.get(id);
+  }
+
+  private static long toBits(Class<?> type, Object value) {
+    if (type == int.class && value instanceof Integer) return (Integer) value;
+    if (type == long.class && value instanceof Long) return (Long) value;
+    if (type == double.class && value instanceof Double) return Double.doubleToRawLongBits((Double) value);
+    if (type == float.class && value instanceof Float) return Float.floatToRawIntBits((Float) value);
+    if (type == boolean.class && value instanceof Boolean) return (Boolean) value ? 1 : 0;
+    if (type == char.class && value instanceof Character) return (Character) value;
+    if (type == byte.class && value instanceof Byte) return (Byte) value;
+    if (type == short.class && value instanceof Short) return (Short) value;
+    throw new IllegalArgumentException("Constant " + value + " is not a " + type.getName());
+  }
+
+  private static Object fromBits(Class<?> type, long bits) {
+    if (type == int.class) return (int) bits;
+    if (type == long.class) return bits;
+    if (type == double.class) return Double.longBitsToDouble(bits);
+    if (type == float.class) return Float.intBitsToFloat((int) bits);
+    if (type == boolean.class) return bits != 0;
+    if (type == char.class) return (char) bits;
+    if (type == byte.class) return (byte) bits;
+    return (short) bits;
+  }
+
+  // A growable int array
+  private static final class IntArray {
+    int[] items;
+    int size = 0;
+
+    IntArray(int capacity) {
+      items = new int[Math.max(capacity, 4)];
+    }
+
+    void add(int value) {
+      if (size == items.length) items = Arrays.copyOf(items, size * 2);
+      items[size++] = value;
+    }
+
+    int[] toArray() {
+      return Arrays.copyOf(items, size);
+    }
+  }
+}
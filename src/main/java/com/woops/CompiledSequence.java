@@ -0,0 +1,12 @@
+package com.woops;
+
+/**
+ * A sequence compiled into straight-line bytecode by SequenceCompiler.
+ */
+public interface CompiledSequence {
+
+  // Runs every call of the sequence. values is indexed by statement position; it must hold the
+  // constants on entry and receives the result of every non-void call. What a call throws comes
+  // wrapped in an InvocationTargetException.
+  void run(Object[] values) throws Throwable;
+}
@@ -1,17 +1,48 @@
 package com.woops;
 
+import java.lang.reflect.Array;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
 
 public class ConstantAssignment extends Statement {
+  private final Object value;
 
   public ConstantAssignment(Object value, Class<?> type) {
     super(type); // initialize type
-    this.result = value; 
+    this.value = value;
   }
 
+  // Arrays and lists can be mutated by the calls they are passed to, so every execution gets
+  // its own
   @Override
-  public void execute() {
-    // no-op: already assigned at construction
+  public Object execute(ValueFrame frame) {
+    return copyValue(value);
+  }
+
+  public Object getValue() {
+    return value;
+  }
+
+  @Override
+  Statement copy(Map<Statement, Statement> copies) {
+    return new ConstantAssignment(value, type);
+  }
+
+  static Object copyValue(Object value) {
+    if (value instanceof List) {
+      return new ArrayList<>((List<?>) value);
+    }
+    if (value != null && value.getClass().isArray()) {
+      int length = Array.getLength(value);
+      Object copy = Array.newInstance(value.getClass().getComponentType(), length);
+      for (int i = 0; i < length; i++) {
+        Array.set(copy, i, copyValue(Array.get(value, i)));
+      }
+      return copy;
+    }
+    return value;
   }
 
   @Override
@@ -20,7 +51,7 @@ public class ConstantAssignment extends Statement {
 
     // Format the type name properly
     String typeName = getFormattedTypeName(this.getType());
-    String valueString = getFormattedValue(result);
+    String valueString = getFormattedValue(value);
 
     // Save the result to a variable
     code.append(typeName)
@@ -88,6 +119,20 @@ public class ConstantAssignment extends Statement {
     if (value instanceof String || value instanceof Character) {
       return (String) addQuotes(value);
     }
+    if (value instanceof Long) return value + "L";
+    if (value instanceof Float) {
+      float f = (Float) value;
+      if (Float.isNaN(f)) return "Float.NaN";
+      if (Float.isInfinite(f)) return f > 0 ? "Float.POSITIVE_INFINITY" : "Float.NEGATIVE_INFINITY";
+      return value + "f";
+    }
+    if (value instanceof Double) {
+      double d = (Double) value;
+      if (Double.isNaN(d)) return "Double.NaN";
+      if (Double.isInfinite(d)) return d > 0 ? "Double.POSITIVE_INFINITY" : "Double.NEGATIVE_INFINITY";
+    }
+    if (value instanceof Short) return "(short) " + value;
+    if (value instanceof Byte) return "(byte) " + value;
     
     return value.toString();
   }
@@ -95,6 +140,6 @@ public class ConstantAssignment extends Statement {
   // For equivalence filtering
   @Override
   public String getSignature() {
-    return "const(" + (result == null ? "null" : result.getClass().getSimpleName()) + ")";
+    return "const(" + (value == null ? "null" : value.getClass().getSimpleName()) + ")";
   }
 }
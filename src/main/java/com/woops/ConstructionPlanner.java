@@ -0,0 +1,195 @@
+package com.woops;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Executable;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Decides how to build a value of a type the pool has none of. Its graph links every type
+ * asked for to its producers: the public constructors of the type and the public static
+ * methods of the type or of the classes under test that return it. Each producer links in
+ * turn to its parameter types.
+ *
+ * A type costs the number of calls on its cheapest path down to values generated directly,
+ * such as primitives, strings, arrays and lists. Producers are chosen by cost and by how
+ * often their calls have succeeded. A producer that fails GIVE_UP_AFTER times without ever
+ * succeeding is dropped, and costs are recomputed without it.
+ */
+final class ConstructionPlanner {
+  private static final int UNREACHABLE = Integer.MAX_VALUE;
+  // Failures without a single success after which a producer is no longer tried
+  private static final int GIVE_UP_AFTER = 20;
+
+  // A constructor or static method that returns a value of the type it is listed under
+  static final class Producer {
+    final Executable executable;
+    final Class<?>[] parameterTypes;
+    private int successes = 0;
+    private int failures = 0;
+    private boolean dropped = false;
+
+    Producer(Executable executable) {
+      this.executable = executable;
+      this.parameterTypes = TypeMetadata.parameterTypes(executable);
+    }
+
+    // Returns a statement calling the producer with args
+    Statement toStatement(List<Argument> args) {
+      if (executable instanceof Constructor) {
+        return new ConstructorCall((Constructor<?>) executable, args);
+      }
+      return new MethodCall((Method) executable, args);
+    }
+  }
+
+  private final List<Class<?>> factoryOwners;
+  private final Map<Class<?>, List<Producer>> producers = new HashMap<>();
+  private final Map<Class<?>, Integer> costs = new HashMap<>();
+
+  // Static methods of factoryOwners are considered as producers of any type they return
+  ConstructionPlanner(List<Class<?>> factoryOwners) {
+    this.factoryOwners = factoryOwners;
+  }
+
+  // Types generated directly rather than constructed
+  static boolean isDirect(Class<?> type) {
+    return type.isPrimitive() || type == String.class || type.isArray() || type == List.class;
+  }
+
+  // Whether some path is known to build a value of type
+  boolean canConstruct(Class<?> type) {
+    return cost(type) != UNREACHABLE;
+  }
+
+  // Chooses a producer for type, or returns null if it can't be constructed. When cheapest is
+  // set only producers on a cheapest path qualify, so that nested constructions always get
+  // smaller and can't go round in circles.
+  Producer choose(Class<?> type, boolean cheapest, Random random) {
+    int typeCost = cost(type);
+    if (typeCost == UNREACHABLE) return null;
+
+    double totalWeight = 0;
+    List<Producer> options = producers.get(type);
+    double[] weights = new double[options.size()];
+    for (int i = 0; i < options.size(); i++) {
+      Producer producer = options.get(i);
+      int producerCost = cost(producer);
+      if (producer.dropped || producerCost == UNREACHABLE || (cheapest && producerCost > typeCost)) continue;
+      // Cheap paths that tend to succeed are preferred, untried ones get the benefit of the doubt
+      double successRate = (producer.successes + 1.0) / (producer.successes + producer.failures + 1.0);
+      weights[i] = successRate / producerCost;
+      totalWeight += weights[i];
+    }
+
+    double value = random.nextDouble() * totalWeight;
+    for (int i = 0; i < weights.length; i++) {
+      value -= weights[i];
+      if (weights[i] > 0 && value < 0) return options.get(i);
+    }
+    for (int i = weights.length - 1; i >= 0; i--) {
+      if (weights[i] > 0) return options.get(i);
+    }
+    return null;
+  }
+
+  void succeeded(Producer producer) {
+    producer.successes++;
+  }
+
+  void failed(Producer producer) {
+    producer.failures++;
+    if (producer.successes == 0 && producer.failures >= GIVE_UP_AFTER && !producer.dropped) {
+      producer.dropped = true;
+      recomputeCosts();
+    }
+  }
+
+  private int cost(Class<?> type) {
+    if (isDirect(type)) return 0;
+    Integer cost = costs.get(type);
+    if (cost == null) {
+      explore(type);
+      recomputeCosts();
+      cost = costs.get(type);
+    }
+    return cost;
+  }
+
+  private int cost(Producer producer) {
+    long total = 1;
+    for (Class<?> parameterType : producer.parameterTypes) {
+      int cost = isDirect(parameterType) ? 0 : costs.getOrDefault(parameterType, UNREACHABLE);
+      if (cost == UNREACHABLE) return UNREACHABLE;
+      total += cost;
+    }
+    return (int) Math.min(total, UNREACHABLE - 1);
+  }
+
+  // Adds type and every type its producers need to the graph
+  private void explore(Class<?> type) {
+    Deque<Class<?>> pending = new ArrayDeque<>();
+    pending.add(type);
+    while (!pending.isEmpty()) {
+      Class<?> next = pending.poll();
+      if (isDirect(next) || producers.containsKey(next)) continue;
+      List<Producer> found = findProducers(next);
+      producers.put(next, found);
+      costs.put(next, UNREACHABLE);
+      for (Producer producer : found) {
+        for (Class<?> parameterType : producer.parameterTypes) {
+          pending.add(parameterType);
+        }
+      }
+    }
+  }
+
+  private List<Producer> findProducers(Class<?> type) {
+    List<Producer> found = new ArrayList<>();
+    if (!type.isInterface() && !Modifier.isAbstract(type.getModifiers())) {
+      for (Constructor<?> constructor : TypeMetadata.of(type).getPublicConstructors()) {
+        found.add(new Producer(constructor));
+      }
+    }
+    List<Class<?>> owners = new ArrayList<>(factoryOwners);
+    if (!owners.contains(type)) owners.add(type);
+    for (Class<?> owner : owners) {
+      for (Method method : TypeMetadata.of(owner).getPublicMethods()) {
+        Class<?> returned = method.getReturnType();
+        if (TypeMetadata.isStatic(method) && !returned.isPrimitive() &&
+            TypeMetadata.of(returned).isAssignableTo(type)) {
+          found.add(new Producer(method));
+        }
+      }
+    }
+    return found;
+  }
+
+  // Brings every cost down to its cheapest live producer, repeating until nothing changes
+  private void recomputeCosts() {
+    for (Map.Entry<Class<?>, Integer> entry : costs.entrySet()) {
+      entry.setValue(UNREACHABLE);
+    }
+    boolean changed = true;
+    while (changed) {
+      changed = false;
+      for (Map.Entry<Class<?>, List<Producer>> entry : producers.entrySet()) {
+        int best = costs.get(entry.getKey());
+        for (Producer producer : entry.getValue()) {
+          if (!producer.dropped) best = Math.min(best, cost(producer));
+        }
+        if (best < costs.get(entry.getKey())) {
+          costs.put(entry.getKey(), best);
+          changed = true;
+        }
+      }
+    }
+  }
+}
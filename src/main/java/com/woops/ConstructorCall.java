@@ -3,20 +3,38 @@ package com.woops;
 import java.lang.reflect.Constructor;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 
 public class ConstructorCall extends Statement {
   private final Constructor<?> constructor;
   private final List<Argument> args; 
+  private final Invoker invoker;
+  private final ArgumentBuffer buffer;
 
   public ConstructorCall(Constructor<?> constructor, List<Argument> args) {
     super(constructor.getDeclaringClass()); // initialize type
     this.constructor = constructor;
     this.args = args;
+    this.invoker = Invoker.of(constructor);
+    this.buffer = new ArgumentBuffer(args);
   }
 
   @Override
-  public void execute() throws Exception {
-      result = constructor.newInstance(args.stream().map(Argument::getValue).toArray());
+  public Object execute(ValueFrame frame) throws Exception {
+    return invoker.invoke(buffer.fill(frame));
+  }
+
+  @Override
+  Statement copy(Map<Statement, Statement> copies) {
+    return new ConstructorCall(constructor, Argument.copyAll(args, copies));
+  }
+
+  public Constructor<?> getConstructor() {
+    return constructor;
+  }
+
+  public List<Argument> getArguments() {
+    return args;
   }
 
   // For equivalence filtering
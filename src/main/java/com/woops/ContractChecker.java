@@ -28,12 +28,13 @@ public final class ContractChecker {
     return null;
   }
 
-  public static Pair<String, Statement> checkStatements(List<Statement> statements) {
-    for (Statement stmt : statements) {
-      if (stmt.getResult() != null) {
-        String contractViolation = checkAll(stmt.getResult());
+  // Returns the first contract violated by a value in frame and its position, or nulls
+  public static Pair<String, Integer> checkValues(ValueFrame frame) {
+    for (int i = 0; i < frame.size(); i++) {
+      if (frame.get(i) != null) {
+        String contractViolation = checkAll(frame.get(i));
         if (contractViolation != null) {
-          return new Pair<>(contractViolation, stmt);
+          return new Pair<>(contractViolation, i);
         }
       }
     }
@@ -0,0 +1,248 @@
+package com.woops;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Type;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.objectweb.asm.Opcodes.*;
+
+/**
+ * Adds CoverageRuntime probes to a class: one where each method starts, one on the
+ * fall-through of every conditional jump and one at every jump, switch or handler target.
+ *
+ * A probe is a store into CoverageRuntime.hits. It leaves the stack as it found it and adds no
+ * branches, so the stack map frames of the class stay valid and only the maximum stack size
+ * is recomputed. Probes at a target go after the frame there, before its first instruction.
+ */
+final class CoverageInstrumenter {
+  private static final String RUNTIME = Type.getInternalName(CoverageRuntime.class);
+
+  private CoverageInstrumenter() {}
+
+  // Returns the instrumented class, or the class as it is if it can't be instrumented
+  static byte[] instrument(byte[] classBytes) {
+    try {
+      ClassReader reader = new ClassReader(classBytes);
+      // First pass: where each method's probes go, so the class's probe ids can be reserved
+      TargetCollector targets = new TargetCollector();
+      reader.accept(targets, 0);
+      if (targets.probeCount == 0) return classBytes;
+
+      int firstProbe = CoverageRuntime.allocate(targets.probeCount);
+      ClassWriter writer = new ClassWriter(reader, ClassWriter.COMPUTE_MAXS);
+      reader.accept(new ProbeInserter(writer, targets.methodTargets, firstProbe), 0);
+      return writer.toByteArray();
+    } catch (RuntimeException e) {
+      // Malformed or too large once probed; run it uninstrumented
+      return classBytes;
+    }
+  }
+
+  // Finds every method's jump targets and counts the probes needed. Labels are new objects on
+  // each pass over a class, so a target is identified by the order its label is visited in.
+  private static final class TargetCollector extends ClassVisitor {
+    final List<Set<Integer>> methodTargets = new ArrayList<>(); // label ordinals, in method order
+    int probeCount = 0;
+
+    TargetCollector() {
+      super(ASM9);
+    }
+
+    @Override
+    public MethodVisitor visitMethod(int access, String name, String descriptor, String signature,
+                                     String[] exceptions) {
+      Set<Integer> targets = new HashSet<>();
+      methodTargets.add(targets);
+      return new MethodVisitor(ASM9) {
+        private final Map<Label, Integer> ordinals = new HashMap<>();
+        private final Set<Label> targetLabels = new HashSet<>();
+
+        @Override
+        public void visitCode() {
+          probeCount++;
+        }
+
+        @Override
+        public void visitLabel(Label label) {
+          ordinals.put(label, ordinals.size());
+        }
+
+        @Override
+        public void visitEnd() {
+          for (Label label : targetLabels) {
+            Integer ordinal = ordinals.get(label);
+            if (ordinal != null) targets.add(ordinal);
+          }
+          probeCount += targets.size();
+        }
+
+        @Override
+        public void visitJumpInsn(int opcode, Label label) {
+          if (opcode != GOTO && opcode != JSR) probeCount++;
+          addTarget(label);
+        }
+
+        @Override
+        public void visitTableSwitchInsn(int min, int max, Label dflt, Label... labels) {
+          addTarget(dflt);
+          for (Label label : labels) addTarget(label);
+        }
+
+        @Override
+        public void visitLookupSwitchInsn(Label dflt, int[] keys, Label[] labels) {
+          addTarget(dflt);
+          for (Label label : labels) addTarget(label);
+        }
+
+        @Override
+        public void visitTryCatchBlock(Label start, Label end, Label handler, String type) {
+          addTarget(handler);
+        }
+
+        private void addTarget(Label label) {
+          targetLabels.add(label);
+        }
+      };
+    }
+  }
+
+  private static final class ProbeInserter extends ClassVisitor {
+    private final List<Set<Integer>> methodTargets;
+    private int methodIndex = 0;
+    private int nextProbe;
+
+    ProbeInserter(ClassVisitor next, List<Set<Integer>> methodTargets, int firstProbe) {
+      super(ASM9, next);
+      this.methodTargets = methodTargets;
+      this.nextProbe = firstProbe;
+    }
+
+    @Override
+    public MethodVisitor visitMethod(int access, String name, String descriptor, String signature,
+                                     String[] exceptions) {
+      Set<Integer> targets = methodTargets.get(methodIndex++);
+      MethodVisitor mv = super.visitMethod(access, name, descriptor, signature, exceptions);
+      return new MethodVisitor(ASM9, mv) {
+        private boolean pending = false; // a probe is due before the next instruction
+        private int labelCount = 0; // visited so far
+
+        @Override
+        public void visitCode() {
+          super.visitCode();
+          pending = true;
+        }
+
+        @Override
+        public void visitLabel(Label label) {
+          super.visitLabel(label);
+          if (targets.contains(labelCount++)) pending = true;
+        }
+
+        @Override
+        public void visitJumpInsn(int opcode, Label label) {
+          flush();
+          super.visitJumpInsn(opcode, label);
+          if (opcode != GOTO && opcode != JSR) probe();
+        }
+
+        @Override
+        public void visitInsn(int opcode) {
+          flush();
+          super.visitInsn(opcode);
+        }
+
+        @Override
+        public void visitIntInsn(int opcode, int operand) {
+          flush();
+          super.visitIntInsn(opcode, operand);
+        }
+
+        @Override
+        public void visitVarInsn(int opcode, int varIndex) {
+          flush();
+          super.visitVarInsn(opcode, varIndex);
+        }
+
+        @Override
+        public void visitTypeInsn(int opcode, String type) {
+          flush();
+          super.visitTypeInsn(opcode, type);
+        }
+
+        @Override
+        public void visitFieldInsn(int opcode, String owner, String name, String descriptor) {
+          flush();
+          super.visitFieldInsn(opcode, owner, name, descriptor);
+        }
+
+        @Override
+        public void visitMethodInsn(int opcode, String owner, String name, String descriptor, boolean isInterface) {
+          flush();
+          super.visitMethodInsn(opcode, owner, name, descriptor, isInterface);
+        }
+
+        @Override
+        public void visitInvokeDynamicInsn(String name, String descriptor, Handle bootstrap, Object... arguments) {
+          flush();
+          super.visitInvokeDynamicInsn(name, descriptor, bootstrap, arguments);
+        }
+
+        @Override
+        public void visitLdcInsn(Object value) {
+          flush();
+          super.visitLdcInsn(value);
+        }
+
+        @Override
+        public void visitIincInsn(int varIndex, int increment) {
+          flush();
+          super.visitIincInsn(varIndex, increment);
+        }
+
+        @Override
+        public void visitTableSwitchInsn(int min, int max, Label dflt, Label... labels) {
+          flush();
+          super.visitTableSwitchInsn(min, max, dflt, labels);
+        }
+
+        @Override
+        public void visitLookupSwitchInsn(Label dflt, int[] keys, Label[] labels) {
+          flush();
+          super.visitLookupSwitchInsn(dflt, keys, labels);
+        }
+
+        @Override
+        public void visitMultiANewArrayInsn(String descriptor, int numDimensions) {
+          flush();
+          super.visitMultiANewArrayInsn(descriptor, numDimensions);
+        }
+
+        private void flush() {
+          if (pending) {
+            pending = false;
+            probe();
+          }
+        }
+
+        // hits[nextProbe++] = true
+        private void probe() {
+          super.visitFieldInsn(GETSTATIC, RUNTIME, "hits", "[Z");
+          super.visitLdcInsn(nextProbe++);
+          super.visitInsn(ICONST_1);
+          super.visitInsn(BASTORE);
+        }
+      };
+    }
+  }
+}
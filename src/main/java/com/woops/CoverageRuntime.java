@@ -0,0 +1,64 @@
+package com.woops;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Branch probes of the classes loaded through an InstrumentingClassLoader. Each probe is a slot
+ * of hits that instrumented code sets when it passes the probe; collect() moves the slots set
+ * since the last call into the run's coverage and reports how many were new.
+ *
+ * Probes are shared by every worker, so with several threads a probe may be credited to an
+ * execution of another worker. A write racing the array being grown for a newly loaded class
+ * may be lost; both only blur which execution is credited, not what is covered.
+ */
+public final class CoverageRuntime {
+  // Read by instrumented code on every probe; replaced, never shrunk, as classes are loaded
+  public static volatile boolean[] hits = new boolean[0];
+
+  private static boolean enabled = false;
+  private static int probeCount = 0;
+  private static final BitSet covered = new BitSet();
+
+  private CoverageRuntime() {}
+
+  public static synchronized void enable() {
+    enabled = true;
+  }
+
+  public static synchronized boolean isEnabled() {
+    return enabled;
+  }
+
+  // Reserves count probes and returns the id of the first
+  static synchronized int allocate(int count) {
+    int first = probeCount;
+    probeCount += count;
+    if (probeCount > hits.length) hits = Arrays.copyOf(hits, Math.max(probeCount, hits.length * 2));
+    return first;
+  }
+
+  // Clears the probes hit since the last call and returns how many of them were never hit before
+  public static synchronized int collect() {
+    boolean[] current = hits;
+    int gained = 0;
+    for (int i = 0; i < probeCount; i++) {
+      if (current[i]) {
+        current[i] = false;
+        if (!covered.get(i)) {
+          covered.set(i);
+          gained++;
+        }
+      }
+    }
+    return gained;
+  }
+
+  public static synchronized int getCoveredCount() {
+    return covered.cardinality();
+  }
+
+  public static synchronized int getProbeCount() {
+    return probeCount;
+  }
+}
@@ -0,0 +1,264 @@
+package com.woops;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Remembers the values of pooled sequences so that a candidate built on top of one only has
+ * to execute the statements appended after that prefix.
+ *
+ * Each execution writes its own ValueFrame, and a resumed candidate starts from a copy of the
+ * prefix's recorded values. The copy still refers to the same objects, so running the rest of
+ * the candidate may mutate what the prefix recorded. Frames that share objects that way form a
+ * lineage: resuming from a prefix with mutable values stamps its lineage with a tick of a
+ * logical clock, and a prefix whose lineage was stamped after it was recorded is replayed from
+ * the start instead, through its compiled form when compilation is enabled. A replay, and any
+ * execution from scratch, makes fresh objects and disturbs no other frame.
+ *
+ * When static state is tracked, a full replay starts from the state after class
+ * initialization and a resumed prefix from the static state it was recorded with.
+ *
+ * A candidate executed eagerly while it is built starts the same way, from its prefix's values
+ * if they are live. If none of its statements failed, executing the finished candidate carries
+ * on from that frame rather than running them again.
+ */
+public class ExecutionCache {
+  // Recorded frames that may share mutable objects, and when one of them was last resumed from
+  private static final class Lineage {
+    long mutatedAt = 0;
+  }
+
+  private static final class Recording {
+    final Object[] values;
+    final Lineage lineage;
+    final long recordedAt;
+
+    Recording(Object[] values, Lineage lineage, long recordedAt) {
+      this.values = values;
+      this.lineage = lineage;
+      this.recordedAt = recordedAt;
+    }
+  }
+
+  private final Map<Sequence, Recording> recorded = new IdentityHashMap<>();
+  private final Map<Sequence, CompiledSequence> compiled = new IdentityHashMap<>();
+  private final Map<Sequence, Object[]> staticSnapshots = new IdentityHashMap<>();
+  private final boolean compile;
+  private final StaticState statics; // null when static state is left alone
+  private long clock = 0;
+
+  private Sequence lastExecuted = null;
+  private ValueFrame lastFrame = null;
+  private Lineage lastLineage = null;
+  private long lastExecutedAt = 0;
+
+  // Values of the candidate being built, for executing its statements eagerly
+  private Sequence eagerOwner = null;
+  private ValueFrame eagerFrame = null;
+  private Lineage eagerLineage = null;
+  private boolean eagerClean = false; // no statement failed, so the frame is what execute() would make
+
+  private int resumed = 0;
+  private int replayed = 0;
+  private int compiledReplays = 0;
+
+  public ExecutionCache(boolean compile) {
+    this(compile, null);
+  }
+
+  public ExecutionCache(boolean compile, StaticState statics) {
+    this.compile = compile;
+    this.statics = statics;
+  }
+
+  // Executes seq, skipping the statements of prefix if its recorded values are still live, and
+  // returns the values of the execution
+  public ValueFrame execute(Sequence seq, Sequence prefix) throws Exception {
+    if (seq == eagerOwner && eagerClean) return executeRest(seq);
+    Recording recording = prefix != null ? recorded.get(prefix) : null;
+    boolean live = recording != null && recording.lineage.mutatedAt <= recording.recordedAt;
+    if (live) {
+      resumed++;
+    } else {
+      replayed++;
+    }
+    if (statics != null) {
+      if (live) {
+        statics.restore(staticSnapshots.get(prefix));
+      } else {
+        statics.restoreInitial();
+      }
+    }
+
+    lastExecuted = null;
+    eagerOwner = null;
+    eagerFrame = null;
+    eagerLineage = null;
+    long tick = ++clock;
+    ValueFrame frame;
+    Lineage lineage = new Lineage();
+    if (live) {
+      frame = new ValueFrame(seq, recording.values, recording.values.length);
+      if (holdsMutable(recording.values)) {
+        lineage = recording.lineage;
+        lineage.mutatedAt = tick;
+      }
+    } else if (prefix != null && compiled.containsKey(prefix)) {
+      frame = replayCompiled(prefix, compiled.get(prefix), seq);
+      compiledReplays++;
+    } else {
+      frame = new ValueFrame(seq.size());
+    }
+    seq.execute(frame);
+    lastExecuted = seq;
+    lastFrame = frame;
+    lastLineage = lineage;
+    lastExecutedAt = tick;
+    return frame;
+  }
+
+  // Executes the last statement of a sequence that is still being built on prefix, which may be
+  // null. The statements before it are executed first if this frame hasn't seen them, skipping
+  // those of prefix if its recorded values are still live; those that fail leave a null value.
+  public void executeLast(Sequence owner, Sequence prefix) throws Exception {
+    if (owner != eagerOwner || eagerFrame.size() >= owner.size()) startEager(owner, prefix);
+    int last = owner.size() - 1;
+    try {
+      while (eagerFrame.size() < last) {
+        try {
+          owner.execute(eagerFrame, last);
+        } catch (InterruptedException e) {
+          throw e;
+        } catch (Exception e) {
+          eagerClean = false;
+          eagerFrame.put(null);
+        }
+      }
+      owner.execute(eagerFrame);
+    } catch (Exception e) {
+      eagerClean = false;
+      throw e;
+    }
+  }
+
+  // Starts the eager frame of owner as execute() would start executing it
+  private void startEager(Sequence owner, Sequence prefix) {
+    Recording recording = prefix != null ? recorded.get(prefix) : null;
+    boolean live = recording != null && recording.lineage.mutatedAt <= recording.recordedAt;
+    if (statics != null) {
+      if (live) {
+        statics.restore(staticSnapshots.get(prefix));
+      } else {
+        statics.restoreInitial();
+      }
+    }
+
+    lastExecuted = null;
+    eagerOwner = owner;
+    eagerClean = true;
+    eagerLineage = new Lineage();
+    if (live) {
+      eagerFrame = new ValueFrame(owner, recording.values, recording.values.length);
+      if (holdsMutable(recording.values)) {
+        eagerLineage = recording.lineage;
+        eagerLineage.mutatedAt = ++clock;
+      }
+    } else {
+      eagerFrame = new ValueFrame(owner.size());
+    }
+  }
+
+  // Executes the statements of seq its eager frame doesn't hold yet
+  private ValueFrame executeRest(Sequence seq) throws Exception {
+    resumed++;
+    ValueFrame frame = eagerFrame;
+    Lineage lineage = eagerLineage;
+    eagerOwner = null;
+    eagerFrame = null;
+    eagerLineage = null;
+    long tick = ++clock;
+    // Frames sharing objects with this one were changed by the eager executions too
+    lineage.mutatedAt = tick;
+    seq.execute(frame);
+    lastExecuted = seq;
+    lastFrame = frame;
+    lastLineage = lineage;
+    lastExecutedAt = tick;
+    return frame;
+  }
+
+  // Records the values of the most recently executed sequence so it can be resumed later
+  public void record(Sequence seq) {
+    if (seq == lastExecuted) {
+      recorded.put(seq, new Recording(lastFrame.toArray(), lastLineage, lastExecutedAt));
+      if (statics != null) staticSnapshots.put(seq, statics.capture());
+    }
+    if (compile) {
+      CompiledSequence code = SequenceCompiler.compile(seq);
+      if (code != null) compiled.put(seq, code);
+    }
+  }
+
+  // Marks every recorded frame as changed since it was recorded, so none is resumed from
+  public void invalidate() {
+    long tick = ++clock;
+    for (Recording recording : recorded.values()) {
+      recording.lineage.mutatedAt = tick;
+    }
+    lastExecuted = null;
+    eagerOwner = null;
+    eagerFrame = null;
+    eagerLineage = null;
+  }
+
+  public void forget(Sequence seq) {
+    recorded.remove(seq);
+    compiled.remove(seq);
+    staticSnapshots.remove(seq);
+  }
+
+  public int getResumedCount() {
+    return resumed;
+  }
+
+  public int getReplayedCount() {
+    return replayed;
+  }
+
+  public int getCompiledReplayCount() {
+    return compiledReplays;
+  }
+
+  // Runs the compiled form of prefix and returns a frame for seq holding its values
+  private ValueFrame replayCompiled(Sequence prefix, CompiledSequence code, Sequence seq) throws Exception {
+    Object[] values = new Object[prefix.size()];
+    int i = 0;
+    for (Statement stmt : prefix.getStatements()) {
+      if (stmt instanceof ConstantAssignment) values[i] = ((ConstantAssignment) stmt).execute(null);
+      i++;
+    }
+
+    // What the targets throw is already wrapped, as the interpreter wraps it
+    try {
+      code.run(values);
+    } catch (Exception | Error e) {
+      throw e;
+    } catch (Throwable t) {
+      throw new InvocationTargetException(t);
+    }
+    return new ValueFrame(seq, values, values.length);
+  }
+
+  private static boolean holdsMutable(Object[] values) {
+    for (Object value : values) {
+      if (!isImmutable(value)) return true;
+    }
+    return false;
+  }
+
+  private static boolean isImmutable(Object value) {
+    return value == null || value instanceof Number || value instanceof Boolean ||
+           value instanceof Character || value instanceof String;
+  }
+}
@@ -0,0 +1,91 @@
+package com.woops;
+
+import java.util.BitSet;
+
+// What happened when a SequenceExecutor ran one sequence.
+public final class ExecutionOutcome {
+
+  public enum Status { NORMAL, EXCEPTION, TIMEOUT, CRASH }
+
+  private final Status status;
+  private final String message;
+  private final int failingIndex;       // statement that threw, hung or crashed; -1 if unknown
+  private final String violatedContract;
+  private final int violatingIndex;
+  private final BitSet nonNullResults;  // positions whose result was non-null after execution
+  private boolean hasState = false;     // whether the state hash below was taken, see StateAbstraction
+  private long stateHigh = 0;
+  private long stateLow = 0;
+
+  private ExecutionOutcome(Status status, String message, int failingIndex, String violatedContract,
+                           int violatingIndex, BitSet nonNullResults) {
+    this.status = status;
+    this.message = message;
+    this.failingIndex = failingIndex;
+    this.violatedContract = violatedContract;
+    this.violatingIndex = violatingIndex;
+    this.nonNullResults = nonNullResults;
+  }
+
+  public static ExecutionOutcome normal(BitSet nonNullResults, String violatedContract, int violatingIndex) {
+    return new ExecutionOutcome(Status.NORMAL, null, -1, violatedContract, violatingIndex, nonNullResults);
+  }
+
+  public static ExecutionOutcome exception(String message, int failingIndex) {
+    return new ExecutionOutcome(Status.EXCEPTION, message, failingIndex, null, -1, null);
+  }
+
+  public static ExecutionOutcome timeout(String message, int failingIndex) {
+    return new ExecutionOutcome(Status.TIMEOUT, message, failingIndex, null, -1, null);
+  }
+
+  public static ExecutionOutcome crash(String message) {
+    return new ExecutionOutcome(Status.CRASH, message, -1, null, -1, null);
+  }
+
+  // The same outcome, with the hash of the state the last statement left behind
+  public ExecutionOutcome withState(long stateHigh, long stateLow) {
+    ExecutionOutcome outcome = new ExecutionOutcome(status, message, failingIndex, violatedContract, violatingIndex,
+                                                    nonNullResults);
+    outcome.hasState = true;
+    outcome.stateHigh = stateHigh;
+    outcome.stateLow = stateLow;
+    return outcome;
+  }
+
+  public Status getStatus() {
+    return status;
+  }
+
+  public String getMessage() {
+    return message;
+  }
+
+  public int getFailingIndex() {
+    return failingIndex;
+  }
+
+  public String getViolatedContract() {
+    return violatedContract;
+  }
+
+  public int getViolatingIndex() {
+    return violatingIndex;
+  }
+
+  public BitSet getNonNullResults() {
+    return nonNullResults;
+  }
+
+  public boolean hasState() {
+    return hasState;
+  }
+
+  public long getStateHigh() {
+    return stateHigh;
+  }
+
+  public long getStateLow() {
+    return stateLow;
+  }
+}
@@ -0,0 +1,29 @@
+package com.woops;
+
+// Thrown when an execution runs past its deadline and is abandoned
+public final class ExecutionTimeoutException extends Exception {
+  private static final long serialVersionUID = 1L;
+
+  private final transient Statement statement;
+  private final transient Sequence sequence;
+
+  public ExecutionTimeoutException(String msg, Statement statement) {
+    this(msg, statement, null);
+  }
+
+  public ExecutionTimeoutException(String msg, Statement statement, Sequence sequence) {
+    super(msg);
+    this.statement = statement;
+    this.sequence = sequence;
+  }
+
+  // The statement that was running when the deadline passed, if known
+  public Statement getStatement() {
+    return statement;
+  }
+
+  // The sequence that was executing, if known
+  public Sequence getSequence() {
+    return sequence;
+  }
+}
@@ -0,0 +1,80 @@
+package com.woops;
+
+import java.util.Arrays;
+
+/**
+ * A set of 128-bit fingerprints, of sequences or of the states they leave behind, stored as
+ * pairs of longs in one open-addressing table so that neither lookups nor entries allocate.
+ */
+public final class FingerprintSet {
+  private long[] table = new long[2 * 16]; // high and low halves side by side; (0, 0) is empty
+  private int size = 0;
+  private boolean containsZero = false; // the fingerprint that collides with the empty slot
+
+  public int size() {
+    return size + (containsZero ? 1 : 0);
+  }
+
+  public boolean contains(long high, long low) {
+    if (high == 0 && low == 0) return containsZero;
+    int slot = slot(table, high, low);
+    return table[slot] != 0 || table[slot + 1] != 0;
+  }
+
+  // Returns false if the fingerprint was already present
+  public boolean add(long high, long low) {
+    if (high == 0 && low == 0) {
+      boolean added = !containsZero;
+      containsZero = true;
+      return added;
+    }
+    int slot = slot(table, high, low);
+    if (table[slot] != 0 || table[slot + 1] != 0) return false;
+    table[slot] = high;
+    table[slot + 1] = low;
+    // Keep the table at most half full
+    if (++size * 4 > table.length) grow();
+    return true;
+  }
+
+  public void clear() {
+    Arrays.fill(table, 0);
+    size = 0;
+    containsZero = false;
+  }
+
+  // Returns the slot holding the fingerprint, or the empty slot where it belongs
+  private static int slot(long[] table, long high, long low) {
+    int mask = table.length / 2 - 1;
+    int index = (int) mix(high ^ Long.rotateLeft(low, 32)) & mask;
+    while (true) {
+      int slot = 2 * index;
+      long h = table[slot];
+      long l = table[slot + 1];
+      if ((h == high && l == low) || (h == 0 && l == 0)) return slot;
+      index = (index + 1) & mask;
+    }
+  }
+
+  private void grow() {
+    long[] old = table;
+    table = new long[old.length * 2];
+    for (int i = 0; i < old.length; i += 2) {
+      if (old[i] != 0 || old[i + 1] != 0) {
+        int slot = slot(table, old[i], old[i + 1]);
+        table[slot] = old[i];
+        table[slot + 1] = old[i + 1];
+      }
+    }
+  }
+
+  // Finalizer of MurmurHash3, spreads every input bit over the whole word
+  static long mix(long h) {
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    h *= 0xc4ceb93fe51a34ebL;
+    h ^= h >>> 33;
+    return h;
+  }
+}
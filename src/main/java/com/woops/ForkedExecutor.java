@@ -0,0 +1,300 @@
+package com.woops;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.file.Paths;
+import java.security.CodeSource;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executes candidates in a pool of forked JVMs running ForkedWorker, so that System.exit,
+ * native crashes, OutOfMemoryErrors or leaked threads in the code under test only take down
+ * a worker. Candidates are encoded with SequenceCodec and sent over the workers' stdin in
+ * batches; outcomes stream back over stdout.
+ *
+ * A worker that dies is restarted and the rest of its batch resent. A worker that doesn't
+ * answer within the execution timeout is killed, and the sequence it was running is reported
+ * as a timeout. Results stay in the workers, so the generator only learns which of them were
+ * null, and constructors are not executed eagerly while candidates are built.
+ */
+public class ForkedExecutor implements SequenceExecutor {
+  private static final int BATCH_PER_WORKER = 32;
+  private static final long STARTUP_TIMEOUT = 30_000;
+
+  private final long timeoutMillis;
+  private final List<String> command = new ArrayList<>();
+  private final List<WorkerProcess> workers = new ArrayList<>();
+  private final ExecutorService dispatcher;
+  private final ScheduledThreadPoolExecutor deadlines;
+
+  private final AtomicInteger timeouts = new AtomicInteger();
+  private final AtomicInteger crashes = new AtomicInteger();
+  private final AtomicInteger restarts = new AtomicInteger();
+
+  public ForkedExecutor(GeneratorOptions options, List<Class<?>> classes) {
+    this.timeoutMillis = options.executionTimeout;
+
+    command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+    command.add("-cp");
+    command.add(workerClassPath());
+    command.add(ForkedWorker.class.getName());
+    command.add("--statics=" + options.statics.name().toLowerCase());
+    command.add("--classes=" + classNames(classes));
+    for (URL url : StaticState.targetUrls(classes)) {
+      command.add(url.toString());
+    }
+
+    for (int i = 0; i < options.forkedWorkers; i++) {
+      workers.add(new WorkerProcess());
+    }
+    dispatcher = workers.size() > 1 ? Executors.newFixedThreadPool(workers.size(), ForkedExecutor::daemon) : null;
+    deadlines = new ScheduledThreadPoolExecutor(1, ForkedExecutor::daemon);
+    deadlines.setRemoveOnCancelPolicy(true);
+  }
+
+  @Override
+  public List<ExecutionOutcome> execute(List<Sequence> candidates, List<Sequence> prefixes) {
+    if (dispatcher == null) {
+      return workers.get(0).run(candidates);
+    }
+
+    // Give each worker a contiguous slice of the batch
+    int slice = (candidates.size() + workers.size() - 1) / workers.size();
+    List<Future<List<ExecutionOutcome>>> futures = new ArrayList<>();
+    for (int i = 0; i < workers.size() && i * slice < candidates.size(); i++) {
+      WorkerProcess worker = workers.get(i);
+      List<Sequence> part = candidates.subList(i * slice, Math.min(candidates.size(), (i + 1) * slice));
+      futures.add(dispatcher.submit(() -> worker.run(part)));
+    }
+
+    List<ExecutionOutcome> outcomes = new ArrayList<>(candidates.size());
+    try {
+      for (Future<List<ExecutionOutcome>> future : futures) {
+        outcomes.addAll(future.get());
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while waiting for workers", e);
+    } catch (ExecutionException e) {
+      throw new IllegalStateException("Worker dispatch failed", e.getCause());
+    }
+    return outcomes;
+  }
+
+  @Override
+  public void executeEagerly(Statement stmt, Sequence owner, Sequence prefix) {
+    // Nothing runs in this JVM; failing constructors surface when the candidate is executed
+  }
+
+  @Override
+  public void accepted(Sequence seq) {
+  }
+
+  @Override
+  public void evicted(Sequence seq) {
+  }
+
+  @Override
+  public int getBatchSize() {
+    return BATCH_PER_WORKER * workers.size();
+  }
+
+  @Override
+  public String getSummary() {
+    return "Forked workers: " + workers.size() + " workers, " + restarts.get() + " restarts, " +
+           crashes.get() + " crashed, " + timeouts.get() + " timed out";
+  }
+
+  @Override
+  public void shutdown() {
+    for (WorkerProcess worker : workers) {
+      worker.stop();
+    }
+    if (dispatcher != null) dispatcher.shutdownNow();
+    deadlines.shutdownNow();
+  }
+
+  /**
+   * One forked JVM and its pipes. Only used by one dispatcher thread at a time.
+   */
+  private final class WorkerProcess {
+    private Process process;
+    private DataOutputStream out;
+    private DataInputStream in;
+    private SequenceCodec.Encoder encoder;
+    private volatile boolean killedByDeadline;
+
+    List<ExecutionOutcome> run(List<Sequence> batch) {
+      ExecutionOutcome[] outcomes = new ExecutionOutcome[batch.size()];
+      int next = 0;
+      while (next < batch.size()) {
+        next = runFrom(batch, next, outcomes);
+      }
+      return Arrays.asList(outcomes);
+    }
+
+    // Sends batch[from..] and reads outcomes until the batch is done or the worker is lost.
+    // Returns the position to resume from.
+    private int runFrom(List<Sequence> batch, int from, ExecutionOutcome[] outcomes) {
+      if (process == null) {
+        try {
+          start();
+        } catch (IOException e) {
+          stop();
+          for (int i = from; i < batch.size(); i++) {
+            outcomes[i] = ExecutionOutcome.crash("Could not start worker: " + e.getMessage());
+          }
+          return batch.size();
+        }
+      }
+
+      List<Integer> sent = new ArrayList<>();
+      List<byte[]> encoded = new ArrayList<>();
+      for (int i = from; i < batch.size(); i++) {
+        try {
+          encoded.add(encoder.encode(batch.get(i)));
+          sent.add(i);
+        } catch (IllegalArgumentException e) {
+          outcomes[i] = ExecutionOutcome.crash("Cannot send to worker: " + e.getMessage());
+        }
+      }
+      if (sent.isEmpty()) return batch.size();
+
+      try {
+        out.writeByte(ForkedWorker.BATCH);
+        SequenceCodec.writeVarInt(out, sent.size());
+        for (byte[] bytes : encoded) {
+          out.write(bytes);
+        }
+        out.flush();
+      } catch (IOException e) {
+        return lost(outcomes, sent.get(0), ExecutionOutcome.crash("Worker stopped reading: " + e.getMessage()));
+      }
+
+      for (int i : sent) {
+        killedByDeadline = false;
+        Process current = process;
+        ScheduledFuture<?> deadline = deadlines.schedule(() -> {
+          killedByDeadline = true;
+          current.destroyForcibly();
+        }, timeoutMillis, TimeUnit.MILLISECONDS);
+
+        ExecutionOutcome outcome;
+        try {
+          outcome = SequenceCodec.readOutcome(in);
+        } catch (IOException e) {
+          deadline.cancel(false);
+          if (killedByDeadline) {
+            timeouts.incrementAndGet();
+            return lost(outcomes, i, ExecutionOutcome.timeout("Execution exceeded " + timeoutMillis + " ms", -1));
+          }
+          crashes.incrementAndGet();
+          return lost(outcomes, i, ExecutionOutcome.crash("Worker died with exit status " + exitStatus()));
+        }
+        if (!deadline.cancel(false)) {
+          // The deadline fired just as the outcome arrived; the outcome stands but the worker is gone
+          return lost(outcomes, i, outcome);
+        }
+        outcomes[i] = outcome;
+      }
+      return batch.size();
+    }
+
+    // Records the outcome of the sequence the worker was lost on and drops the worker
+    private int lost(ExecutionOutcome[] outcomes, int index, ExecutionOutcome outcome) {
+      outcomes[index] = outcome;
+      stop();
+      restarts.incrementAndGet();
+      return index + 1;
+    }
+
+    private void start() throws IOException {
+      process = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+      out = new DataOutputStream(new BufferedOutputStream(process.getOutputStream()));
+      in = new DataInputStream(new BufferedInputStream(process.getInputStream()));
+      // Definitions are per connection, so a restarted worker starts from an empty table
+      encoder = new SequenceCodec.Encoder();
+
+      Process current = process;
+      ScheduledFuture<?> deadline = deadlines.schedule(current::destroyForcibly, STARTUP_TIMEOUT, TimeUnit.MILLISECONDS);
+      try {
+        if (in.readUnsignedByte() != ForkedWorker.READY) {
+          throw new IOException("Unexpected handshake from worker");
+        }
+      } finally {
+        deadline.cancel(false);
+      }
+    }
+
+    private String exitStatus() {
+      try {
+        if (process.waitFor(1, TimeUnit.SECONDS)) return String.valueOf(process.exitValue());
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      return "unknown";
+    }
+
+    void stop() {
+      if (process == null) return;
+      try {
+        out.writeByte(ForkedWorker.EXIT);
+        out.flush();
+        process.waitFor(1, TimeUnit.SECONDS);
+      } catch (IOException e) {
+        // Already gone
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      process.destroyForcibly();
+      process = null;
+    }
+  }
+
+  // Our own classes plus whatever this JVM was started with
+  private static String workerClassPath() {
+    Set<String> entries = new LinkedHashSet<>();
+    CodeSource source = ForkedWorker.class.getProtectionDomain().getCodeSource();
+    if (source != null) {
+      try {
+        entries.add(Paths.get(source.getLocation().toURI()).toString());
+      } catch (Exception e) {
+        // Fall back to java.class.path alone
+      }
+    }
+    entries.addAll(Arrays.asList(System.getProperty("java.class.path").split(File.pathSeparator)));
+    entries.remove("");
+    return String.join(File.pathSeparator, entries);
+  }
+
+  private static String classNames(List<Class<?>> classes) {
+    List<String> names = new ArrayList<>();
+    for (Class<?> cls : classes) {
+      names.add(cls.getName());
+    }
+    return String.join(",", names);
+  }
+
+  private static Thread daemon(Runnable r) {
+    Thread thread = new Thread(r, "forked-executor");
+    thread.setDaemon(true);
+    return thread;
+  }
+}
@@ -0,0 +1,119 @@
+package com.woops;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Entry point of the JVMs forked by ForkedExecutor. Reads batches of encoded sequences from
+ * stdin, executes them and writes one outcome per sequence to stdout as soon as it's known.
+ *
+ * Arguments are --statics=keep|restore|reload, --classes= with the comma-separated classes
+ * under test, and the URLs those classes are loaded from.
+ */
+public final class ForkedWorker {
+  // Sent once the worker is up, so startup isn't charged to the first sequence's deadline
+  static final int READY = 0x57;
+  static final int BATCH = 1;
+  static final int EXIT = 2;
+
+  private static GeneratorOptions.StaticsMode staticsMode = GeneratorOptions.StaticsMode.KEEP;
+  private static StaticState statics;
+  private static URL[] urls;
+  private static final StateAbstraction states = new StateAbstraction();
+
+  private ForkedWorker() {}
+
+  public static void main(String[] args) throws IOException {
+    // Target code may print; keep it off the pipe back to the generator
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(FileDescriptor.out)));
+    System.setOut(System.err);
+
+    List<String> classNames = new ArrayList<>();
+    List<URL> urlList = new ArrayList<>();
+    for (String arg : args) {
+      if (arg.startsWith("--statics=")) {
+        staticsMode = GeneratorOptions.StaticsMode.valueOf(arg.substring("--statics=".length()).toUpperCase());
+      } else if (arg.startsWith("--classes=")) {
+        classNames.addAll(List.of(arg.substring("--classes=".length()).split(",")));
+      } else {
+        urlList.add(URI.create(arg).toURL());
+      }
+    }
+    urls = urlList.toArray(new URL[0]);
+    ClassLoader loader = new URLClassLoader(urls, ForkedWorker.class.getClassLoader());
+    if (staticsMode == GeneratorOptions.StaticsMode.RESTORE) {
+      statics = new StaticState(loadClasses(classNames, loader));
+    }
+    DataInputStream in = new DataInputStream(new BufferedInputStream(System.in));
+    SequenceCodec.Decoder decoder = new SequenceCodec.Decoder(loader);
+
+    out.writeByte(READY);
+    out.flush();
+    while (in.read() == BATCH) {
+      // Read the whole batch first so the generator never blocks writing while we write
+      int count = SequenceCodec.readVarInt(in);
+      List<Sequence> batch = new ArrayList<>(count);
+      for (int i = 0; i < count; i++) {
+        batch.add(decoder.read(in));
+      }
+
+      for (Sequence seq : batch) {
+        SequenceCodec.writeOutcome(out, execute(seq));
+        out.flush();
+      }
+    }
+    // Threads leaked by the target must not keep us alive
+    System.exit(0);
+  }
+
+  private static ExecutionOutcome execute(Sequence seq) {
+    if (staticsMode == GeneratorOptions.StaticsMode.RELOAD) {
+      URLClassLoader loader = StaticState.freshLoader(urls);
+      try {
+        return run(SequenceCodec.transfer(seq, loader));
+      } catch (IllegalArgumentException e) {
+        return ExecutionOutcome.crash(e.getMessage());
+      } finally {
+        try {
+          loader.close();
+        } catch (IOException e) {
+          // Only leaks open files
+        }
+      }
+    }
+    if (statics != null) statics.restoreInitial();
+    return run(seq);
+  }
+
+  private static ExecutionOutcome run(Sequence seq) {
+    ValueFrame frame;
+    try {
+      frame = seq.execute();
+    } catch (Exception e) {
+      return ExecutionOutcome.exception(e.toString(), seq.getExecutingIndex());
+    }
+    return InProcessExecutor.checkResults(frame, seq, states);
+  }
+
+  private static List<Class<?>> loadClasses(List<String> names, ClassLoader loader) {
+    List<Class<?>> classes = new ArrayList<>();
+    for (String name : names) {
+      try {
+        classes.add(Class.forName(name, false, loader));
+      } catch (ClassNotFoundException | LinkageError e) {
+        System.err.println("Worker could not load " + name);
+      }
+    }
+    return classes;
+  }
+}
@@ -0,0 +1,105 @@
+package com.woops;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * The probabilities that steer how candidates are built, by index: REUSE of a pooled sequence
+ * as the start of a candidate, a NULL_ARGUMENT for an object parameter, a FRESH_ARGUMENT for a
+ * method parameter and a FRESH_PRODUCER_ARGUMENT for a constructor or factory parameter instead
+ * of a value already around, REPEAT of the chosen method call, and a LITERAL mined from the
+ * classes under test rather than a random value, see LiteralPool.
+ *
+ * Tuned knobs are kept in a JSON file with one object of knobs per set of classes under test,
+ * so one file serves several targets.
+ */
+final class GenerationKnobs {
+  static final int REUSE = 0;
+  static final int NULL_ARGUMENT = 1;
+  static final int FRESH_ARGUMENT = 2;
+  static final int FRESH_PRODUCER_ARGUMENT = 3;
+  static final int REPEAT = 4;
+  static final int LITERAL = 5;
+  static final String[] NAMES = { "reuse", "null-argument", "fresh-argument", "fresh-producer-argument", "repeat",
+                                  "literal" };
+
+  // Knobs are kept at least this far from 0 and 1, so tuning can't rule anything out
+  static final double MIN = 0.01;
+  static final double MAX = 0.99;
+
+  private final double[] values;
+
+  // The built-in defaults, with the given reuse probability
+  GenerationKnobs(double reuseProb) {
+    this(new double[] { reuseProb, 0.05, 0.2, 0.1, 0.05, 0.3 });
+  }
+
+  GenerationKnobs(double[] values) {
+    this.values = values.clone();
+  }
+
+  int size() {
+    return values.length;
+  }
+
+  double get(int knob) {
+    return values[knob];
+  }
+
+  double[] toArray() {
+    return values.clone();
+  }
+
+  // These knobs with one of them set to value
+  GenerationKnobs with(int knob, double value) {
+    double[] changed = values.clone();
+    changed[knob] = value;
+    return new GenerationKnobs(changed);
+  }
+
+  // The knobs saved in file for target, each missing one taken from defaults; defaults if the
+  // file doesn't exist
+  static GenerationKnobs load(Path file, String target, GenerationKnobs defaults) throws IOException {
+    if (!Files.exists(file)) return defaults;
+    try {
+      JSONObject saved = new JSONObject(Files.readString(file)).optJSONObject(target);
+      if (saved == null) return defaults;
+      double[] values = defaults.toArray();
+      for (int i = 0; i < values.length; i++) {
+        values[i] = Math.min(MAX, Math.max(MIN, saved.optDouble(NAMES[i], values[i])));
+      }
+      return new GenerationKnobs(values);
+    } catch (JSONException e) {
+      throw new IOException("Malformed knob file " + file + ": " + e.getMessage(), e);
+    }
+  }
+
+  // Writes these knobs to file under target, keeping the other targets' knobs
+  void save(Path file, String target) throws IOException {
+    JSONObject all;
+    try {
+      all = Files.exists(file) ? new JSONObject(Files.readString(file)) : new JSONObject();
+    } catch (JSONException e) {
+      all = new JSONObject();
+    }
+    JSONObject knobs = new JSONObject();
+    for (int i = 0; i < values.length; i++) {
+      knobs.put(NAMES[i], Math.round(values[i] * 10000) / 10000.0);
+    }
+    all.put(target, knobs);
+    Files.writeString(file, all.toString(2));
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder out = new StringBuilder();
+    for (int i = 0; i < values.length; i++) {
+      out.append(i == 0 ? "" : ", ").append(NAMES[i]).append(String.format(" %.3f", values[i]));
+    }
+    return out.toString();
+  }
+}
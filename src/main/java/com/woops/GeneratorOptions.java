@@ -0,0 +1,50 @@
+package com.woops;
+
+/**
+ * Optional generation modes, set from command-line flags in Main.
+ */
+public class GeneratorOptions {
+  public enum StaticsMode { KEEP, RESTORE, RELOAD }
+  public enum SchedulerKind { USAGE, UCB1, THOMPSON }
+
+  // Compile pooled sequences into hidden classes and replay them through the compiled code
+  public boolean compileSequences = false;
+
+  // Number of workers generating sequences in parallel
+  public int threads = 1;
+
+  // Milliseconds a single execution may run before it is abandoned as a timeout
+  public long executionTimeout = 500;
+
+  // Forked JVMs to execute sequences in; 0 executes them in the generator's own JVM
+  public int forkedWorkers = 0;
+
+  // What executions do about static state left behind by earlier ones: KEEP it, RESTORE the
+  // snapshot taken after class initialization, or RELOAD the classes in a fresh loader
+  public StaticsMode statics = StaticsMode.KEEP;
+
+  // Most sequences a worker keeps pooled for reuse; 0 keeps them all. Evicted sequences are
+  // still emitted.
+  public int poolCapacity = 0;
+
+  // Directory that sequences evicted from a bounded pool are spilled to, rather than dropped;
+  // null to drop them
+  public String spillDirectory = null;
+
+  // Load the classes under test with coverage probes and steer generation towards new coverage
+  public boolean coverage = false;
+
+  // How each class's next method is chosen, see MethodScheduler
+  public SchedulerKind scheduler = SchedulerKind.USAGE;
+
+  // JSON file to start the generation probabilities from and write them back to after tuning
+  // them during the run, see KnobTuner; null keeps them fixed
+  public String tuneFile = null;
+  // Whether the reuse probability was given on the command line, in which case it replaces the
+  // one in tuneFile
+  public boolean reuseProbGiven = false;
+
+  // Literals mined from the classes under test for constants to draw from, see LiteralPool;
+  // null draws them all at random
+  LiteralPool literals = null;
+}
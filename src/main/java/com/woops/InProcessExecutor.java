@@ -0,0 +1,180 @@
+package com.woops;
+
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Executes candidates in the generator's own JVM, resuming them from live prefixes through
+ * the ExecutionCache and under a Watchdog deadline.
+ *
+ * In RELOAD statics mode every candidate is instead re-created in a fresh class loader and
+ * executed from the start there, so it sees freshly initialized classes.
+ *
+ * An execution that times out may leave the objects it was given and the statics half
+ * changed, and one that ignored the interrupt is still changing them. After either, nothing
+ * recorded so far is resumed from: the cache is dropped and the statics go back to their
+ * initial state.
+ */
+public class InProcessExecutor implements SequenceExecutor {
+  private final boolean compile;
+  private final StaticState statics; // null when static state is left alone
+  private ExecutionCache cache;
+  private final Watchdog watchdog;
+  private volatile boolean stale = false; // an execution ran away since the cache was last dropped
+  private final StateAbstraction states = new StateAbstraction();
+  private final URL[] reloadUrls; // null unless classes are reloaded for every execution
+  private int reloads = 0;
+  // Counts of the caches dropped so far
+  private int resumed = 0;
+  private int replayed = 0;
+  private int compiledReplays = 0;
+
+  // runawayHandler is told about executions that kept their thread, see Watchdog
+  public InProcessExecutor(GeneratorOptions options, List<Class<?>> classes,
+                           Consumer<ExecutionTimeoutException> runawayHandler) {
+    this.compile = options.compileSequences;
+    this.statics = options.statics == GeneratorOptions.StaticsMode.RESTORE ? new StaticState(classes) : null;
+    this.cache = new ExecutionCache(compile, statics);
+    this.watchdog = Watchdog.start(options.executionTimeout, runaway -> {
+      stale = true;
+      runawayHandler.accept(runaway);
+    });
+    this.reloadUrls = options.statics == GeneratorOptions.StaticsMode.RELOAD ? StaticState.targetUrls(classes) : null;
+  }
+
+  @Override
+  public List<ExecutionOutcome> execute(List<Sequence> candidates, List<Sequence> prefixes) {
+    List<ExecutionOutcome> outcomes = new ArrayList<>(candidates.size());
+    for (int i = 0; i < candidates.size(); i++) {
+      outcomes.add(execute(candidates.get(i), prefixes.get(i)));
+    }
+    return outcomes;
+  }
+
+  private ExecutionOutcome execute(Sequence seq, Sequence prefix) {
+    if (stale) discardState();
+    if (reloadUrls != null) return executeReloaded(seq);
+    ValueFrame[] frame = new ValueFrame[1];
+    ExecutionCache cache = this.cache;
+    try {
+      // Only the statements appended to prefix run if its values are still live
+      watchdog.run(() -> frame[0] = cache.execute(seq, prefix), seq);
+    } catch (ExecutionTimeoutException e) {
+      discardState();
+      return ExecutionOutcome.timeout(e.getMessage(), seq.getStatements().lastIndexOf(e.getStatement()));
+    } catch (Exception e) {
+      return ExecutionOutcome.exception(e.toString(), seq.getExecutingIndex());
+    }
+    return checkResults(frame[0], seq, states);
+  }
+
+  // Executes a copy of seq against fresh copies of its classes
+  private ExecutionOutcome executeReloaded(Sequence seq) {
+    URLClassLoader loader = StaticState.freshLoader(reloadUrls);
+    try {
+      Sequence copy;
+      try {
+        copy = SequenceCodec.transfer(seq, loader);
+      } catch (IllegalArgumentException e) {
+        return ExecutionOutcome.crash(e.getMessage());
+      }
+      reloads++;
+      ValueFrame[] frame = new ValueFrame[1];
+      try {
+        watchdog.run(() -> frame[0] = copy.execute(), copy);
+      } catch (ExecutionTimeoutException e) {
+        return ExecutionOutcome.timeout(e.getMessage(), copy.getStatements().lastIndexOf(e.getStatement()));
+      } catch (Exception e) {
+        return ExecutionOutcome.exception(e.toString(), copy.getExecutingIndex());
+      }
+      return checkResults(frame[0], copy, states);
+    } finally {
+      try {
+        loader.close();
+      } catch (IOException e) {
+        // Only leaks open files
+      }
+    }
+  }
+
+  @Override
+  public void executeEagerly(Statement stmt, Sequence owner, Sequence prefix) throws Exception {
+    // Eager results would come from the shared classes, not the reloaded ones
+    if (reloadUrls != null) return;
+    if (stale) discardState();
+    ExecutionCache cache = this.cache;
+    try {
+      watchdog.run(() -> cache.executeLast(owner, prefix), owner);
+    } catch (ExecutionTimeoutException e) {
+      discardState();
+      throw new ExecutionTimeoutException(e.getMessage(), stmt);
+    }
+  }
+
+  @Override
+  public void accepted(Sequence seq) {
+    cache.record(seq);
+  }
+
+  @Override
+  public void evicted(Sequence seq) {
+    cache.forget(seq);
+  }
+
+  // Executions abandoned to calls that are still running
+  public int getRunawayCount() {
+    return watchdog.getRunawayCount();
+  }
+
+  // Drops everything the cache recorded and puts the statics back to their initial state
+  private void discardState() {
+    stale = false;
+    resumed += cache.getResumedCount();
+    replayed += cache.getReplayedCount();
+    compiledReplays += cache.getCompiledReplayCount();
+    cache.invalidate();
+    if (statics != null) statics.restoreInitial();
+    cache = new ExecutionCache(compile, statics);
+  }
+
+  @Override
+  public int getBatchSize() {
+    return 1;
+  }
+
+  @Override
+  public String getSummary() {
+    if (reloadUrls != null) {
+      return "Executions: " + reloads + " in freshly loaded classes, " + watchdog.getTimeoutCount() + " timed out, " +
+             watchdog.getRunawayCount() + " still running";
+    }
+    return "Execution cache: " + (resumed + cache.getResumedCount()) + " resumed, " +
+           (replayed + cache.getReplayedCount()) + " replayed from the start (" +
+           (compiledReplays + cache.getCompiledReplayCount()) + " compiled), " + watchdog.getTimeoutCount() + " timed out, " +
+           watchdog.getRunawayCount() + " still running";
+  }
+
+  @Override
+  public void shutdown() {
+    watchdog.shutdown();
+  }
+
+  // Runs the contract checks over the values of a sequence that executed normally and hashes
+  // the state its last statement left behind
+  static ExecutionOutcome checkResults(ValueFrame frame, Sequence seq, StateAbstraction states) {
+    BitSet nonNull = new BitSet(frame.size());
+    for (int i = 0; i < frame.size(); i++) {
+      if (frame.get(i) != null) nonNull.set(i);
+    }
+
+    Pair<String, Integer> contractResult = ContractChecker.checkValues(frame);
+    int violatingIndex = contractResult.second != null ? contractResult.second : -1;
+    ExecutionOutcome outcome = ExecutionOutcome.normal(nonNull, contractResult.first, violatingIndex);
+    return states.hashLastStatement(seq, frame) ? outcome.withState(states.getHigh(), states.getLow()) : outcome;
+  }
+}
@@ -0,0 +1,63 @@
+package com.woops;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URL;
+import java.security.CodeSigner;
+import java.security.CodeSource;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A child-first loader that adds coverage probes to every class it defines from its own URLs,
+ * see CoverageInstrumenter.
+ *
+ * A class file is instrumented once per run, so the fresh copies of a class that reloading
+ * loaders define all report to the same probes.
+ */
+final class InstrumentingClassLoader extends StaticState.ChildFirstLoader {
+  // Instrumented bytes by the location of the class file
+  private static final Map<String, byte[]> INSTRUMENTED = new ConcurrentHashMap<>();
+
+  InstrumentingClassLoader(URL[] urls, ClassLoader parent) {
+    super(urls, parent);
+  }
+
+  @Override
+  protected Class<?> findClass(String name) throws ClassNotFoundException {
+    String path = name.replace('.', '/') + ".class";
+    URL resource = findResource(path);
+    if (resource == null) throw new ClassNotFoundException(name);
+    try {
+      byte[] bytes = INSTRUMENTED.computeIfAbsent(resource.toString(), key -> instrument(resource));
+      return defineClass(name, bytes, 0, bytes.length, codeSource(resource, path));
+    } catch (UncheckedIOException e) {
+      throw new ClassNotFoundException(name, e.getCause());
+    }
+  }
+
+  private static byte[] instrument(URL resource) {
+    try (InputStream in = resource.openStream()) {
+      return CoverageInstrumenter.instrument(in.readAllBytes());
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  // The directory or jar a class file was found in, as URLClassLoader would report it
+  private static CodeSource codeSource(URL resource, String path) {
+    String location = resource.toString();
+    location = location.substring(0, location.length() - path.length());
+    if (location.startsWith("jar:") && location.endsWith("!/")) {
+      location = location.substring("jar:".length(), location.length() - "!/".length());
+    }
+    try {
+      return new CodeSource(URI.create(location).toURL(), (CodeSigner[]) null);
+    } catch (MalformedURLException | IllegalArgumentException e) {
+      return null;
+    }
+  }
+}
@@ -0,0 +1,113 @@
+package com.woops;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Executable;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Calls a Method or Constructor through a MethodHandle that is resolved once per run and
+ * spread over a single Object[] holding the receiver (for instance methods) and the arguments.
+ * Members that can't be unreflected fall back to plain reflection.
+ *
+ * Values the handle can't take as they are, a null receiver or primitive, or one of another
+ * type, go through reflection too, so the call fails or converts exactly as Method.invoke does.
+ * Whatever the handle itself throws then comes from the target.
+ *
+ * Invokers are cached with the class declaring their member, so the cache doesn't keep the
+ * class loaders of reloaded classes alive once nothing else uses them.
+ */
+public final class Invoker {
+  private static final ClassValue<Map<Executable, Invoker>> CACHE = new ClassValue<>() {
+    @Override
+    protected Map<Executable, Invoker> computeValue(Class<?> type) {
+      return new ConcurrentHashMap<>();
+    }
+  };
+  private static final MethodType SPREAD_TYPE = MethodType.methodType(Object.class, Object[].class);
+
+  private final Executable executable;
+  private final MethodHandle handle; // null when reflection has to be used
+  private final boolean hasReceiver;
+  private final Class<?>[] expected; // type of each value, primitives as their wrappers
+  private final boolean[] nonNull; // values that mustn't be null: the receiver and primitives
+
+  private Invoker(Executable executable) {
+    this.executable = executable;
+    this.hasReceiver = executable instanceof Method && !Modifier.isStatic(executable.getModifiers());
+    this.handle = resolve(executable);
+    Class<?>[] params = executable.getParameterTypes();
+    int offset = hasReceiver ? 1 : 0;
+    expected = new Class<?>[params.length + offset];
+    nonNull = new boolean[expected.length];
+    if (hasReceiver) {
+      expected[0] = executable.getDeclaringClass();
+      nonNull[0] = true;
+    }
+    for (int i = 0; i < params.length; i++) {
+      expected[i + offset] = MethodType.methodType(params[i]).wrap().returnType();
+      nonNull[i + offset] = params[i].isPrimitive();
+    }
+  }
+
+  // Returns the shared invoker for a method or constructor
+  public static Invoker of(Executable executable) {
+    return CACHE.get(executable.getDeclaringClass()).computeIfAbsent(executable, Invoker::new);
+  }
+
+  // Invokes the member; values holds the receiver first if the method isn't static. As with
+  // reflection, what the target throws comes wrapped in an InvocationTargetException, and a
+  // call the values don't fit throws NullPointerException or IllegalArgumentException.
+  public Object invoke(Object[] values) throws Exception {
+    if (handle == null || !fits(values)) {
+      return invokeReflectively(values);
+    }
+    try {
+      return (Object) handle.invokeExact(values);
+    } catch (Throwable t) {
+      throw new InvocationTargetException(t);
+    }
+  }
+
+  // Whether the handle takes values without a conversion or check that reflection would do
+  private boolean fits(Object[] values) {
+    Class<?>[] expected = this.expected;
+    if (values.length != expected.length) return false;
+    for (int i = 0; i < values.length; i++) {
+      Object value = values[i];
+      if (value == null ? nonNull[i] : !expected[i].isInstance(value)) return false;
+    }
+    return true;
+  }
+
+  private Object invokeReflectively(Object[] values) throws Exception {
+    if (executable instanceof Constructor) {
+      return ((Constructor<?>) executable).newInstance(values);
+    }
+    Method method = (Method) executable;
+    if (!hasReceiver) {
+      return method.invoke(null, values);
+    }
+    return method.invoke(values[0], Arrays.copyOfRange(values, 1, values.length));
+  }
+
+  private static MethodHandle resolve(Executable executable) {
+    try {
+      MethodHandle mh = executable instanceof Method
+          ? MethodHandles.publicLookup().unreflect((Method) executable)
+          : MethodHandles.publicLookup().unreflectConstructor((Constructor<?>) executable);
+      // Varargs members take their array argument as-is, like Method.invoke
+      mh = mh.asFixedArity();
+      return mh.asSpreader(Object[].class, mh.type().parameterCount()).asType(SPREAD_TYPE);
+    } catch (IllegalAccessException | RuntimeException e) {
+      return null;
+    }
+  }
+}
@@ -0,0 +1,148 @@
+package com.woops;
+
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Tunes a worker's GenerationKnobs while it runs, with a (1+1) evolution strategy over the
+ * knobs' log-odds.
+ *
+ * The run is cut into epochs of EPOCH_ATTEMPTS candidate attempts. Each trial, drawn around
+ * the best knobs so far, runs for one epoch between two epochs of the best knobs. An epoch's
+ * fitness is its payoffs per second, a payoff being a call that showed new behaviour the way
+ * the bandit schedulers count it, so duplicates, exceptions and rejected sequences all lower
+ * it. The trial replaces the best knobs if it beat the mean of the epochs around it by
+ * MIN_GAIN. Payoffs thin out as a run goes on, and bracketing the trial cancels that trend; the
+ * margin keeps noise from steering the knobs. The step size follows the one-fifth rule: it
+ * grows after an improvement and shrinks slowly after a failure.
+ */
+final class KnobTuner {
+  // Candidate attempts per epoch
+  private static final int EPOCH_ATTEMPTS = 250;
+  // How much better than the best knobs a trial has to do
+  private static final double MIN_GAIN = 1.05;
+  private static final double INITIAL_STEP = 0.5;
+  private static final double MIN_STEP = 0.05;
+  private static final double MAX_STEP = 2;
+  private static final double GROWTH = 1.5;
+
+  private final Random random;
+  private double[] best; // log-odds of the best knobs so far
+  private double[] trial;
+  private double step = INITIAL_STEP;
+  private GenerationKnobs current;
+  private enum Phase { BEFORE, TRIAL, AFTER }
+  private Phase phase = Phase.BEFORE;
+  private double before = 0; // fitness of the best knobs in the epoch before the trial
+  private double trialFitness = 0;
+
+  private int attempts = 0;
+  private int payoffs = 0;
+  private long epochStart = System.nanoTime();
+  private int trials = 0;
+  private int improvements = 0;
+
+  KnobTuner(GenerationKnobs start, Random random) {
+    this.random = random;
+    this.best = new double[start.size()];
+    for (int i = 0; i < best.length; i++) {
+      best[i] = logit(start.get(i));
+    }
+    this.current = start;
+  }
+
+  // The knobs to build the next candidate with
+  GenerationKnobs current() {
+    return current;
+  }
+
+  GenerationKnobs getBest() {
+    return knobs(best);
+  }
+
+  void attempted() {
+    attempts++;
+  }
+
+  void paidOff() {
+    payoffs++;
+  }
+
+  // Ends the epoch if it has run its course, and switches knobs for the next one
+  void maybeEndEpoch() {
+    if (attempts < EPOCH_ATTEMPTS) return;
+    long now = System.nanoTime();
+    double fitness = payoffs / Math.max(1e-9, (now - epochStart) / 1e9);
+    attempts = 0;
+    payoffs = 0;
+    epochStart = now;
+
+    switch (phase) {
+      case BEFORE:
+        before = fitness;
+        startTrial();
+        break;
+      case TRIAL:
+        trialFitness = fitness;
+        current = knobs(best);
+        phase = Phase.AFTER;
+        break;
+      default:
+        trials++;
+        if (trialFitness > MIN_GAIN * (before + fitness) / 2) {
+          best = trial;
+          improvements++;
+          step = Math.min(MAX_STEP, step * GROWTH);
+          // The new best knobs need an epoch of their own before the next trial
+          current = knobs(best);
+          phase = Phase.BEFORE;
+        } else {
+          step = Math.max(MIN_STEP, step * Math.pow(GROWTH, -0.25));
+          before = fitness;
+          startTrial();
+        }
+    }
+  }
+
+  private void startTrial() {
+    trial = new double[best.length];
+    for (int i = 0; i < best.length; i++) {
+      trial[i] = clamp(best[i] + step * random.nextGaussian());
+    }
+    current = knobs(trial);
+    phase = Phase.TRIAL;
+  }
+
+  String getSummary() {
+    return "Knobs: " + getBest() + " (" + improvements + " of " + trials + " trials improved)";
+  }
+
+  // The mean of several sets of knobs, taken in log-odds as the tuner steps in them, so that
+  // 0.01 and 0.5 average to 0.09 rather than 0.255
+  static GenerationKnobs mean(List<GenerationKnobs> knobs) {
+    double[] logOdds = new double[knobs.get(0).size()];
+    for (GenerationKnobs k : knobs) {
+      for (int i = 0; i < logOdds.length; i++) {
+        logOdds[i] += logit(k.get(i)) / knobs.size();
+      }
+    }
+    return knobs(logOdds);
+  }
+
+  private static GenerationKnobs knobs(double[] logOdds) {
+    double[] values = new double[logOdds.length];
+    for (int i = 0; i < values.length; i++) {
+      values[i] = 1 / (1 + Math.exp(-logOdds[i]));
+    }
+    return new GenerationKnobs(values);
+  }
+
+  private static double logit(double p) {
+    p = Math.min(GenerationKnobs.MAX, Math.max(GenerationKnobs.MIN, p));
+    return Math.log(p / (1 - p));
+  }
+
+  private static double clamp(double logOdds) {
+    return Math.min(logit(GenerationKnobs.MAX), Math.max(logit(GenerationKnobs.MIN), logOdds));
+  }
+}
@@ -0,0 +1,219 @@
+package com.woops;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.objectweb.asm.Opcodes.*;
+
+/**
+ * The literals the classes under test compare against, mined from their bytecode so that
+ * branches guarded by a particular value get taken more often than random values would take
+ * them.
+ *
+ * A class file and its nested classes are read once: constants loaded with ldc, bipush and
+ * sipush, the keys of switches and the values of constant fields. ints, longs, floats, doubles
+ * and strings are kept; iconst and friends are not, as 0, 1 and their neighbours are everywhere
+ * and random values hit them anyway. Each literal weighs as often as it occurs, so the values
+ * a class keeps coming back to are drawn more often.
+ *
+ * A value is drawn for a parameter type from every literal that fits it: ints for int, and for
+ * short, byte, char and long when in range, floats and doubles for float and double. Once
+ * built, a pool is only read and can be shared by workers.
+ */
+final class LiteralPool {
+  // Literals mined from each class file, by path
+  private static final Map<String, Map<Object, Integer>> MINED = new ConcurrentHashMap<>();
+
+  // Literals of each parameter type, with running totals of their weights for drawing
+  private static final class Bucket {
+    final Object[] values;
+    final long[] cumulative;
+
+    Bucket(Map<Object, Integer> weights) {
+      values = new Object[weights.size()];
+      cumulative = new long[weights.size()];
+      long total = 0;
+      int i = 0;
+      for (Map.Entry<Object, Integer> entry : weights.entrySet()) {
+        total += entry.getValue();
+        values[i] = entry.getKey();
+        cumulative[i++] = total;
+      }
+    }
+
+    Object draw(Random random) {
+      long target = (long) (random.nextDouble() * cumulative[cumulative.length - 1]);
+      int low = 0;
+      int high = cumulative.length - 1;
+      while (low < high) {
+        int mid = (low + high) >>> 1;
+        if (cumulative[mid] > target) high = mid;
+        else low = mid + 1;
+      }
+      return values[low];
+    }
+  }
+
+  private final Map<Class<?>, Bucket> buckets = new HashMap<>();
+  private final int size;
+
+  private LiteralPool(Map<Object, Integer> literals) {
+    Map<Class<?>, Map<Object, Integer>> byType = new HashMap<>();
+    for (Map.Entry<Object, Integer> entry : literals.entrySet()) {
+      Object literal = entry.getKey();
+      int weight = entry.getValue();
+      if (literal instanceof Integer) {
+        int value = (Integer) literal;
+        add(byType, int.class, value, weight);
+        add(byType, long.class, (long) value, weight);
+        if (value == (short) value) add(byType, short.class, (short) value, weight);
+        if (value == (byte) value) add(byType, byte.class, (byte) value, weight);
+        if (value == (char) value) add(byType, char.class, (char) value, weight);
+      } else if (literal instanceof Long) {
+        add(byType, long.class, literal, weight);
+      } else if (literal instanceof Float) {
+        add(byType, float.class, literal, weight);
+        add(byType, double.class, (double) (Float) literal, weight);
+      } else if (literal instanceof Double) {
+        add(byType, double.class, literal, weight);
+        double value = (Double) literal;
+        if ((float) value == value || Double.isNaN(value)) add(byType, float.class, (float) value, weight);
+      } else if (literal instanceof String) {
+        add(byType, String.class, literal, weight);
+      }
+    }
+    for (Map.Entry<Class<?>, Map<Object, Integer>> entry : byType.entrySet()) {
+      buckets.put(entry.getKey(), new Bucket(entry.getValue()));
+    }
+    this.size = literals.size();
+  }
+
+  private static void add(Map<Class<?>, Map<Object, Integer>> byType, Class<?> type, Object value, int weight) {
+    byType.computeIfAbsent(type, t -> new LinkedHashMap<>()).merge(value, weight, Integer::sum);
+  }
+
+  // The literals of the named classes in dir, their nested classes included
+  static LiteralPool mine(File dir, Collection<String> classNames) {
+    Map<Object, Integer> literals = new LinkedHashMap<>();
+    for (String className : classNames) {
+      String path = className.trim().replace('.', File.separatorChar);
+      File file = new File(dir, path + ".class");
+      File parent = file.getParentFile();
+      String prefix = file.getName().replace(".class", "$");
+      List<File> files = new ArrayList<>();
+      files.add(file);
+      File[] nested = parent == null ? null : parent.listFiles((d, name) -> name.startsWith(prefix) && name.endsWith(".class"));
+      if (nested != null) files.addAll(List.of(nested));
+      for (File classFile : files) {
+        for (Map.Entry<Object, Integer> entry : mine(classFile).entrySet()) {
+          literals.merge(entry.getKey(), entry.getValue(), Integer::sum);
+        }
+      }
+    }
+    return new LiteralPool(literals);
+  }
+
+  // The literals of one class file and how often each occurs; none if it can't be read
+  private static Map<Object, Integer> mine(File classFile) {
+    return MINED.computeIfAbsent(classFile.getAbsolutePath(), path -> {
+      Map<Object, Integer> found = new LinkedHashMap<>();
+      try {
+        new ClassReader(Files.readAllBytes(classFile.toPath()))
+            .accept(new LiteralCollector(found), ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+      } catch (IOException | RuntimeException e) {
+        found.clear();
+      }
+      return found;
+    });
+  }
+
+  // Literals mined in all
+  int size() {
+    return size;
+  }
+
+  // Whether there is a literal to draw for type
+  boolean has(Class<?> type) {
+    return buckets.containsKey(unbox(type));
+  }
+
+  // A literal for type, more frequent ones more likely; null if there is none
+  Object draw(Class<?> type, Random random) {
+    Bucket bucket = buckets.get(unbox(type));
+    return bucket == null ? null : bucket.draw(random);
+  }
+
+  private static Class<?> unbox(Class<?> type) {
+    if (type == Integer.class) return int.class;
+    if (type == Long.class) return long.class;
+    if (type == Short.class) return short.class;
+    if (type == Byte.class) return byte.class;
+    if (type == Character.class) return char.class;
+    if (type == Float.class) return float.class;
+    if (type == Double.class) return double.class;
+    return type;
+  }
+
+  private static final class LiteralCollector extends ClassVisitor {
+    private final Map<Object, Integer> found;
+
+    LiteralCollector(Map<Object, Integer> found) {
+      super(ASM9);
+      this.found = found;
+    }
+
+    void literal(Object value) {
+      if (value instanceof Integer || value instanceof Long || value instanceof Float ||
+          value instanceof Double || value instanceof String) {
+        found.merge(value, 1, Integer::sum);
+      }
+    }
+
+    @Override
+    public FieldVisitor visitField(int access, String name, String descriptor, String signature, Object value) {
+      if (value != null) literal(value);
+      return null;
+    }
+
+    @Override
+    public MethodVisitor visitMethod(int access, String name, String descriptor, String signature,
+                                     String[] exceptions) {
+      return new MethodVisitor(ASM9) {
+        @Override
+        public void visitLdcInsn(Object value) {
+          literal(value);
+        }
+
+        @Override
+        public void visitIntInsn(int opcode, int operand) {
+          if (opcode == BIPUSH || opcode == SIPUSH) literal(operand);
+        }
+
+        @Override
+        public void visitTableSwitchInsn(int min, int max, Label dflt, Label... labels) {
+          for (int key = min; key <= max; key++) literal(key);
+        }
+
+        @Override
+        public void visitLookupSwitchInsn(Label dflt, int[] keys, Label[] labels) {
+          for (int key : keys) literal(key);
+        }
+      };
+    }
+  }
+}
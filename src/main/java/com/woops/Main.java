@@ -10,7 +10,9 @@ import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLClassLoader;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 public class Main 
 {
@@ -20,6 +22,7 @@ public class Main
     int timeLimit = 1000;       // Default timeout in milliseconds
     int maxSequences = 50;       // Default number of sequences to generate
     double reuseProb = 0.85;     // Default reuse probability
+    GeneratorOptions options = new GeneratorOptions();
 
   
     // Parse command-line arguments
@@ -35,6 +38,27 @@ public class Main
         maxSequences = Integer.parseInt(arg.substring("--max=".length()));
       } else if (arg.startsWith("--reuse-prob=")) {
         reuseProb = Double.parseDouble(arg.substring("--reuse-prob=".length()));
+        options.reuseProbGiven = true;
+      } else if (arg.startsWith("--threads=")) {
+        options.threads = Integer.parseInt(arg.substring("--threads=".length()));
+      } else if (arg.startsWith("--exec-timeout=")) {
+        options.executionTimeout = Long.parseLong(arg.substring("--exec-timeout=".length()));
+      } else if (arg.startsWith("--fork=")) {
+        options.forkedWorkers = Integer.parseInt(arg.substring("--fork=".length()));
+      } else if (arg.startsWith("--statics=")) {
+        options.statics = GeneratorOptions.StaticsMode.valueOf(arg.substring("--statics=".length()).toUpperCase());
+      } else if (arg.startsWith("--pool-capacity=")) {
+        options.poolCapacity = Integer.parseInt(arg.substring("--pool-capacity=".length()));
+      } else if (arg.startsWith("--spill-dir=")) {
+        options.spillDirectory = arg.substring("--spill-dir=".length());
+      } else if (arg.startsWith("--scheduler=")) {
+        options.scheduler = GeneratorOptions.SchedulerKind.valueOf(arg.substring("--scheduler=".length()).toUpperCase());
+      } else if (arg.startsWith("--tune=")) {
+        options.tuneFile = arg.substring("--tune=".length());
+      } else if (arg.equals("--coverage")) {
+        options.coverage = true;
+      } else if (arg.equals("--compile")) {
+        options.compileSequences = true;
       } else {
         methodNames.add(arg);
       }
@@ -42,7 +66,7 @@ public class Main
   
     // Validate required arguments
     if (dirArg == null || classArg == null) {
-      System.err.println("Usage: mvn exec:java -Dexec.args=\"--dir=<class-dir> --class=com.<package>.<class-name> --time=<max-seconds> --reuse-prob=<probability> [method1 method2 ...]\"");
+      System.err.println("Usage: mvn exec:java -Dexec.args=\"--dir=<class-dir> --class=com.<package>.<class-name> --time=<max-seconds> --reuse-prob=<probability> [--threads=<n>] [--exec-timeout=<ms>] [--fork=<n>] [--statics=keep|restore|reload] [--pool-capacity=<n>] [--spill-dir=<dir>] [--coverage] [--scheduler=usage|ucb1|thompson] [--tune=<file>] [--compile] [method1 method2 ...]\"");
       System.err.println("If no methods specified, all public methods will be used");
       return;
     }
@@ -58,6 +82,12 @@ public class Main
       return;
     }
   
+    if (options.coverage && options.forkedWorkers > 0) {
+      System.err.println("Warning: --coverage has no effect with --fork, sequences run in other JVMs");
+      options.coverage = false;
+    }
+    if (options.coverage) CoverageRuntime.enable();
+
     // Load all specified class names (comma-separated)
     String[] classNames = classArg.split(",");
     List<Class<?>> classes = new ArrayList<>();
@@ -82,9 +112,21 @@ public class Main
       return;
     }
   
+    // Mine the classes under test for literals to use as constants
+    List<String> minedNames = new ArrayList<>();
+    for (Class<?> cls : classes) {
+      minedNames.add(cls.getName());
+    }
+    options.literals = LiteralPool.mine(classDir, minedNames);
+    System.out.println("Literals: " + options.literals.size() + " mined");
+
     // Run sequence generation
     Pair<List<Sequence>, List<Sequence>> sequencePair =
-        SequenceGenerator.generateSequences(classes, timeLimit, maxSequences, methodNames, reuseProb);
+        SequenceGenerator.generateSequences(classes, timeLimit, maxSequences, methodNames, reuseProb, options);
+    if (options.coverage) {
+      System.out.println("Coverage: " + CoverageRuntime.getCoveredCount() + " of " +
+                         CoverageRuntime.getProbeCount() + " probes");
+    }
   
     // Generate JUnit test class
     String suiteClassName = "GeneratedTests";
@@ -113,7 +155,8 @@ public class Main
         System.out.println();
         System.out.println("Invalid Sequences:");
         for (Sequence seq : sequencePair.second) {
-          if (seq.getThrewException() == true) {
+          // Sequences that hung or crashed a worker would do the same to the generated suite
+          if (seq.getThrewException() == true && !seq.getTimedOut() && !seq.getCrashed()) {
             w.write(seq.toCode(false));
             w.newLine();
           }
@@ -133,12 +176,20 @@ public class Main
   
 
   private static final List<URLClassLoader> openLoaders = new ArrayList<>();
+  private static final Map<URL, ClassLoader> instrumentingLoaders = new HashMap<>();
   // Returns a Class 
   private static Class<?> getClassFromFile(File dir, String className)  throws MalformedURLException, ClassNotFoundException {
     URL url = dir.toPath().toAbsolutePath().toUri().toURL();
     if (!url.toString().endsWith("/")) {          // ensure it’s treated as a dir
         url = new URL(url.toString() + "/");
     }
+    if (CoverageRuntime.isEnabled()) {
+      // One loader per directory, so classes under test see each other; it loads the rest of
+      // them lazily, so it stays open
+      ClassLoader instrumenting = instrumentingLoaders.computeIfAbsent(url,
+          u -> new InstrumentingClassLoader(new URL[] { u }, Main.class.getClassLoader()));
+      return Class.forName(className, false, instrumenting);
+    }
     URLClassLoader loader =
         new URLClassLoader(new URL[] { url }, Main.class.getClassLoader());
     openLoaders.add(loader);                      // remember to close later
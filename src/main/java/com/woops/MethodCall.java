@@ -4,6 +4,7 @@ import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 
 /** 
   * Represents a method call within a sequence.
@@ -13,25 +14,35 @@ public final class MethodCall extends Statement {
   private final Method method;
   private final List<Argument> args; 
   private final boolean isStatic;
+  private final Invoker invoker;
+  private final ArgumentBuffer buffer;
 
   public MethodCall(Method method, List<Argument> args) {
     super(method.getReturnType()); // initialize type
     this.method = method;
     this.args = args;
     isStatic = Modifier.isStatic(method.getModifiers());
+    invoker = Invoker.of(method);
+    buffer = new ArgumentBuffer(args);
   }
 
   @Override
-  public void execute() throws Exception {
-    // Get the receiver from the first argument if the method isn't static
-    Object receiver = isStatic ? null : args.get(0).getValue();
-    
-    Object[] actualArgs = args.stream()
-      .skip(isStatic ? 0 : 1)  // Skip first argument (the receiver) if not static
-      .map(Argument::getValue)  // Extract values from Arguments
-      .toArray();
-      
-    result = method.invoke(receiver, actualArgs);
+  public Object execute(ValueFrame frame) throws Exception {
+    // The receiver (if the method isn't static) is the first argument, as the invoker expects
+    return invoker.invoke(buffer.fill(frame));
+  }
+
+  @Override
+  Statement copy(Map<Statement, Statement> copies) {
+    return new MethodCall(method, Argument.copyAll(args, copies));
+  }
+
+  public Method getMethod() {
+    return method;
+  }
+
+  public List<Argument> getArguments() {
+    return args;
   }
 
 
@@ -0,0 +1,118 @@
+package com.woops;
+
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Weighted random choice among the methods of one class, favouring the less used ones: a
+ * method's weight is the highest usage count of the class minus its own, plus one.
+ *
+ * Usage counts live in a Fenwick tree. The weight of any range is its length times
+ * (max + 1) minus its summed usage, so the tree is searched directly with the current
+ * maximum and neither sampling nor counting a use takes more than O(log n) or allocates.
+ *
+ * This is the USAGE scheduling policy. A pick counts as a use. A call that showed novelty
+ * takes uses off its method, and a call that timed out adds some.
+ */
+final class MethodSampler implements MethodScheduler {
+  // Usage added to a method whose call ran past the execution deadline
+  private static final int TIMEOUT_PENALTY = 50;
+  // Usage taken off a method whose call showed new behaviour, per unit of novelty and at most
+  private static final int NOVELTY_REWARD = 2;
+  private static final int MAX_NOVELTY_REWARD = 20;
+
+  private final List<Method> methods;
+  private final Map<Method, Integer> ids = new HashMap<>();
+  private final long[] tree; // 1-based Fenwick tree of usage counts
+  private final int topStep; // highest power of two not above the number of methods
+  private long totalUsage = 0;
+  private int maxUsage = 0;
+  private final int[] usage;
+  private final int[] picks;
+
+  MethodSampler(List<Method> methods) {
+    this.methods = methods;
+    this.tree = new long[methods.size() + 1];
+    this.usage = new int[methods.size()];
+    this.picks = new int[methods.size()];
+    this.topStep = methods.isEmpty() ? 0 : Integer.highestOneBit(methods.size());
+    for (int i = 0; i < methods.size(); i++) {
+      ids.put(methods.get(i), i);
+    }
+  }
+
+  @Override
+  public int size() {
+    return methods.size();
+  }
+
+  @Override
+  public Method getMethod(int id) {
+    return methods.get(id);
+  }
+
+  @Override
+  public int pick(Random random) {
+    int id = sample(random);
+    picks[id]++;
+    addUsage(id, 1);
+    return id;
+  }
+
+  @Override
+  public void reward(Method method, int novelty, boolean newState, boolean newViolation, long nanos) {
+    // Calls that show new behaviour are worth choosing again, whether or not they threw
+    if (novelty > 0) addUsage(method, -Math.min(novelty * NOVELTY_REWARD, MAX_NOVELTY_REWARD));
+  }
+
+  @Override
+  public void timedOut(Method method) {
+    addUsage(method, TIMEOUT_PENALTY);
+  }
+
+  @Override
+  public String getStatistics() {
+    StringBuilder out = new StringBuilder();
+    for (int id = 0; id < methods.size(); id++) {
+      out.append(String.format("  %s: %d picks, usage %d%n", methods.get(id).getName(), picks[id], usage[id]));
+    }
+    return out.toString();
+  }
+
+  // Returns the id of a random method, weighted by how much less it was used than the most used
+  int sample(Random random) {
+    int n = methods.size();
+    long perMethod = maxUsage + 1L;
+    long remaining = random.nextLong(n * perMethod - totalUsage);
+    // Descend to the last position whose prefix weight doesn't exceed remaining
+    int position = 0;
+    for (int step = topStep; step > 0; step >>= 1) {
+      int next = position + step;
+      if (next > n) continue;
+      long weight = step * perMethod - tree[next];
+      if (weight <= remaining) {
+        position = next;
+        remaining -= weight;
+      }
+    }
+    return position;
+  }
+
+  void addUsage(int id, int amount) {
+    usage[id] += amount;
+    maxUsage = Math.max(maxUsage, usage[id]);
+    totalUsage += amount;
+    for (int i = id + 1; i < tree.length; i += i & -i) {
+      tree[i] += amount;
+    }
+  }
+
+  // Adds usage to method if it belongs to this class
+  void addUsage(Method method, int amount) {
+    Integer id = ids.get(method);
+    if (id != null) addUsage(id, amount);
+  }
+}
@@ -0,0 +1,44 @@
+package com.woops;
+
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Chooses which of a class's methods the next candidate calls, and learns from how the calls
+ * it chose turned out. Each generation worker has one scheduler per class under test.
+ *
+ * The policy is picked with --scheduler: USAGE favours the less used methods, UCB1 and
+ * THOMPSON treat each method as a bandit arm whose payoff is new behaviour per unit of
+ * execution time.
+ */
+interface MethodScheduler {
+  static MethodScheduler create(GeneratorOptions.SchedulerKind kind, List<Method> methods, long timeoutMillis) {
+    switch (kind) {
+      case UCB1:
+        return new BanditScheduler.Ucb1(methods, timeoutMillis);
+      case THOMPSON:
+        return new BanditScheduler.Thompson(methods, timeoutMillis);
+      default:
+        return new MethodSampler(methods);
+    }
+  }
+
+  int size();
+
+  Method getMethod(int id);
+
+  // Chooses the method to call next and counts the pick
+  int pick(Random random);
+
+  // How an executed call to method turned out, if it is one of this scheduler's: the novelty
+  // the feedback sources reported, whether it reached an object state or contract violation
+  // not seen before, and its share of the execution time
+  void reward(Method method, int novelty, boolean newState, boolean newViolation, long nanos);
+
+  // A call to method ran past the execution deadline
+  void timedOut(Method method);
+
+  // One line per method on how often it was picked and how it paid off
+  String getStatistics();
+}
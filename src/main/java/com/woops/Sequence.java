@@ -1,40 +1,219 @@
 package com.woops;
 
 import java.lang.reflect.Method;
-import java.util.ArrayList;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
 
 public class Sequence {
-  public final List<Statement> statements = new ArrayList<>();
+  // Shares the statements of the sequences this one was concatenated from
+  private final StatementRope statements = new StatementRope();
+  private final List<Statement> statementView = new AbstractList<>() {
+    @Override
+    public Statement get(int index) {
+      return statements.get(index);
+    }
+
+    @Override
+    public int size() {
+      return statements.size();
+    }
+
+    @Override
+    public Iterator<Statement> iterator() {
+      return statements.iterator(0);
+    }
+  };
+  // Positions of statements by the types they can stand in for, created on first use
+  private StatementTypeIndex typeIndex = null;
+
+  // Rolling polynomial hash of the statement signatures in two lanes, see getFingerprintHigh()
+  private static final long BASE_HIGH = 0x9e3779b97f4a7c15L;
+  private static final long BASE_LOW = 0xc2b2ae3d27d4eb4fL;
+  private long fingerprintHigh = 0;
+  private long fingerprintLow = 0;
+  private long powerHigh = 1; // BASE_HIGH to the number of statements hashed
+  private long powerLow = 1;
+  private int hashedCount = 0; // statements folded into the fingerprint so far
   
   // For filters
   private boolean threwException = false;
 
-  private Object lastResult = null;
   private String violatedContract = null; // Track which contract was violated
   private Statement violatingStmt = null; // Track which statement caused the violation
+  private boolean timedOut = false; // Execution was abandoned by the watchdog
+  private boolean crashed = false; // Execution took down a forked worker
+  private BitSet nonNullResults = null; // Positions with a non-null result when last executed
+  private boolean hasState = false; // Whether the state hash of the last execution is known
+  private long stateHigh = 0;
+  private long stateLow = 0;
+
+  // Position of the statement currently executing, read by the watchdog on a timeout
+  private volatile int executingIndex = -1;
+
+  // Where the arguments of each statement are read from in a frame, laid out on first execution
+  private static final class ArgumentLayout {
+    final int size; // statements laid out
+    final int[] starts; // into positions, one past the end for the last statement
+    final int[] positions; // latest earlier position of the argument's statement, -1 for none
+
+    ArgumentLayout(int size, int[] starts, int[] positions) {
+      this.size = size;
+      this.starts = starts;
+      this.positions = positions;
+    }
+  }
+
+  private volatile ArgumentLayout layout = null;
 
   public Sequence() {
   }
 
+  // Appends the statements of seq in O(1); they stay shared with seq
   public void concat(Sequence seq) {
-    this.statements.addAll(seq.statements);
+    // Positions can only be borrowed from a sequence that has an index
+    if (seq.typeIndex != null) typeIndex().concatenated(seq.typeIndex, statements.size(), seq.size());
+    // hash(a + b) = hash(a) * BASE^|b| + hash(b), so seq's fingerprint is reused as is
+    updateFingerprint();
+    seq.updateFingerprint();
+    fingerprintHigh = fingerprintHigh * seq.powerHigh + seq.fingerprintHigh;
+    fingerprintLow = fingerprintLow * seq.powerLow + seq.fingerprintLow;
+    powerHigh *= seq.powerHigh;
+    powerLow *= seq.powerLow;
+    hashedCount += seq.hashedCount;
+    this.statements.append(seq.statements);
+  }
+
+  public void add(Statement stmt) {
+    statements.add(stmt);
+  }
+
+  public int size() {
+    return statements.size();
+  }
+
+  public Statement get(int index) {
+    return statements.get(index);
+  }
+
+  // Read-only view of the statements, cheapest to walk with its iterator
+  public List<Statement> getStatements() {
+    return statementView;
+  }
+
+  Iterator<Statement> iterator(int from) {
+    return statements.iterator(from);
+  }
+
+  // Returns a random statement whose value is assignable to type, or null if there is none
+  public Statement findStatementOfType(Class<?> type, Random random) {
+    return typeIndex().randomOfType(type, random);
+  }
+
+  StatementTypeIndex typeIndex() {
+    if (typeIndex == null) typeIndex = new StatementTypeIndex(this);
+    return typeIndex;
+  }
+
+  // Returns a copy with fresh statements that can be executed independently of this sequence
+  public Sequence copy() {
+    Map<Statement, Statement> copies = new IdentityHashMap<>();
+    Sequence seq = new Sequence();
+    for (Statement stmt : statementView) {
+      // A statement listed twice stays a single shared instance in the copy
+      Statement copy = copies.get(stmt);
+      if (copy == null) {
+        copy = stmt.copy(copies);
+        copies.put(stmt, copy);
+      }
+      seq.add(copy);
+    }
+    return seq;
   }
 
   public static Sequence extend(Method m, List<Sequence> seqs, List<Argument> args) {
     Sequence newSeq = new Sequence();
     for (Sequence seq : seqs) {
-      newSeq.statements.addAll(seq.statements);
+      newSeq.concat(seq);
     }
-    newSeq.statements.add(new MethodCall(m, args));
+    newSeq.add(new MethodCall(m, args));
     return newSeq;
   }
 
-  public void execute() throws Exception {
-    for (Statement stmt : statements) {
-      stmt.execute();
-      lastResult = stmt.getResult();
+  // Executes every statement into a new frame and returns it
+  public ValueFrame execute() throws Exception {
+    ValueFrame frame = new ValueFrame(size());
+    execute(frame);
+    return frame;
+  }
+
+  // Executes the statements frame doesn't hold values for yet
+  public void execute(ValueFrame frame) throws Exception {
+    execute(frame, size());
+  }
+
+  // Executes the statements from frame.size() up to end into frame
+  public void execute(ValueFrame frame, int end) throws Exception {
+    ArgumentLayout layout = argumentLayout();
+    frame.layOut(layout.starts, layout.positions);
+    Iterator<Statement> it = statements.iterator(frame.size());
+    for (int i = frame.size(); i < end; i++) {
+      // An execution abandoned by the watchdog has nobody waiting for its values
+      if (Thread.currentThread().isInterrupted()) {
+        throw new InterruptedException("Execution abandoned");
+      }
+      executingIndex = i;
+      Statement stmt = it.next();
+      frame.put(stmt.execute(frame));
+    }
+    executingIndex = -1;
+  }
+
+  // Lays out the arguments once rather than mapping statements to positions in every frame;
+  // laid out again only if statements were added since
+  private ArgumentLayout argumentLayout() {
+    ArgumentLayout layout = this.layout;
+    int size = size();
+    if (layout != null && layout.size == size) return layout;
+    int[] starts = new int[size + 1];
+    int[] positions = new int[size * 2];
+    int count = 0;
+    // Arguments refer to the latest position of a statement, as in the generated test
+    Map<Statement, Integer> latest = new IdentityHashMap<>();
+    Iterator<Statement> it = statements.iterator(0);
+    for (int i = 0; i < size; i++) {
+      Statement stmt = it.next();
+      starts[i] = count;
+      List<Argument> args = stmt instanceof MethodCall ? ((MethodCall) stmt).getArguments()
+                          : stmt instanceof ConstructorCall ? ((ConstructorCall) stmt).getArguments()
+                          : List.of();
+      for (Argument arg : args) {
+        Integer position = arg.hasStatement() ? latest.get(arg.getStatement()) : null;
+        if (count == positions.length) positions = Arrays.copyOf(positions, count * 2 + 4);
+        positions[count++] = position != null ? position : -1;
+      }
+      latest.put(stmt, i);
     }
+    starts[size] = count;
+    layout = new ArgumentLayout(size, starts, positions);
+    this.layout = layout;
+    return layout;
+  }
+
+  // Returns the statement being executed, or null if none is
+  public Statement getExecutingStatement() {
+    int index = executingIndex;
+    return index >= 0 ? statements.get(index) : null;
+  }
+
+  // Position of the statement being executed, or of the one that threw; -1 otherwise
+  public int getExecutingIndex() {
+    return executingIndex;
   }
 
   public boolean getThrewException() {
@@ -45,9 +224,48 @@ public class Sequence {
     this.threwException = threwException;
   }
 
-  // Getter for filter
-  public Object getLastResult() {
-    return lastResult;
+  public boolean getTimedOut() {
+    return timedOut;
+  }
+
+  public void setTimedOut(boolean timedOut) {
+    this.timedOut = timedOut;
+  }
+
+  public boolean getCrashed() {
+    return crashed;
+  }
+
+  public void setCrashed(boolean crashed) {
+    this.crashed = crashed;
+  }
+
+  // Values stay in the frame of each execution; the sequence only keeps which were non-null
+  public void setNonNullResults(BitSet nonNullResults) {
+    this.nonNullResults = nonNullResults;
+  }
+
+  public boolean hasNonNullResult(int index) {
+    return nonNullResults != null && nonNullResults.get(index);
+  }
+
+  // Hash of the objects the last statement left behind, see StateAbstraction
+  public void setState(long high, long low) {
+    this.hasState = true;
+    this.stateHigh = high;
+    this.stateLow = low;
+  }
+
+  public boolean hasState() {
+    return hasState;
+  }
+
+  public long getStateHigh() {
+    return stateHigh;
+  }
+
+  public long getStateLow() {
+    return stateLow;
   }
 
   public void setViolatedContract(String contract) {
@@ -71,13 +289,30 @@ public class Sequence {
     return toCode(isValid, this.violatedContract);
   }
 
-  // Fingerprint for EquivalenceFilter
-  public String getSignatureFingerprint() {
-    StringBuilder sb = new StringBuilder();
-    for (Statement stmt : statements) {
-      sb.append(stmt.getSignature()).append(";");
+  // Structural fingerprint: sequences with the same statement signatures in the same order
+  // have the same 128 bits. Maintained incrementally, so it costs O(1) per added statement.
+  public long getFingerprintHigh() {
+    updateFingerprint();
+    return fingerprintHigh;
+  }
+
+  public long getFingerprintLow() {
+    updateFingerprint();
+    return fingerprintLow;
+  }
+
+  // Folds in the statements added since the fingerprint was last brought up to date
+  private void updateFingerprint() {
+    if (hashedCount == statements.size()) return;
+    Iterator<Statement> it = statements.iterator(hashedCount);
+    while (it.hasNext()) {
+      Statement stmt = it.next();
+      fingerprintHigh = fingerprintHigh * BASE_HIGH + stmt.signatureHash(0);
+      fingerprintLow = fingerprintLow * BASE_LOW + stmt.signatureHash(1);
+      powerHigh *= BASE_HIGH;
+      powerLow *= BASE_LOW;
+      hashedCount++;
     }
-    return sb.toString();
   }
 
   // Formats each test case
@@ -101,8 +336,9 @@ public class Sequence {
   }
 
   private void generateTest(StringBuilder code, String violatedContract) {
-    for (int i = 0; i < statements.size(); i++) {
-      Statement stmt = statements.get(i);
+    Iterator<Statement> it = statements.iterator(0);
+    for (int i = 0; it.hasNext(); i++) {
+      Statement stmt = it.next();
       // Give the statement a corresponding variable name if needed
       if (stmt.getType() != void.class) {
         stmt.setVariableName("var" + i);
@@ -118,8 +354,10 @@ public class Sequence {
   }
   
   private void addContractAssertions(StringBuilder code) {
-    for (Statement stmt : statements) {
-      if (stmt.getResult() != null && stmt.getType() != void.class && stmt.getVariableName() != null) {
+    Iterator<Statement> it = statements.iterator(0);
+    for (int i = 0; it.hasNext(); i++) {
+      Statement stmt = it.next();
+      if (hasNonNullResult(i) && stmt.getType() != void.class && stmt.getVariableName() != null) {
         String varName = stmt.getVariableName();
         Class<?> type = stmt.getType();
 
@@ -0,0 +1,448 @@
+package com.woops;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Executable;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact binary encoding of sequences, used to ship them to forked executor JVMs and to
+ * spill them to disk.
+ *
+ * Classes and executables are sent once per connection as numbered definitions and referred
+ * to by number afterwards. Arguments are encoded as back-references to the position of the
+ * statement they come from, and integers as variable-length ints, so a typical statement
+ * takes a handful of bytes.
+ */
+public final class SequenceCodec {
+  // Record tags
+  private static final int DEFINE_CLASS = 1;
+  private static final int DEFINE_METHOD = 2;
+  private static final int DEFINE_CONSTRUCTOR = 3;
+  private static final int CONSTANT = 4;
+  private static final int METHOD_CALL = 5;
+  private static final int CONSTRUCTOR_CALL = 6;
+
+  // Value tags
+  private static final int NULL = 0;
+  private static final int INT = 1;
+  private static final int LONG = 2;
+  private static final int DOUBLE = 3;
+  private static final int FLOAT = 4;
+  private static final int BOOLEAN = 5;
+  private static final int CHAR = 6;
+  private static final int BYTE = 7;
+  private static final int SHORT = 8;
+  private static final int STRING = 9;
+  private static final int ARRAY = 10;
+  private static final int LIST = 11;
+
+  private static final Map<String, Class<?>> PRIMITIVES = new HashMap<>();
+  static {
+    for (Class<?> type : new Class<?>[] { int.class, long.class, double.class, float.class, boolean.class,
+                                          char.class, byte.class, short.class, void.class }) {
+      PRIMITIVES.put(type.getName(), type);
+    }
+  }
+
+  private SequenceCodec() {}
+
+  /**
+   * Encodes sequences for one connection, remembering which definitions were already sent.
+   */
+  public static final class Encoder {
+    private final Map<Object, Integer> ids = new IdentityHashMap<>();
+    private final List<Object> definitions = new ArrayList<>(); // by id
+
+    // Returns the encoding of seq, or throws IllegalArgumentException if it holds something that
+    // can't be encoded. A failed sequence leaves no definitions behind.
+    public byte[] encode(Sequence seq) {
+      int defined = ids.size();
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      try {
+        write(new DataOutputStream(bytes), seq);
+      } catch (IOException | RuntimeException e) {
+        ids.values().removeIf(id -> id >= defined);
+        definitions.subList(defined, definitions.size()).clear();
+        throw e instanceof IllegalArgumentException ? (IllegalArgumentException) e : new IllegalArgumentException(e);
+      }
+      return bytes.toByteArray();
+    }
+
+    private void write(DataOutput out, Sequence seq) throws IOException {
+      // Arguments refer to the latest position of a statement, as the interpreter would see it
+      Map<Statement, Integer> positions = new IdentityHashMap<>();
+
+      writeVarInt(out, seq.size());
+      int i = 0;
+      for (Statement stmt : seq.getStatements()) {
+        if (stmt instanceof ConstantAssignment) {
+          int typeId = define(out, stmt.getType());
+          out.writeByte(CONSTANT);
+          writeVarInt(out, typeId);
+          writeValue(out, ((ConstantAssignment) stmt).getValue());
+        } else if (stmt instanceof MethodCall) {
+          MethodCall call = (MethodCall) stmt;
+          int methodId = define(out, call.getMethod());
+          out.writeByte(METHOD_CALL);
+          writeVarInt(out, methodId);
+          writeArguments(out, call.getArguments(), i, positions);
+        } else if (stmt instanceof ConstructorCall) {
+          ConstructorCall call = (ConstructorCall) stmt;
+          int constructorId = define(out, call.getConstructor());
+          out.writeByte(CONSTRUCTOR_CALL);
+          writeVarInt(out, constructorId);
+          writeArguments(out, call.getArguments(), i, positions);
+        } else {
+          throw new IllegalArgumentException("Unsupported statement " + stmt.getClass().getSimpleName());
+        }
+        positions.put(stmt, i++);
+      }
+    }
+
+    private void writeArguments(DataOutput out, List<Argument> args, int index, Map<Statement, Integer> positions)
+        throws IOException {
+      writeVarInt(out, args.size());
+      for (Argument arg : args) {
+        Integer position = arg.hasStatement() ? positions.get(arg.getStatement()) : null;
+        if (position == null) {
+          throw new IllegalArgumentException("Argument does not come from an earlier statement");
+        }
+        writeVarInt(out, index - position);
+      }
+    }
+
+    // Returns the id of a class or executable, writing its definition first if it's new
+    private int define(DataOutput out, Object key) throws IOException {
+      Integer id = ids.get(key);
+      if (id != null) return id;
+
+      if (key instanceof Class) {
+        out.writeByte(DEFINE_CLASS);
+        writeString(out, ((Class<?>) key).getName());
+      } else {
+        Executable executable = (Executable) key;
+        int ownerId = define(out, executable.getDeclaringClass());
+        Class<?>[] paramTypes = executable.getParameterTypes();
+        int[] paramIds = new int[paramTypes.length];
+        for (int i = 0; i < paramTypes.length; i++) {
+          paramIds[i] = define(out, paramTypes[i]);
+        }
+
+        out.writeByte(executable instanceof Method ? DEFINE_METHOD : DEFINE_CONSTRUCTOR);
+        writeVarInt(out, ownerId);
+        if (executable instanceof Method) writeString(out, executable.getName());
+        writeVarInt(out, paramIds.length);
+        for (int paramId : paramIds) writeVarInt(out, paramId);
+      }
+      id = ids.size();
+      ids.put(key, id);
+      definitions.add(key);
+      return id;
+    }
+
+    private void writeValue(DataOutput out, Object value) throws IOException {
+      if (value == null) {
+        out.writeByte(NULL);
+      } else if (value instanceof Integer) {
+        out.writeByte(INT);
+        writeVarInt(out, zigZag((Integer) value));
+      } else if (value instanceof Long) {
+        out.writeByte(LONG);
+        out.writeLong((Long) value);
+      } else if (value instanceof Double) {
+        out.writeByte(DOUBLE);
+        out.writeDouble((Double) value);
+      } else if (value instanceof Float) {
+        out.writeByte(FLOAT);
+        out.writeFloat((Float) value);
+      } else if (value instanceof Boolean) {
+        out.writeByte(BOOLEAN);
+        out.writeBoolean((Boolean) value);
+      } else if (value instanceof Character) {
+        out.writeByte(CHAR);
+        out.writeChar((Character) value);
+      } else if (value instanceof Byte) {
+        out.writeByte(BYTE);
+        out.writeByte((Byte) value);
+      } else if (value instanceof Short) {
+        out.writeByte(SHORT);
+        out.writeShort((Short) value);
+      } else if (value instanceof String) {
+        out.writeByte(STRING);
+        writeString(out, (String) value);
+      } else if (value.getClass().isArray()) {
+        int componentId = define(out, value.getClass().getComponentType());
+        int length = Array.getLength(value);
+        out.writeByte(ARRAY);
+        writeVarInt(out, componentId);
+        writeVarInt(out, length);
+        for (int i = 0; i < length; i++) {
+          writeValue(out, Array.get(value, i));
+        }
+      } else if (value instanceof List) {
+        List<?> list = (List<?>) value;
+        out.writeByte(LIST);
+        writeVarInt(out, list.size());
+        for (Object element : list) {
+          writeValue(out, element);
+        }
+      } else {
+        throw new IllegalArgumentException("Unsupported constant of type " + value.getClass().getName());
+      }
+    }
+  }
+
+  /**
+   * Reads sequences from one connection, resolving classes through the given loader.
+   */
+  public static final class Decoder {
+    private final ClassLoader loader;
+    private final List<Object> definitions;
+    private final boolean predefined; // definitions are known up front and skipped when read
+
+    public Decoder(ClassLoader loader) {
+      this.loader = loader;
+      this.definitions = new ArrayList<>();
+      this.predefined = false;
+    }
+
+    // Reads sequences encoder wrote in this JVM, in any order: definitions are looked up in the
+    // encoder rather than taken from whichever earlier sequence carried them
+    public Decoder(Encoder encoder) {
+      this.loader = null;
+      this.definitions = encoder.definitions;
+      this.predefined = true;
+    }
+
+    public Sequence read(DataInput in) throws IOException {
+      int size = readVarInt(in);
+      Sequence seq = new Sequence();
+      while (seq.size() < size) {
+        int tag = in.readUnsignedByte();
+        switch (tag) {
+          case DEFINE_CLASS:
+            String name = readString(in);
+            if (!predefined) definitions.add(resolveClass(name));
+            break;
+          case DEFINE_METHOD:
+          case DEFINE_CONSTRUCTOR:
+            if (predefined) {
+              skipExecutable(in, tag == DEFINE_METHOD);
+            } else {
+              definitions.add(readExecutable(in, tag == DEFINE_METHOD));
+            }
+            break;
+          case CONSTANT:
+            Class<?> type = (Class<?>) definitions.get(readVarInt(in));
+            seq.add(new ConstantAssignment(readValue(in), type));
+            break;
+          case METHOD_CALL:
+            Method method = (Method) definitions.get(readVarInt(in));
+            seq.add(new MethodCall(method, readArguments(in, seq)));
+            break;
+          case CONSTRUCTOR_CALL:
+            Constructor<?> constructor = (Constructor<?>) definitions.get(readVarInt(in));
+            seq.add(new ConstructorCall(constructor, readArguments(in, seq)));
+            break;
+          default:
+            throw new IOException("Unknown record tag " + tag);
+        }
+      }
+      return seq;
+    }
+
+    private List<Argument> readArguments(DataInput in, Sequence seq) throws IOException {
+      int count = readVarInt(in);
+      int index = seq.size();
+      List<Argument> args = new ArrayList<>(count);
+      for (int i = 0; i < count; i++) {
+        args.add(new Argument(seq.get(index - readVarInt(in))));
+      }
+      return args;
+    }
+
+    private Executable readExecutable(DataInput in, boolean isMethod) throws IOException {
+      Class<?> owner = (Class<?>) definitions.get(readVarInt(in));
+      String name = isMethod ? readString(in) : null;
+      Class<?>[] paramTypes = new Class<?>[readVarInt(in)];
+      for (int i = 0; i < paramTypes.length; i++) {
+        paramTypes[i] = (Class<?>) definitions.get(readVarInt(in));
+      }
+      try {
+        return isMethod ? owner.getDeclaredMethod(name, paramTypes) : owner.getDeclaredConstructor(paramTypes);
+      } catch (NoSuchMethodException e) {
+        throw new IOException("Cannot resolve " + owner.getName() + "." + (isMethod ? name : "<init>"), e);
+      }
+    }
+
+    private static void skipExecutable(DataInput in, boolean isMethod) throws IOException {
+      readVarInt(in);
+      if (isMethod) readString(in);
+      int paramCount = readVarInt(in);
+      for (int i = 0; i < paramCount; i++) {
+        readVarInt(in);
+      }
+    }
+
+    private Class<?> resolveClass(String name) throws IOException {
+      Class<?> primitive = PRIMITIVES.get(name);
+      if (primitive != null) return primitive;
+      try {
+        return Class.forName(name, false, loader);
+      } catch (ClassNotFoundException e) {
+        throw new IOException("Cannot resolve class " + name, e);
+      }
+    }
+
+    private Object readValue(DataInput in) throws IOException {
+      int tag = in.readUnsignedByte();
+      switch (tag) {
+        case NULL: return null;
+        case INT: return unZigZag(readVarInt(in));
+        case LONG: return in.readLong();
+        case DOUBLE: return in.readDouble();
+        case FLOAT: return in.readFloat();
+        case BOOLEAN: return in.readBoolean();
+        case CHAR: return in.readChar();
+        case BYTE: return in.readByte();
+        case SHORT: return in.readShort();
+        case STRING: return readString(in);
+        case ARRAY: {
+          Class<?> componentType = (Class<?>) definitions.get(readVarInt(in));
+          int length = readVarInt(in);
+          Object array = Array.newInstance(componentType, length);
+          for (int i = 0; i < length; i++) {
+            Array.set(array, i, readValue(in));
+          }
+          return array;
+        }
+        case LIST: {
+          int size = readVarInt(in);
+          List<Object> list = new ArrayList<>(size);
+          for (int i = 0; i < size; i++) {
+            list.add(readValue(in));
+          }
+          return list;
+        }
+        default:
+          throw new IOException("Unknown value tag " + tag);
+      }
+    }
+  }
+
+  // Re-creates seq, unexecuted, against the classes loader defines. Throws IllegalArgumentException
+  // if seq can't be encoded.
+  public static Sequence transfer(Sequence seq, ClassLoader loader) {
+    byte[] bytes = new Encoder().encode(seq);
+    try {
+      return new Decoder(loader).read(new DataInputStream(new ByteArrayInputStream(bytes)));
+    } catch (IOException e) {
+      throw new IllegalArgumentException("Cannot transfer sequence: " + e.getMessage(), e);
+    }
+  }
+
+  public static void writeOutcome(DataOutput out, ExecutionOutcome outcome) throws IOException {
+    out.writeByte(outcome.getStatus().ordinal());
+    writeString(out, outcome.getMessage() != null ? outcome.getMessage() : "");
+    writeVarInt(out, outcome.getFailingIndex() + 1);
+    writeString(out, outcome.getViolatedContract() != null ? outcome.getViolatedContract() : "");
+    writeVarInt(out, outcome.getViolatingIndex() + 1);
+    if (outcome.getNonNullResults() != null) {
+      byte[] mask = outcome.getNonNullResults().toByteArray();
+      writeVarInt(out, mask.length + 1);
+      out.write(mask);
+    } else {
+      writeVarInt(out, 0);
+    }
+    out.writeBoolean(outcome.hasState());
+    if (outcome.hasState()) {
+      out.writeLong(outcome.getStateHigh());
+      out.writeLong(outcome.getStateLow());
+    }
+  }
+
+  public static ExecutionOutcome readOutcome(DataInput in) throws IOException {
+    int status = in.readUnsignedByte();
+    if (status >= ExecutionOutcome.Status.values().length) throw new IOException("Unknown outcome status " + status);
+    String message = readString(in);
+    int failingIndex = readVarInt(in) - 1;
+    String violatedContract = readString(in);
+    int violatingIndex = readVarInt(in) - 1;
+    int maskLength = readVarInt(in) - 1;
+    BitSet nonNull = null;
+    if (maskLength >= 0) {
+      byte[] mask = new byte[maskLength];
+      in.readFully(mask);
+      nonNull = BitSet.valueOf(mask);
+    }
+    boolean hasState = in.readBoolean();
+    long stateHigh = hasState ? in.readLong() : 0;
+    long stateLow = hasState ? in.readLong() : 0;
+
+    switch (ExecutionOutcome.Status.values()[status]) {
+      case NORMAL:
+        ExecutionOutcome normal =
+            ExecutionOutcome.normal(nonNull, violatedContract.isEmpty() ? null : violatedContract, violatingIndex);
+        return hasState ? normal.withState(stateHigh, stateLow) : normal;
+      case EXCEPTION:
+        return ExecutionOutcome.exception(message, failingIndex);
+      case TIMEOUT:
+        return ExecutionOutcome.timeout(message, failingIndex);
+      default:
+        return ExecutionOutcome.crash(message);
+    }
+  }
+
+  public static void writeVarInt(DataOutput out, int value) throws IOException {
+    while ((value & ~0x7F) != 0) {
+      out.writeByte((value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    out.writeByte(value);
+  }
+
+  public static int readVarInt(DataInput in) throws IOException {
+    int value = 0;
+    for (int shift = 0; shift < 35; shift += 7) {
+      int b = in.readUnsignedByte();
+      value |= (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) return value;
+    }
+    throw new IOException("Malformed varint");
+  }
+
+  public static void writeString(DataOutput out, String s) throws IOException {
+    byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+    writeVarInt(out, bytes.length);
+    out.write(bytes);
+  }
+
+  public static String readString(DataInput in) throws IOException {
+    byte[] bytes = new byte[readVarInt(in)];
+    in.readFully(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  private static int zigZag(int value) {
+    return (value << 1) ^ (value >> 31);
+  }
+
+  private static int unZigZag(int value) {
+    return (value >>> 1) ^ -(value & 1);
+  }
+}
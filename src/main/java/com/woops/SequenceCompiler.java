@@ -0,0 +1,352 @@
+package com.woops;
+
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Type;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.objectweb.asm.Opcodes.*;
+
+/**
+ * Compiles a sequence into a hidden class whose run method calls each statement directly, so
+ * replaying it is straight-line code the JIT can specialize rather than a loop over Statements.
+ *
+ * The hidden class is defined next to a small anchor class in a child of the targets' class
+ * loader, which lets it link against the classes under test. Sequences the compiler can't
+ * express (non-public types, types not visible from one loader, oversized methods) compile to
+ * null and stay on the interpreter.
+ *
+ * The code behaves as the interpreter's reflective calls do: arguments are unboxed, widened and
+ * boxed the way Method.invoke converts them, statements whose values would need a conversion it
+ * rejects aren't compiled, and only what a target throws comes wrapped in an
+ * InvocationTargetException. A null receiver fails with a plain NullPointerException and a null
+ * primitive argument with an IllegalArgumentException.
+ */
+public final class SequenceCompiler {
+  private static final String PACKAGE = "com/woops/compiled/";
+  private static final String LOOKUP_DESCRIPTOR = "()Ljava/lang/invoke/MethodHandles$Lookup;";
+  private static final Map<ClassLoader, MethodHandles.Lookup> ANCHORS = new ConcurrentHashMap<>();
+
+  private SequenceCompiler() {}
+
+  // Returns the compiled form of seq, or null if it has to be interpreted
+  public static CompiledSequence compile(Sequence seq) {
+    try {
+      ClassLoader loader = findLoader(seq);
+      if (loader == null) return null;
+
+      byte[] bytes = generate(seq);
+      if (bytes == null) return null;
+
+      MethodHandles.Lookup anchor = ANCHORS.computeIfAbsent(loader, SequenceCompiler::defineAnchor);
+      MethodHandles.Lookup hidden = anchor.defineHiddenClass(bytes, true);
+      return (CompiledSequence) hidden.findConstructor(hidden.lookupClass(), MethodType.methodType(void.class))
+          .invoke();
+    } catch (Throwable t) {
+      return null;
+    }
+  }
+
+  private static byte[] generate(Sequence seq) {
+    ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_FRAMES);
+    cw.visit(V17, ACC_PUBLIC | ACC_FINAL | ACC_SUPER, PACKAGE + "Seq", null, "java/lang/Object",
+             new String[] { Type.getInternalName(CompiledSequence.class) });
+
+    MethodVisitor init = cw.visitMethod(ACC_PUBLIC, "<init>", "()V", null, null);
+    init.visitCode();
+    init.visitVarInsn(ALOAD, 0);
+    init.visitMethodInsn(INVOKESPECIAL, "java/lang/Object", "<init>", "()V", false);
+    init.visitInsn(RETURN);
+    init.visitMaxs(0, 0);
+    init.visitEnd();
+
+    MethodVisitor mv = cw.visitMethod(ACC_PUBLIC, "run", "([Ljava/lang/Object;)V", null, null);
+    mv.visitCode();
+    // Arguments refer to the latest position of a statement, as the interpreter would see it
+    Map<Statement, Integer> positions = new IdentityHashMap<>();
+    Label wrap = new Label(); // wraps what the calls throw
+    int i = 0;
+    for (Statement stmt : seq.getStatements()) {
+      boolean emitted;
+      if (stmt instanceof MethodCall) {
+        emitted = emitMethodCall(mv, (MethodCall) stmt, i, positions, wrap);
+      } else if (stmt instanceof ConstructorCall) {
+        emitted = emitConstructorCall(mv, (ConstructorCall) stmt, i, positions, wrap);
+      } else {
+        // Constants are already in the values array
+        emitted = stmt instanceof ConstantAssignment;
+      }
+      if (!emitted) return null;
+      positions.put(stmt, i++);
+    }
+    mv.visitInsn(RETURN);
+
+    String wrapper = Type.getInternalName(InvocationTargetException.class);
+    mv.visitLabel(wrap);
+    mv.visitTypeInsn(NEW, wrapper);
+    mv.visitInsn(DUP_X1);
+    mv.visitInsn(SWAP);
+    mv.visitMethodInsn(INVOKESPECIAL, wrapper, "<init>", "(Ljava/lang/Throwable;)V", false);
+    mv.visitInsn(ATHROW);
+    mv.visitMaxs(0, 0);
+    mv.visitEnd();
+    cw.visitEnd();
+    return cw.toByteArray();
+  }
+
+  private static boolean emitMethodCall(MethodVisitor mv, MethodCall call, int index,
+                                        Map<Statement, Integer> positions, Label wrap) {
+    Method method = call.getMethod();
+    Class<?> owner = method.getDeclaringClass();
+    boolean isStatic = Modifier.isStatic(method.getModifiers());
+    Class<?>[] paramTypes = method.getParameterTypes();
+    List<Argument> args = call.getArguments();
+
+    if (!isAccessible(owner) || !Modifier.isPublic(method.getModifiers())) return false;
+    if (args.size() != paramTypes.length + (isStatic ? 0 : 1)) return false;
+
+    boolean hasResult = method.getReturnType() != void.class;
+    if (hasResult) {
+      mv.visitVarInsn(ALOAD, 1);
+      pushInt(mv, index);
+    }
+    int argIndex = 0;
+    if (!isStatic) {
+      if (!loadArgument(mv, args.get(argIndex++), owner, positions)) return false;
+      // Reflection rejects a null receiver before calling anything
+      mv.visitInsn(DUP);
+      mv.visitMethodInsn(INVOKESTATIC, "java/util/Objects", "requireNonNull",
+                         "(Ljava/lang/Object;)Ljava/lang/Object;", false);
+      mv.visitInsn(POP);
+    }
+    for (Class<?> type : paramTypes) {
+      if (!loadArgument(mv, args.get(argIndex++), type, positions)) return false;
+    }
+
+    int opcode = isStatic ? INVOKESTATIC : owner.isInterface() ? INVOKEINTERFACE : INVOKEVIRTUAL;
+    Label start = new Label();
+    Label end = new Label();
+    mv.visitTryCatchBlock(start, end, wrap, "java/lang/Throwable");
+    mv.visitLabel(start);
+    mv.visitMethodInsn(opcode, Type.getInternalName(owner), method.getName(),
+                       Type.getMethodDescriptor(method), owner.isInterface());
+    mv.visitLabel(end);
+    if (hasResult) {
+      box(mv, method.getReturnType());
+      mv.visitInsn(AASTORE);
+    }
+    return true;
+  }
+
+  private static boolean emitConstructorCall(MethodVisitor mv, ConstructorCall call, int index,
+                                             Map<Statement, Integer> positions, Label wrap) {
+    Constructor<?> constructor = call.getConstructor();
+    Class<?> owner = constructor.getDeclaringClass();
+    Class<?>[] paramTypes = constructor.getParameterTypes();
+    List<Argument> args = call.getArguments();
+
+    if (!isAccessible(owner) || !Modifier.isPublic(constructor.getModifiers())) return false;
+    if (Modifier.isAbstract(owner.getModifiers()) || args.size() != paramTypes.length) return false;
+
+    String ownerName = Type.getInternalName(owner);
+    mv.visitVarInsn(ALOAD, 1);
+    pushInt(mv, index);
+    mv.visitTypeInsn(NEW, ownerName);
+    mv.visitInsn(DUP);
+    for (int i = 0; i < paramTypes.length; i++) {
+      if (!loadArgument(mv, args.get(i), paramTypes[i], positions)) return false;
+    }
+    Label start = new Label();
+    Label end = new Label();
+    mv.visitTryCatchBlock(start, end, wrap, "java/lang/Throwable");
+    mv.visitLabel(start);
+    mv.visitMethodInsn(INVOKESPECIAL, ownerName, "<init>", Type.getConstructorDescriptor(constructor), false);
+    mv.visitLabel(end);
+    mv.visitInsn(AASTORE);
+    return true;
+  }
+
+  // Pushes values[position of arg] converted to the given parameter type. The conversion is
+  // chosen by the type of arg's statement and must be one Method.invoke makes: an unboxing
+  // followed by a primitive widening, or a reference one.
+  private static boolean loadArgument(MethodVisitor mv, Argument arg, Class<?> type,
+                                      Map<Statement, Integer> positions) {
+    if (!arg.hasStatement()) return false;
+    Integer position = positions.get(arg.getStatement());
+    if (position == null) return false;
+    Class<?> source = arg.getStatement().getType();
+    Class<?> unboxed = MethodType.methodType(source).unwrap().returnType();
+    if (type.isPrimitive()) {
+      if (!unboxed.isPrimitive() || !isWidening(unboxed, type)) return false;
+    } else if (!type.isAssignableFrom(MethodType.methodType(source).wrap().returnType())) {
+      return false;
+    }
+
+    mv.visitVarInsn(ALOAD, 1);
+    pushInt(mv, position);
+    mv.visitInsn(AALOAD);
+    if (type.isPrimitive()) {
+      // A statement of a primitive type always has a value, a boxed one may be null
+      if (!source.isPrimitive()) {
+        Label present = new Label();
+        mv.visitInsn(DUP);
+        mv.visitJumpInsn(IFNONNULL, present);
+        mv.visitTypeInsn(NEW, "java/lang/IllegalArgumentException");
+        mv.visitInsn(DUP);
+        mv.visitMethodInsn(INVOKESPECIAL, "java/lang/IllegalArgumentException", "<init>", "()V", false);
+        mv.visitInsn(ATHROW);
+        mv.visitLabel(present);
+      }
+      String wrapper = Type.getInternalName(MethodType.methodType(unboxed).wrap().returnType());
+      mv.visitTypeInsn(CHECKCAST, wrapper);
+      mv.visitMethodInsn(INVOKEVIRTUAL, wrapper, unboxed.getName() + "Value",
+                         Type.getMethodDescriptor(Type.getType(unboxed)), false);
+      widen(mv, unboxed, type);
+    } else if (type != Object.class) {
+      if (!isAccessible(type)) return false;
+      mv.visitTypeInsn(CHECKCAST, Type.getInternalName(type));
+    }
+    return true;
+  }
+
+  private static final List<Class<?>> WIDENING_ORDER =
+      List.of(byte.class, short.class, int.class, long.class, float.class, double.class);
+
+  // Whether a value of primitive type from converts to to by identity or widening
+  private static boolean isWidening(Class<?> from, Class<?> to) {
+    if (from == to) return true;
+    if (from == boolean.class || to == boolean.class || to == char.class) return false;
+    if (from == char.class) return WIDENING_ORDER.indexOf(to) >= WIDENING_ORDER.indexOf(int.class);
+    int rank = WIDENING_ORDER.indexOf(to);
+    return rank >= 0 && rank > WIDENING_ORDER.indexOf(from);
+  }
+
+  // Widens the primitive on the stack, which isWidening() allows
+  private static void widen(MethodVisitor mv, Class<?> from, Class<?> to) {
+    if (from == to) return;
+    boolean fromInt = from != long.class && from != float.class && from != double.class;
+    if (to == long.class && fromInt) {
+      mv.visitInsn(I2L);
+    } else if (to == float.class) {
+      mv.visitInsn(fromInt ? I2F : L2F);
+    } else if (to == double.class) {
+      mv.visitInsn(fromInt ? I2D : from == long.class ? L2D : F2D);
+    }
+  }
+
+  private static void box(MethodVisitor mv, Class<?> type) {
+    if (!type.isPrimitive()) return;
+    Class<?> wrapper = MethodType.methodType(type).wrap().returnType();
+    mv.visitMethodInsn(INVOKESTATIC, Type.getInternalName(wrapper), "valueOf",
+                       Type.getMethodDescriptor(Type.getType(wrapper), Type.getType(type)), false);
+  }
+
+  private static void pushInt(MethodVisitor mv, int value) {
+    if (value <= 5) {
+      mv.visitInsn(ICONST_0 + value);
+    } else if (value <= Byte.MAX_VALUE) {
+      mv.visitIntInsn(BIPUSH, value);
+    } else if (value <= Short.MAX_VALUE) {
+      mv.visitIntInsn(SIPUSH, value);
+    } else {
+      mv.visitLdcInsn(value);
+    }
+  }
+
+  private static boolean isAccessible(Class<?> type) {
+    while (type.isArray()) type = type.getComponentType();
+    return type.isPrimitive() || Modifier.isPublic(type.getModifiers());
+  }
+
+  // Returns a loader from which every class the sequence refers to resolves to the same Class
+  private static ClassLoader findLoader(Sequence seq) {
+    Set<Class<?>> referenced = new LinkedHashSet<>();
+    for (Statement stmt : seq.getStatements()) {
+      if (stmt instanceof MethodCall) {
+        Method method = ((MethodCall) stmt).getMethod();
+        referenced.add(method.getDeclaringClass());
+        referenced.add(method.getReturnType());
+        referenced.addAll(List.of(method.getParameterTypes()));
+      } else if (stmt instanceof ConstructorCall) {
+        Constructor<?> constructor = ((ConstructorCall) stmt).getConstructor();
+        referenced.add(constructor.getDeclaringClass());
+        referenced.addAll(List.of(constructor.getParameterTypes()));
+      }
+    }
+
+    List<ClassLoader> candidates = new ArrayList<>();
+    for (Class<?> type : referenced) {
+      ClassLoader loader = type.getClassLoader();
+      if (loader != null && !candidates.contains(loader)) candidates.add(loader);
+    }
+    candidates.add(SequenceCompiler.class.getClassLoader());
+
+    for (ClassLoader loader : candidates) {
+      if (!isVisible(CompiledSequence.class, loader)) continue;
+      boolean allVisible = true;
+      for (Class<?> type : referenced) {
+        if (!isVisible(type, loader)) {
+          allVisible = false;
+          break;
+        }
+      }
+      if (allVisible) return loader;
+    }
+    return null;
+  }
+
+  private static boolean isVisible(Class<?> type, ClassLoader loader) {
+    while (type.isArray()) type = type.getComponentType();
+    if (type.isPrimitive() || type.getClassLoader() == null) return true;
+    try {
+      return Class.forName(type.getName(), false, loader) == type;
+    } catch (ClassNotFoundException | LinkageError e) {
+      return false;
+    }
+  }
+
+  // Defines a public class with a static lookup() in a child of parent and returns its
+  // full-privilege Lookup, which hidden classes are then defined against
+  private static MethodHandles.Lookup defineAnchor(ClassLoader parent) {
+    ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+    cw.visit(V17, ACC_PUBLIC | ACC_SUPER, PACKAGE + "Anchor", null, "java/lang/Object", null);
+    MethodVisitor mv = cw.visitMethod(ACC_PUBLIC | ACC_STATIC, "lookup", LOOKUP_DESCRIPTOR, null, null);
+    mv.visitCode();
+    mv.visitMethodInsn(INVOKESTATIC, "java/lang/invoke/MethodHandles", "lookup", LOOKUP_DESCRIPTOR, false);
+    mv.visitInsn(ARETURN);
+    mv.visitMaxs(0, 0);
+    mv.visitEnd();
+    cw.visitEnd();
+
+    try {
+      Class<?> anchor = new AnchorLoader(parent).define(cw.toByteArray());
+      return (MethodHandles.Lookup) anchor.getMethod("lookup").invoke(null);
+    } catch (ReflectiveOperationException e) {
+      throw new IllegalStateException("Failed to define compiler anchor", e);
+    }
+  }
+
+  private static final class AnchorLoader extends ClassLoader {
+    AnchorLoader(ClassLoader parent) {
+      super(parent);
+    }
+
+    Class<?> define(byte[] bytes) {
+      return defineClass(null, bytes, 0, bytes.length);
+    }
+  }
+}
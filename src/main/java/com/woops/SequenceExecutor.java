@@ -0,0 +1,32 @@
+package com.woops;
+
+import java.util.List;
+
+/**
+ * Runs candidate sequences for the SequenceGenerator, either in this JVM or elsewhere.
+ */
+public interface SequenceExecutor {
+
+  // Executes the candidates in order and returns one outcome each. prefixes.get(i) is the
+  // pooled sequence candidate i was built on, or null.
+  List<ExecutionOutcome> execute(List<Sequence> candidates, List<Sequence> prefixes);
+
+  // Executes stmt, the last statement of a candidate that is still being built on prefix (or
+  // null), to weed out failing constructors early. Executors that don't run code in this JVM
+  // skip it.
+  void executeEagerly(Statement stmt, Sequence owner, Sequence prefix) throws Exception;
+
+  // Called when a candidate is accepted into the pool
+  void accepted(Sequence seq);
+
+  // Called when a pooled sequence is evicted and won't be built on again
+  void evicted(Sequence seq);
+
+  // How many candidates the generator should collect before calling execute
+  int getBatchSize();
+
+  // One line of statistics for the end of the run
+  String getSummary();
+
+  void shutdown();
+}
@@ -1,218 +1,728 @@
 package com.woops;
 
+import com.woops.feedback.CoverageFeedback;
+import com.woops.feedback.FeedbackLoader;
+import com.woops.feedback.FeedbackSource;
 import com.woops.filters.*;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.lang.reflect.Array;
-import java.lang.reflect.Constructor;
 import java.lang.reflect.Method;
-import java.lang.reflect.Modifier;
+import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Generates sequences for test case generation using random method selection,
  * filtering, and structure-based equivalence checking.
+ *
+ * Each generator is one worker with its own pool, fingerprint set and random source. In
+ * parallel mode several workers run at once and exchange accepted sequences through a
+ * SharedSequencePool. When static state is restored in this JVM, each parallel worker loads
+ * its own copies of the classes under test so their statics don't interfere, and imported
+ * sequences are re-created against those copies.
+ *
+ * Candidates are handed to a SequenceExecutor in batches of its choosing: one at a time when
+ * executing in this JVM, larger batches when they are shipped to forked workers.
+ *
+ * Each worker runs on a thread of its own, which executions in this JVM share. When one of
+ * them runs away with the thread, the worker carries on on a new thread and counts what was
+ * running as a timeout. Once MAX_RUNAWAYS abandoned calls are still running in this JVM, the
+ * worker moves its executions to a forked JVM.
+ *
+ * With a spill directory, sequences evicted from a bounded pool are written to a SpillStore
+ * there, both for the pool to read back and in place of this worker's own valid sequences.
+ * Without one, this worker's evicted valid sequences are kept as CompactSequences until the
+ * tests are written.
+ *
+ * After each execution the worker polls the FeedbackSources listed in config.json. New
+ * behaviour they report makes the method that was called more likely to be chosen again and
+ * the sequence more likely to stay pooled. Sources read this JVM, so with forked workers they
+ * would only ever report nothing and credit no call; they are not loaded then, and are no
+ * longer polled once a worker falls back to a forked JVM.
  */
 public class SequenceGenerator {
-  private final static Random random = new Random();
-  
-  public static Pair<List<Sequence>, List<Sequence>> generateSequences(
-      List<Class<?>> classes, long timeLimit, int maxSequences, List<String> allowedMethods, double reuseProb) {
-
-    List<Sequence> errorSeqs = new ArrayList<>();
-    SequencePool pool = new SequencePool();
-    List<Sequence> validSeqs = new ArrayList<>();
-    Set<String> seenFingerprints = new HashSet<>();
-
-    long startTime = System.currentTimeMillis();
-    int sequenceCount = 0;
-
-    List<Filter> filters = FilterLoader.loadFiltersFromConfig("config.json");
+  // Accepted sequences a worker collects before publishing them to the other workers
+  private static final int PUBLISH_BATCH = 16;
+  // Nested constructions deeper than this only follow the cheapest path
+  private static final int MAX_CONSTRUCTION_DEPTH = 3;
+  // Runaway calls left running in this JVM before executions move to a forked JVM
+  private static final int MAX_RUNAWAYS = 2;
+
+  private final Random random = new Random();
+  private final int workerId;
+  private final List<Class<?>> classes;
+  private final GenerationKnobs fixedKnobs;
+  private final KnobTuner tuner; // null unless the knobs are tuned as the worker runs
+  private final SharedSequencePool shared; // null when running single-threaded
+  private final ClassLoader isolatedLoader; // this worker's own copies of the classes, if any
+
+  private final GeneratorOptions options;
+  private final SequencePool pool;
+  private SequenceExecutor executor; // replaced by a forked one once too many calls ran away
+  private final SpillableSequenceList validSeqs;
+  // Where each of this worker's valid sequences is in validSeqs, while it may still be evicted
+  // from a bounded pool
+  private final Map<Sequence, Integer> validPositions;
+  private final List<Sequence> errorSeqs = new ArrayList<>();
+  private final FingerprintSet seenFingerprints = new FingerprintSet();
+  private final List<Sequence> unpublished = new ArrayList<>();
+  private int sharedCursor = 0;
+
+  private final List<Filter> filters;
+  private final List<FeedbackSource> feedback;
+  private final int[] feedbackTotals; // novelty each source reported over the run
+  private boolean feedbackOff = false; // executions moved out of this JVM
+  private final List<List<Method>> classMethodLists = new ArrayList<>();
+  // Chooses among each class's methods, see MethodScheduler
+  private final List<MethodScheduler> schedulers = new ArrayList<>();
+  // Contracts violated so far, with the method that violated them
+  private final Set<String> seenViolations = new HashSet<>();
+  private final long timeoutNanos;
+  private final ConstructionPlanner planner;
+  private final LiteralPool literals; // null if none were mined
+
+  // Where the worker's current thread is, for another thread to carry on from if it runs away
+  private Candidate inFlight = null; // being executed
+  private Method building = null; // chosen for the candidate being built
+  private Sequence buildingOn = null; // pooled sequence the candidate being built starts with
+  private ConstructionPlanner.Producer eagerProducer = null; // being executed eagerly
+  // The run the worker is in, and how it ended
+  private long startTime;
+  private long timeLimit;
+  private int maxSequences;
+  private AtomicInteger sequenceCount;
+  private final CountDownLatch finished = new CountDownLatch(1);
+  private volatile Throwable failure = null;
+
+  private SequenceGenerator(int workerId, List<Class<?>> classes, List<String> allowedMethods, GenerationKnobs knobs,
+                            GeneratorOptions options, SharedSequencePool shared) {
+    this.workerId = workerId;
+    this.options = options;
+    this.fixedKnobs = knobs;
+    this.tuner = options.tuneFile != null ? new KnobTuner(knobs, random) : null;
+    this.timeoutNanos = options.executionTimeout * 1_000_000L;
+    this.literals = options.literals;
+    this.shared = shared;
+    boolean isolate = shared != null && options.forkedWorkers == 0 &&
+                      options.statics == GeneratorOptions.StaticsMode.RESTORE;
+    this.isolatedLoader = isolate ? StaticState.freshLoader(StaticState.targetUrls(classes)) : null;
+    this.classes = isolate ? reloadClasses(classes, isolatedLoader) : classes;
+    this.executor = options.forkedWorkers > 0 ? new ForkedExecutor(options, this.classes)
+                                              : new InProcessExecutor(options, this.classes, this::carryOn);
+    this.filters = FilterLoader.loadFiltersFromConfig("config.json");
+    this.feedback = options.forkedWorkers > 0 ? noFeedback() : loadFeedback(this.classes);
+    this.feedbackTotals = new int[feedback.size()];
+    SpillStore spill = options.spillDirectory != null && options.poolCapacity > 0
+                       ? openSpillStore(options.spillDirectory) : null;
+    this.pool = new SequencePool(options.poolCapacity, spill, this::evicted);
+    this.validSeqs = new SpillableSequenceList(spill);
+    this.validPositions = options.poolCapacity > 0 ? new IdentityHashMap<>() : null;
 
     // Get testable methods from each class
-    List<List<Method>> classMethodLists = new ArrayList<>();
-    List<List<Constructor<?>>> classConstructorLists = new ArrayList<>();
-    Map<Method, Integer> methodUsageCount = new HashMap<>();
-
-    for (Class<?> cls : classes) {
-      Method[] allMethods = cls.getDeclaredMethods();
+    for (Class<?> cls : this.classes) {
+      TypeMetadata metadata = TypeMetadata.of(cls);
       List<Method> methods = new ArrayList<>();
       
       // Get method list
-      for (Method method : allMethods) {
-        if (Modifier.isPublic(method.getModifiers()) && 
-            shouldIncludeMethod(method, allowedMethods)) {
+      for (Method method : metadata.getPublicMethods()) {
+        if (shouldIncludeMethod(method, allowedMethods)) {
           methods.add(method);
-          methodUsageCount.put(method, 0); // Initialize usage count
         }
       }
       classMethodLists.add(methods);
+      schedulers.add(MethodScheduler.create(options.scheduler, methods, options.executionTimeout));
+    }
+    this.planner = new ConstructionPlanner(this.classes);
+  }
 
-      // Get constructor list
-      Constructor<?>[] constructors = cls.getDeclaredConstructors();
-      List<Constructor<?>> publicConstructors = new ArrayList<>();
-      
-      for (Constructor<?> constructor : constructors) {
-        if (Modifier.isPublic(constructor.getModifiers())) {
-          publicConstructors.add(constructor);
+  public static Pair<List<Sequence>, List<Sequence>> generateSequences(
+      List<Class<?>> classes, long timeLimit, int maxSequences, List<String> allowedMethods, double reuseProb) {
+    return generateSequences(classes, timeLimit, maxSequences, allowedMethods, reuseProb, new GeneratorOptions());
+  }
+
+  public static Pair<List<Sequence>, List<Sequence>> generateSequences(
+      List<Class<?>> classes, long timeLimit, int maxSequences, List<String> allowedMethods, double reuseProb,
+      GeneratorOptions options) {
+    long startTime = System.currentTimeMillis();
+    AtomicInteger sequenceCount = new AtomicInteger();
+    GenerationKnobs knobs = new GenerationKnobs(reuseProb);
+    String target = tuningTarget(classes);
+    if (options.tuneFile != null) {
+      try {
+        knobs = GenerationKnobs.load(Paths.get(options.tuneFile), target, knobs);
+        // A reuse probability given on the command line wins over the tuned one
+        if (options.reuseProbGiven && knobs.get(GenerationKnobs.REUSE) != reuseProb) {
+          System.out.println("Starting from --reuse-prob=" + reuseProb + " rather than the tuned " +
+                             String.format("%.3f", knobs.get(GenerationKnobs.REUSE)));
+          knobs = knobs.with(GenerationKnobs.REUSE, reuseProb);
         }
+      } catch (IOException e) {
+        System.err.println("Failed to read tuned knobs, starting from the defaults: " + e.getMessage());
+      }
+    }
+
+    if (options.threads <= 1) {
+      SequenceGenerator generator = new SequenceGenerator(0, classes, allowedMethods, knobs, options, null);
+      generator.start(startTime, timeLimit, maxSequences, sequenceCount);
+      generator.awaitEnd();
+      if (options.tuneFile != null) saveTunedKnobs(List.of(generator), options.tuneFile, target);
+      return new Pair<>(generator.validSeqs, generator.errorSeqs);
+    }
+
+    SharedSequencePool shared = new SharedSequencePool();
+    List<SequenceGenerator> workers = new ArrayList<>();
+    for (int i = 0; i < options.threads; i++) {
+      workers.add(new SequenceGenerator(i, classes, allowedMethods, knobs, options, shared));
+    }
+    for (SequenceGenerator worker : workers) {
+      worker.start(startTime, timeLimit, maxSequences, sequenceCount);
+    }
+    for (SequenceGenerator worker : workers) {
+      worker.awaitEnd();
+    }
+
+    if (options.tuneFile != null) saveTunedKnobs(workers, options.tuneFile, target);
+
+    // Workers only deduplicate their own sequences, so drop structures found by several of them
+    List<Sequence> validSeqs = new ArrayList<>();
+    List<Sequence> errorSeqs = new ArrayList<>();
+    FingerprintSet mergedFingerprints = new FingerprintSet();
+    for (SequenceGenerator worker : workers) {
+      for (Sequence seq : worker.validSeqs) {
+        if (mergedFingerprints.add(seq.getFingerprintHigh(), seq.getFingerprintLow())) {
+          validSeqs.add(seq);
+        }
+      }
+      errorSeqs.addAll(worker.errorSeqs);
+    }
+    return new Pair<>(validSeqs, errorSeqs);
+  }
+
+  // Starts the worker on a thread of its own
+  private void start(long startTime, long timeLimit, int maxSequences, AtomicInteger sequenceCount) {
+    this.startTime = startTime;
+    this.timeLimit = timeLimit;
+    this.maxSequences = maxSequences;
+    this.sequenceCount = sequenceCount;
+    launch(null);
+  }
+
+  // Waits for the worker to finish, rethrowing what made it fail
+  private void awaitEnd() {
+    try {
+      finished.await();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return;
+    }
+    if (failure != null) throw new IllegalStateException("Generation worker failed", failure);
+  }
+
+  // Runs the worker on a new thread, after accounting for the runaway call that took the last
+  // one, if any
+  private void launch(ExecutionTimeoutException runaway) {
+    Thread thread = new Thread(() -> {
+      try {
+        if (runaway != null) recoverFrom(runaway);
+        run();
+      } catch (Watchdog.Abandoned e) {
+        // A runaway call came back on a thread another one has taken over from
+        return;
+      } catch (Throwable t) {
+        failure = t;
+      }
+      finished.countDown();
+    }, "generator-" + workerId);
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  // Called from the watchdog's timer when a call runs away with the worker's thread
+  private void carryOn(ExecutionTimeoutException runaway) {
+    launch(runaway);
+  }
+
+  // Counts what the abandoned thread was doing as a timeout, and moves executions out of this
+  // JVM once too many runaway calls are still going in it
+  private void recoverFrom(ExecutionTimeoutException runaway) {
+    Sequence seq = runaway.getSequence();
+    Statement culprit = runaway.getStatement();
+    if (inFlight != null) {
+      int failing = culprit != null ? seq.getStatements().lastIndexOf(culprit) : -1;
+      handleOutcome(inFlight, ExecutionOutcome.timeout(runaway.getMessage(), failing), maxSequences, sequenceCount);
+    } else if (building != null) {
+      if (eagerProducer != null) planner.failed(eagerProducer);
+      recordTimeout(seq, building, culprit, runaway.getMessage());
+    }
+    inFlight = null;
+    building = null;
+    eagerProducer = null;
+
+    int runaways = executor instanceof InProcessExecutor ? ((InProcessExecutor) executor).getRunawayCount() : 0;
+    if (runaways >= MAX_RUNAWAYS) {
+      String worker = shared != null ? "Worker " + workerId + ": " : "";
+      System.err.println("Warning: " + worker + runaways + " runaway calls are still running in this JVM, " +
+                         "executing in a forked JVM from now on");
+      executor.shutdown();
+      System.out.println(worker + executor.getSummary());
+      GeneratorOptions forked = new GeneratorOptions();
+      forked.executionTimeout = options.executionTimeout;
+      forked.statics = options.statics;
+      forked.forkedWorkers = 1;
+      executor = new ForkedExecutor(forked, classes);
+      if (!feedback.isEmpty()) {
+        System.err.println("Warning: " + worker + "feedback sources only see this JVM and are no longer polled");
+        feedbackOff = true;
       }
-      classConstructorLists.add(publicConstructors);
     }
+  }
 
+  private void run() {
+    int batchSize = executor.getBatchSize();
+    List<Candidate> batch = new ArrayList<>();
+    FingerprintSet batchFingerprints = new FingerprintSet();
 
     while (System.currentTimeMillis() - startTime < timeLimit &&
-           sequenceCount < maxSequences) {
-
-
-      // Pick a random class and method
-      int classIndex = new Random().nextInt(classes.size());
-      Class<?> cls = classes.get(classIndex);
-      List<Method> methods = classMethodLists.get(classIndex);
-      List<Constructor<?>> constructors = classConstructorLists.get(classIndex);
-
-      if (methods.size() == 0) continue;
-      Sequence newSeq = new Sequence();
-      // 85% chance to start from an existing valid sequence, 15% chance to start empty
-      if (!validSeqs.isEmpty() && random.nextDouble() < reuseProb) {
-        // Use an existing valid sequence as starting point
-        Sequence baseSeq = validSeqs.get(random.nextInt(validSeqs.size()));
-        newSeq.concat(baseSeq);
+           sequenceCount.get() < maxSequences) {
+
+      if (shared != null) importShared();
+
+      batch.clear();
+      batchFingerprints.clear();
+      for (int attempt = 0; batch.size() < batchSize && attempt < 4 * batchSize; attempt++) {
+        if (tuner != null) tuner.attempted();
+        Candidate candidate = buildCandidate();
+        if (candidate == null) continue;
+        if (!batchFingerprints.add(candidate.fingerprintHigh, candidate.fingerprintLow)) {
+          System.out.println("Sequence skipped due to duplicate structure");
+          reward(candidate.method, 0, false, false, 0);
+          continue;
+        }
+        batch.add(candidate);
+      }
+      if (batch.isEmpty()) {
+        if (tuner != null) tuner.maybeEndEpoch();
+        continue;
       }
-      
-      Method method = getRandomMethod(methods, methodUsageCount);      
-      // Increment usage count for the chosen method
-      methodUsageCount.put(method, methodUsageCount.get(method) + 1);
-
-      // Add same method until repeatMethod is false 
-      boolean repeatMethod = true;
-      while (repeatMethod) {
-        // 95% chance to use method again
-        if (random.nextDouble() < 0.95) repeatMethod = false;
-              List<Argument> args = new ArrayList<>();
-
-        // Handle instance method: add receiver object
-        if (!Modifier.isStatic(method.getModifiers())) {
-          // First check current sequence
-          Statement receiverStmt = pool.findStatementOfType(newSeq, cls);
-          if (receiverStmt == null) {
-            // Check other sequences
-            Sequence receiverSequence = pool.findSequenceOfType(cls);
-            if (receiverSequence != null) {
-              newSeq.concat(receiverSequence);
-              // Get the required value out of the sequence
-              receiverStmt = pool.findStatementOfType(receiverSequence, cls);
-              args.add(new Argument(receiverStmt));
-            }
-          } else {
-            args.add(new Argument(receiverStmt));
-          }
 
-          // If no receiver exists, create one
-          if (receiverStmt == null) { 
-            receiverStmt = createConstructorStatement(cls, newSeq, pool, constructors);
-            if (receiverStmt != null) {
-              args.add(new Argument(receiverStmt));
-            } else {
-              System.err.println("Failed to create constructor for " + cls.getSimpleName());
-              continue;
-            }
-          }
+      List<Sequence> candidates = new ArrayList<>(batch.size());
+      List<Sequence> prefixes = new ArrayList<>(batch.size());
+      for (Candidate candidate : batch) {
+        candidates.add(candidate.seq);
+        prefixes.add(candidate.prefix);
+      }
+      long executionStart = System.nanoTime();
+      // Executions in this JVM come one at a time
+      inFlight = batch.size() == 1 ? batch.get(0) : null;
+      List<ExecutionOutcome> outcomes = executor.execute(candidates, prefixes);
+      inFlight = null;
+      long executionNanos = (System.nanoTime() - executionStart) / batch.size();
+      // Only a batch of one tells which execution the feedback came from
+      int novelty = pollFeedback();
+      if (batch.size() == 1) batch.get(0).novelty = novelty;
+      for (int i = 0; i < batch.size(); i++) {
+        batch.get(i).executionNanos = executionNanos;
+        if (!handleOutcome(batch.get(i), outcomes.get(i), maxSequences, sequenceCount)) break;
+      }
+      if (tuner != null) tuner.maybeEndEpoch();
+    }
+    executor.shutdown();
+
+    String worker = shared != null ? "Worker " + workerId + ": " : "";
+    System.out.println(worker + executor.getSummary());
+    for (int i = 0; i < classes.size(); i++) {
+      System.out.print(worker + "Methods of " + classes.get(i).getSimpleName() + ":\n" + schedulers.get(i).getStatistics());
+    }
+    if (!feedback.isEmpty()) {
+      StringBuilder summary = new StringBuilder(worker + "Feedback:");
+      for (int i = 0; i < feedback.size(); i++) {
+        summary.append(i == 0 ? " " : ", ").append(feedback.get(i).getName()).append(' ').append(feedbackTotals[i]);
+      }
+      System.out.println(summary);
+    }
+    if (tuner != null) System.out.println(worker + tuner.getSummary());
+  }
+
+  // The knobs to build the next candidate with
+  private GenerationKnobs knobs() {
+    return tuner != null ? tuner.current() : fixedKnobs;
+  }
+
+  // Names the classes under test in the knob file
+  private static String tuningTarget(List<Class<?>> classes) {
+    List<String> names = new ArrayList<>();
+    for (Class<?> cls : classes) {
+      names.add(cls.getName());
+    }
+    Collections.sort(names);
+    return String.join(",", names);
+  }
+
+  // Writes the mean of the workers' best knobs, for the next run to start from
+  private static void saveTunedKnobs(List<SequenceGenerator> workers, String file, String target) {
+    List<GenerationKnobs> best = new ArrayList<>();
+    for (SequenceGenerator worker : workers) {
+      best.add(worker.tuner.getBest());
+    }
+    GenerationKnobs tuned = KnobTuner.mean(best);
+    try {
+      tuned.save(Paths.get(file), target);
+      System.out.println("Tuned knobs written to " + file + ": " + tuned);
+    } catch (IOException e) {
+      System.err.println("Failed to write tuned knobs: " + e.getMessage());
+    }
+  }
+
+  // Sums what the feedback sources report since the last poll, which includes the eager
+  // executions made while the candidate was built
+  private int pollFeedback() {
+    if (feedbackOff) return 0;
+    int novelty = 0;
+    for (int i = 0; i < feedback.size(); i++) {
+      int gained = feedback.get(i).poll();
+      feedbackTotals[i] += gained;
+      novelty += gained;
+    }
+    return novelty;
+  }
+
+  // None of the configured feedback sources, saying so if there are any
+  private List<FeedbackSource> noFeedback() {
+    List<FeedbackSource> sources = FeedbackLoader.loadSourcesFromConfig("config.json");
+    if (!sources.isEmpty() && workerId == 0) {
+      System.err.println("Warning: feedback sources have no effect with --fork, sequences run in other JVMs");
+    }
+    return new ArrayList<>();
+  }
+
+  // The configured feedback sources, plus coverage when the classes are instrumented
+  private static List<FeedbackSource> loadFeedback(List<Class<?>> classes) {
+    List<FeedbackSource> sources = FeedbackLoader.loadSourcesFromConfig("config.json");
+    boolean hasCoverage = false;
+    for (FeedbackSource source : sources) {
+      hasCoverage |= source instanceof CoverageFeedback;
+    }
+    if (CoverageRuntime.isEnabled() && !hasCoverage) sources.add(new CoverageFeedback());
+    for (FeedbackSource source : sources) {
+      source.bind(classes);
+    }
+    return sources;
+  }
+
+  // A sequence waiting to be executed, with what it was built from
+  private static final class Candidate {
+    final Sequence seq;
+    final Sequence prefix; // the pooled sequence it extends, or null
+    final Method method;
+    final long fingerprintHigh;
+    final long fingerprintLow;
+    long executionNanos = 0; // its share of the time its batch took to execute
+    int novelty = 0; // new behaviour the feedback sources credited it with
+
+    Candidate(Sequence seq, Sequence prefix, Method method) {
+      this.seq = seq;
+      this.prefix = prefix;
+      this.method = method;
+      this.fingerprintHigh = seq.getFingerprintHigh();
+      this.fingerprintLow = seq.getFingerprintLow();
+    }
+  }
+
+  // Builds a new candidate, or returns null if this attempt produced nothing worth executing
+  private Candidate buildCandidate() {
+    // Pick a random class and method
+    int classIndex = random.nextInt(classes.size());
+    Class<?> cls = classes.get(classIndex);
+    List<Method> methods = classMethodLists.get(classIndex);
+
+    if (methods.size() == 0) return null;
+    Sequence newSeq = new Sequence();
+    Sequence baseSeq = null;
+    // Start from an existing valid sequence with the reuse probability, otherwise start empty
+    if (pool.size() > 0 && random.nextDouble() < knobs().get(GenerationKnobs.REUSE)) {
+      // Use an existing valid sequence as starting point
+      baseSeq = pool.randomSequence();
+      newSeq.concat(baseSeq);
+    }
+    
+    MethodScheduler scheduler = schedulers.get(classIndex);
+    Method method = scheduler.getMethod(scheduler.pick(random));
+
+    // Not cleared in a finally block: an abandoned thread unwinding through here mustn't
+    // touch what the thread that took over is building
+    building = method;
+    buildingOn = baseSeq;
+    try {
+      appendCalls(newSeq, cls, method);
+    } catch (ExecutionTimeoutException e) {
+      building = null;
+      recordTimeout(newSeq, method, e.getStatement(), e.getMessage());
+      return null;
+    }
+    building = null;
+
+    // Check structural equivalence
+    Candidate candidate = new Candidate(newSeq, baseSeq, method);
+    if (seenFingerprints.contains(candidate.fingerprintHigh, candidate.fingerprintLow)) {
+      System.out.println("Sequence skipped due to duplicate structure");
+      reward(method, 0, false, false, 0);
+      return null;
+    }
+    return candidate;
+  }
+
+  // Sorts an executed candidate into the pool or the error sequences. Returns false once the
+  // sequence limit has been reached.
+  private boolean handleOutcome(Candidate candidate, ExecutionOutcome outcome, int maxSequences,
+                                AtomicInteger sequenceCount) {
+    Sequence newSeq = candidate.seq;
+    switch (outcome.getStatus()) {
+      case TIMEOUT:
+        int failing = outcome.getFailingIndex();
+        recordTimeout(newSeq, candidate.method, failing >= 0 ? newSeq.get(failing) : null,
+                      outcome.getMessage());
+        seenFingerprints.add(candidate.fingerprintHigh, candidate.fingerprintLow);
+        return true;
+      case CRASH:
+        System.out.println("Sequence crashed its executor: " + outcome.getMessage());
+        newSeq.setCrashed(true);
+        newSeq.setThrewException(true);
+        errorSeqs.add(newSeq);
+        seenFingerprints.add(candidate.fingerprintHigh, candidate.fingerprintLow);
+        reward(candidate.method, candidate.novelty, false, false, candidate.executionNanos);
+        return true;
+      case EXCEPTION:
+        System.out.println("Exception during execution: " + outcome.getMessage());
+        System.out.println("Sequence that threw exception: " + newSeq.toCode(false));
+        newSeq.setThrewException(true);
+        errorSeqs.add(newSeq);
+        reward(candidate.method, candidate.novelty, false, false, candidate.executionNanos);
+        return true;
+      default:
+        break;
+    }
+    newSeq.setNonNullResults(outcome.getNonNullResults());
+    if (outcome.hasState()) newSeq.setState(outcome.getStateHigh(), outcome.getStateLow());
+
+    boolean passedAll = true;
+    boolean newViolation = false;
+    boolean pooled = false;
+
+    // Check for contract violations
+    String violatedContract = outcome.getViolatedContract();
+    if (violatedContract != null) {
+      System.out.println("Sequence violates contract: " + violatedContract);
+      newSeq.setViolatedContract(violatedContract);
+      Statement violating = newSeq.get(outcome.getViolatingIndex());
+      newSeq.setViolatingStmt(violating);
+      newSeq.setThrewException(true);
+      passedAll = false;
+      newViolation = seenViolations.add(violatedContract + " " + violating.getSignature());
+    }
+
+    if (passedAll) {
+      // A valid sequence the filters reject is dropped, and doesn't count towards the limit
+      pooled = true;
+      for (Filter f : filters) {
+        if (!f.isValid(newSeq)) {
+          System.out.println("Sequence filtered by " + f.getName());
+          pooled = false;
+          break;
         }
+      }
+      if (pooled) {
+        // Another worker may have reached the limit since the loop condition was checked
+        if (!reserveSequence(maxSequences, sequenceCount)) return false;
+        if (validPositions != null) validPositions.put(newSeq, validSeqs.size());
+        validSeqs.add(newSeq);
+        executor.accepted(newSeq);
+        addToPool(newSeq, candidate.executionNanos, candidate.novelty);
+        if (shared != null) publish(newSeq);
+      }
+    } else {
+      errorSeqs.add(newSeq);
+    }
+    seenFingerprints.add(candidate.fingerprintHigh, candidate.fingerprintLow);
+    // Passing the filters, EqualityFilter included, is what makes the state new
+    reward(candidate.method, candidate.novelty, pooled, newViolation, candidate.executionNanos);
+    return true;
+  }
 
-        // Generate arguments
-        for (Class<?> type : method.getParameterTypes()) {
-          // 5% chance to use null for object types
-          if (!type.isPrimitive() && random.nextDouble() < 0.05) {
-            Statement nullStmt = new ConstantAssignment(null, type);
-            newSeq.statements.add(nullStmt);
-            args.add(new Argument(nullStmt));
-            continue;
+  // Counts one more sequence kept, unless the limit has been reached
+  private static boolean reserveSequence(int maxSequences, AtomicInteger sequenceCount) {
+    int count;
+    do {
+      count = sequenceCount.get();
+      if (count >= maxSequences) return false;
+    } while (!sequenceCount.compareAndSet(count, count + 1));
+    return true;
+  }
+
+  private void reward(Method method, int novelty, boolean newState, boolean newViolation, long nanos) {
+    if (tuner != null && (novelty > 0 || newState || newViolation)) tuner.paidOff();
+    for (MethodScheduler scheduler : schedulers) {
+      scheduler.reward(method, novelty, newState, newViolation, nanos);
+    }
+  }
+
+  // Appends calls to method (and whatever receivers and arguments they need) to newSeq
+  private void appendCalls(Sequence newSeq, Class<?> cls, Method method)
+      throws ExecutionTimeoutException {
+    // Add same method until repeatMethod is false 
+    boolean repeatMethod = true;
+    while (repeatMethod) {
+      // 5% chance (by default) to call the method again
+      if (random.nextDouble() >= knobs().get(GenerationKnobs.REPEAT)) repeatMethod = false;
+      List<Argument> args = new ArrayList<>();
+
+      // Handle instance method: add receiver object
+      if (!TypeMetadata.isStatic(method)) {
+        // First check current sequence
+        Statement receiverStmt = pool.findStatementOfType(newSeq, cls);
+        if (receiverStmt == null) {
+          // Check other sequences
+          Sequence receiverSequence = pool.findSequenceOfType(cls);
+          if (receiverSequence != null) {
+            newSeq.concat(receiverSequence);
+            // Get the required value out of the sequence
+            receiverStmt = pool.findStatementOfType(receiverSequence, cls);
+            args.add(new Argument(receiverStmt));
           }
-          
-          // 20% chance to use a random value regardless of usable statements
-          if (random.nextDouble() < 0.2) {
-            Statement paramStmt = createParameter(type, newSeq, pool);
-            args.add(new Argument(paramStmt));
+        } else {
+          args.add(new Argument(receiverStmt));
+        }
+
+        // If no receiver exists, create one
+        if (receiverStmt == null) { 
+          receiverStmt = createConstructedValue(cls, newSeq, 0);
+          if (receiverStmt != null) {
+            args.add(new Argument(receiverStmt));
+          } else {
+            System.err.println("Failed to create constructor for " + cls.getSimpleName());
             continue;
           }
+        }
+      }
 
-          // Check if current sequence contains usable statement
-          Statement argStmt = pool.findStatementOfType(newSeq, type);
-          if (argStmt != null) {
+      // Generate arguments
+      for (Class<?> type : TypeMetadata.parameterTypes(method)) {
+        // 5% chance (by default) to use null for object types
+        if (!type.isPrimitive() && random.nextDouble() < knobs().get(GenerationKnobs.NULL_ARGUMENT)) {
+          Statement nullStmt = new ConstantAssignment(null, type);
+          newSeq.add(nullStmt);
+          args.add(new Argument(nullStmt));
+          continue;
+        }
+        
+        // 20% chance (by default) to use a random value regardless of usable statements
+        if (random.nextDouble() < knobs().get(GenerationKnobs.FRESH_ARGUMENT)) {
+          Statement paramStmt = createParameter(type, newSeq, 0);
+          args.add(new Argument(paramStmt));
+          continue;
+        }
+
+        // Check if current sequence contains usable statement
+        Statement argStmt = pool.findStatementOfType(newSeq, type);
+        if (argStmt != null) {
+          args.add(new Argument(argStmt));
+        } else {
+          // Otherwise, check pool
+          Sequence argSequence = pool.findSequenceOfType(type);
+          if (argSequence != null) {
+            newSeq.concat(argSequence);
+            argStmt = pool.findStatementOfType(argSequence, type);
             args.add(new Argument(argStmt));
           } else {
-            // Otherwise, check pool
-            Sequence argSequence = pool.findSequenceOfType(type);
-            if (argSequence != null) {
-              newSeq.concat(argSequence);
-              argStmt = pool.findStatementOfType(argSequence, type);
-              args.add(new Argument(argStmt));
-            } else {
-              Statement paramStmt = createParameter(type, newSeq, pool);
-              args.add(new Argument(paramStmt));
-            }
+            Statement paramStmt = createParameter(type, newSeq, 0);
+            args.add(new Argument(paramStmt));
           }
         }
-        
-        newSeq.statements.add(new MethodCall(method, args));        
-      }
-
-      // Check structural equivalence
-      String fingerprint = newSeq.getSignatureFingerprint();
-      if (seenFingerprints.contains(fingerprint)) {
-        System.out.println("Sequence skipped due to duplicate structure");
-        continue;
       }
       
-      boolean passedAll = true;
-      // Apply filters
-      // for (Filter f : filters) {
-      //   if (!f.isValid(newSeq)) {
-      //     System.out.println("Sequence filtered by " + f.getName());
-      //     passedAll = false;
-      //     continue;
-      //   }
-      // }
+      newSeq.add(new MethodCall(method, args));        
+    }
+  }
 
-      try {
-        newSeq.execute();
-      } catch (Exception e) {
-        System.out.println("Exception during execution: " + e);
-        System.out.println("Sequence that threw exception: " + newSeq.toCode(false));
-        newSeq.setThrewException(true);
-        errorSeqs.add(newSeq);
-        continue;
-      }
+  // Classifies an abandoned candidate as a timeout and penalises the method that ran away
+  private void recordTimeout(Sequence newSeq, Method chosen, Statement culprit, String message) {
+    Method penalised = culprit instanceof MethodCall ? ((MethodCall) culprit).getMethod() : chosen;
+    System.out.println("Sequence timed out in " + penalised.getName() + ": " + message);
+    newSeq.setTimedOut(true);
+    newSeq.setThrewException(true);
+    errorSeqs.add(newSeq);
+    for (MethodScheduler scheduler : schedulers) {
+      scheduler.timedOut(penalised);
+    }
+    // The call that was chosen gets nothing for its time, even if another one ran away
+    if (penalised != chosen) reward(chosen, 0, false, false, timeoutNanos);
+  }
 
-      // Check for contract violations
-      Pair<String, Statement> contractResult = ContractChecker.checkStatements(newSeq.statements);
-      String violatedContract = contractResult.first;
-      Statement violatingStmt = contractResult.second;
-      
-      if (violatedContract != null) {
-        System.out.println("Sequence violates contract: " + violatedContract);
-        newSeq.setViolatedContract(violatedContract);
-        newSeq.setViolatingStmt(violatingStmt);
-        newSeq.setThrewException(true);
-        passedAll = false;
-      }
+  // Pools seq for reuse, evicting whatever no longer fits
+  private void addToPool(Sequence seq, long executionNanos, int novelty) {
+    pool.addSequence(seq, executionNanos, novelty);
+  }
 
-      if (passedAll) {
-        validSeqs.add(newSeq);
-        pool.addSequence(newSeq);
-        sequenceCount++;
-      } else {
-        errorSeqs.add(newSeq);
-      }
-      seenFingerprints.add(fingerprint);
+  // Lets go of a sequence the pool evicted, when adding a sequence or reading one back in
+  private void evicted(SequencePool.Eviction evicted) {
+    executor.evicted(evicted.seq);
+    // A valid sequence of ours is only needed for the output now, on disk or flattened
+    Integer position = validPositions != null ? validPositions.remove(evicted.seq) : null;
+    if (position == null) return;
+    if (evicted.spillId >= 0) {
+      validSeqs.spill(position, evicted.spillId);
+    } else {
+      validSeqs.compact(position);
+    }
+  }
 
+  private static SpillStore openSpillStore(String directory) {
+    try {
+      return new SpillStore(Paths.get(directory));
+    } catch (IOException e) {
+      throw new UncheckedIOException("Cannot create spill store in " + directory, e);
     }
+  }
 
-    return new Pair<>(validSeqs, errorSeqs);
+  // Queues a copy of an accepted sequence and hands the queue to the other workers once it's full.
+  // Published sequences are never executed, so other workers can copy them without racing us.
+  private void publish(Sequence seq) {
+    unpublished.add(seq.copy());
+    if (unpublished.size() >= PUBLISH_BATCH) {
+      shared.publish(workerId, unpublished);
+      unpublished.clear();
+    }
+  }
+
+  // Adds private copies of the sequences other workers published since the last import
+  private void importShared() {
+    List<Sequence> published = new ArrayList<>();
+    sharedCursor = shared.collect(workerId, sharedCursor, published);
+    for (Sequence seq : published) {
+      Sequence copy = isolatedLoader != null ? SequenceCodec.transfer(seq, isolatedLoader) : seq.copy();
+      addToPool(copy, 0, 0);
+      seenFingerprints.add(copy.getFingerprintHigh(), copy.getFingerprintLow());
+    }
+  }
+
+  // Loads the classes again through loader, keeping the original of any that can't be
+  private static List<Class<?>> reloadClasses(List<Class<?>> classes, ClassLoader loader) {
+    List<Class<?>> reloaded = new ArrayList<>();
+    for (Class<?> cls : classes) {
+      try {
+        reloaded.add(Class.forName(cls.getName(), false, loader));
+      } catch (ClassNotFoundException | LinkageError e) {
+        System.err.println("Could not isolate " + cls.getName() + "; sharing its static state");
+        reloaded.add(cls);
+      }
+    }
+    return reloaded;
   }
 
   // Returns a random string
-  private static String generateRandomString(int length) {
+  private String generateRandomString(int length) {
     String characters = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789";
     StringBuilder sb = new StringBuilder();
 
@@ -223,8 +733,11 @@ public class SequenceGenerator {
     return sb.toString();
   }
 
-  // Returns a random value for the given type.
-  private static Object getRandomValue(Class<?> type) {
+  // Returns a random value for the given type, or sometimes a literal of the classes under test
+  private Object getRandomValue(Class<?> type) {
+    if (literals != null && literals.has(type) && random.nextDouble() < knobs().get(GenerationKnobs.LITERAL)) {
+      return literals.draw(type, random);
+    }
     if (type == int.class || type == Integer.class) return random.nextInt(100) * (int) Math.signum(random.nextInt());
     if (type == boolean.class || type == Boolean.class) return random.nextBoolean();
     if (type == char.class || type == Character.class) return (char) (32 + random.nextInt(95));
@@ -262,121 +775,84 @@ public class SequenceGenerator {
     return allowedMethods.contains(method.getName());
   }
 
-  // Helper method to select a method using weighted random selection
-  // Less used methods have higher probability of being selected
-  private static Method getRandomMethod(List<Method> methods, Map<Method, Integer> methodUsageCount) {
-    // Find the maximum usage count
-    int maxUsage = 0;
-    for (Method method : methods) {
-      int usage = methodUsageCount.get(method);
-      if (usage > maxUsage) {
-        maxUsage = usage;
-      }
-    }
-
-    // Methods with lower usage get higher weights
-    List<Double> weights = new ArrayList<>();
-    double totalWeight = 0.0;
-    for (Method method : methods) {
-      int usage = methodUsageCount.get(method);
-      double weight = maxUsage - usage + 1.0;
-      weights.add(weight);
-      totalWeight += weight;
-    }
-    
-    // Select randomly based on weights
-    double randomValue = random.nextDouble() * totalWeight;
-    double cumulativeWeight = 0.0;
-    
-    for (int i = 0; i < methods.size(); i++) {
-      cumulativeWeight += weights.get(i);
-      if (randomValue <= cumulativeWeight) {
-        return methods.get(i);
-      }
-    }
-    
-    return methods.get(methods.size() - 1);
-  }
-
   // Helper method to create a parameter statement for a given type
-  private static Statement createParameter(Class<?> type, Sequence newSeq, SequencePool pool) {
-    // If needed, create a constructor call
-    if (!type.isPrimitive() && type != String.class && !type.isArray() && type != List.class) {
-      // Get constructors for this type
-      List<Constructor<?>> typeConstructors = new ArrayList<>();
-      for (Constructor<?> constructor : type.getDeclaredConstructors()) {
-        if (Modifier.isPublic(constructor.getModifiers())) {
-          typeConstructors.add(constructor);
-        }
-      }
-      
-      if (!typeConstructors.isEmpty()) {
-        Statement constructorStmt = createConstructorStatement(type, newSeq, pool, typeConstructors);
-        if (constructorStmt != null) {
-          return constructorStmt;
-        }
+  private Statement createParameter(Class<?> type, Sequence newSeq, int depth) throws ExecutionTimeoutException {
+    // If needed, construct the value along a path the planner knows
+    if (!ConstructionPlanner.isDirect(type)) {
+      Statement constructedStmt = createConstructedValue(type, newSeq, depth);
+      if (constructedStmt != null) {
+        return constructedStmt;
       }
     }
     
     // Otherwise create random primitive
     Object randomValue = getRandomValue(type);
     Statement constantStmt = new ConstantAssignment(randomValue, type);
-    newSeq.statements.add(constantStmt);
+    newSeq.add(constantStmt);
     return constantStmt;
   }
 
-  // Helper method to create a constructor statement for a given class
-  private static Statement createConstructorStatement(Class<?> cls, Sequence newSeq, SequencePool pool, List<Constructor<?>> constructors) {
+  // Helper method to build a value of type with a constructor or static factory the planner
+  // chooses. Returns null if there is no known way to build one or the call failed.
+  private Statement createConstructedValue(Class<?> type, Sequence newSeq, int depth)
+      throws ExecutionTimeoutException {
+    // Past the nesting limit only cheapest paths are taken, which always bottom out
+    ConstructionPlanner.Producer producer = planner.choose(type, depth >= MAX_CONSTRUCTION_DEPTH, random);
+    if (producer == null) {
+      return null;
+    }
     try {
-      if (constructors.isEmpty()) {
-        return null;
-      }
-      
-      // Pick a random constructor
-      Constructor<?> constructor = constructors.get(random.nextInt(constructors.size()));
-      
-      // Generate arguments for the constructor
-      List<Argument> constructorArgs = new ArrayList<>();
+      // Generate arguments for the producer
+      List<Argument> producerArgs = new ArrayList<>();
       
-      for (Class<?> paramType : constructor.getParameterTypes()) {
-          // 10% chance to use a random value regardless of usable statements
-          if (random.nextDouble() < 0.1) {
+      for (Class<?> paramType : producer.parameterTypes) {
+          // 10% chance (by default) to use a random value regardless of usable statements
+          if (random.nextDouble() < knobs().get(GenerationKnobs.FRESH_PRODUCER_ARGUMENT)) {
             Object randomValue = getRandomValue(paramType);
             Statement constantStmt = new ConstantAssignment(randomValue, paramType);
-            newSeq.statements.add(constantStmt);
-            constructorArgs.add(new Argument(constantStmt));
+            newSeq.add(constantStmt);
+            producerArgs.add(new Argument(constantStmt));
             continue;
           }
 
         // Check if current sequence contains usable statement
         Statement argStmt = pool.findStatementOfType(newSeq, paramType);
         if (argStmt != null) {
-          constructorArgs.add(new Argument(argStmt));
+          producerArgs.add(new Argument(argStmt));
         } else {
           // Otherwise, check pool
           Sequence argSequence = pool.findSequenceOfType(paramType);
           if (argSequence != null) {
             newSeq.concat(argSequence);
             argStmt = pool.findStatementOfType(argSequence, paramType);
-            constructorArgs.add(new Argument(argStmt));
+            producerArgs.add(new Argument(argStmt));
           } else {
-            Object randomValue = getRandomValue(paramType);
-            Statement constantStmt = new ConstantAssignment(randomValue, paramType);
-            newSeq.statements.add(constantStmt);
-            constructorArgs.add(new Argument(constantStmt));
+            // Otherwise build one too
+            Statement paramStmt = createParameter(paramType, newSeq, depth + 1);
+            producerArgs.add(new Argument(paramStmt));
           }
         }
       }
       
-      Statement constructorStmt = new ConstructorCall(constructor, constructorArgs);
-      newSeq.statements.add(constructorStmt);
-      constructorStmt.execute();
+      Statement producerStmt = producer.toStatement(producerArgs);
+      newSeq.add(producerStmt);
+      eagerProducer = producer;
+      executor.executeEagerly(producerStmt, newSeq, buildingOn);
+      eagerProducer = null;
+      planner.succeeded(producer);
       
-      return constructorStmt;
+      return producerStmt;
+    } catch (ExecutionTimeoutException e) {
+      eagerProducer = null;
+      planner.failed(producer);
+      throw e;
     } catch (Exception e) {
-      System.err.println("Failed to create constructor for " + cls.getSimpleName() + ": " + e.getMessage());
+      eagerProducer = null;
+      planner.failed(producer);
+      System.err.println("Failed to create constructor for " + type.getSimpleName() + ": " + e.getMessage());
       return null;
     }
   }
 
+
 }
\ No newline at end of file
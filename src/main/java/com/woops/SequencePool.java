@@ -1,70 +1,336 @@
 package com.woops;
 
-import java.lang.reflect.Modifier;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.Set;
+import java.util.function.Consumer;
 
+/**
+ * Pooled sequences, indexed by the types of the values they produce.
+ *
+ * Every type that has been asked for gets a candidate array holding each pooled sequence that
+ * produces a value assignable to it, once. The array is built on the first request and kept up
+ * to date as sequences are added, so sampling is a single random index.
+ *
+ * A pool with a capacity evicts a sequence whenever it grows past it, and tells its eviction
+ * listener. The victim is the lowest scoring of a few pooled sequences picked at random, see
+ * score(). Evicted sequences are only
+ * marked as such and dropped from the candidate arrays as sampling runs into them, or from
+ * every index at once when they have come to outnumber the pooled ones.
+ *
+ * With a SpillStore, evicted sequences are written to it instead of being forgotten, and stay
+ * available: sampling counts the stored sequences of a type alongside the pooled ones and reads
+ * a stored one back in when it comes up. A sequence read back in is pooled again, unexecuted,
+ * and is never written out twice. Its record is still counted with the stored ones, so a draw
+ * that lands on it there is made again rather than giving it two chances.
+ */
 public class SequencePool {
-  private final List<Sequence> allSequences = new ArrayList<>();
-  private final Map<Class<?>, List<Sequence>> typeIndex = new HashMap<>();
+  // Pooled sequences looked at to choose each eviction
+  private static final int EVICTION_SAMPLES = 8;
+
+  private final int capacity; // 0 for unbounded
+  private final SpillStore spill; // null if evicted sequences are dropped
+  private final Consumer<Eviction> evictionListener;
+  // Pooled sequences that were read back from the spill store, by record id
+  private final Map<Integer, Entry> pagedIn = new HashMap<>();
+  private final List<Entry> entries = new ArrayList<>();
+  // Sequences by the exact type of a value they produce
+  private final Map<Class<?>, List<Entry>> typeIndex = new HashMap<>();
+  // Live sequences producing each type, how rare the type is
+  private final Map<Class<?>, Integer> producerCounts = new HashMap<>();
+  // Candidate arrays by requested type
+  private final Map<Class<?>, Candidates> candidatesByTarget = new HashMap<>();
+  // For each produced type, the candidate arrays it belongs in
+  private final Map<Class<?>, List<Candidates>> targetsByType = new HashMap<>();
   private final Random random = new Random();
+  private int evictedInIndex = 0; // evicted entries still listed in typeIndex
+
+  // A pooled sequence and what its score is made of
+  private static final class Entry {
+    final Sequence seq;
+    final Class<?>[] producedTypes;
+    final long executionNanos;
+    final int novelty; // new behaviour the feedback sources credited its execution with
+    int spillId = -1; // record in the spill store, if it was spilled
+    int position; // in entries
+    int reuses = 0;
+    boolean evicted = false;
+
+    Entry(Sequence seq, Class<?>[] producedTypes, long executionNanos, int novelty) {
+      this.seq = seq;
+      this.producedTypes = producedTypes;
+      this.executionNanos = executionNanos;
+      this.novelty = novelty;
+    }
+  }
+
+  // A growable array of sequences with no duplicates
+  private static final class Candidates {
+    Entry[] items = new Entry[8];
+    int size = 0;
+
+    void add(Entry entry) {
+      // Sequences are added one at a time, so a repeat can only be the last entry
+      if (size > 0 && items[size - 1] == entry) return;
+      if (size == items.length) items = Arrays.copyOf(items, size * 2);
+      items[size++] = entry;
+    }
+
+    void removeAt(int index) {
+      items[index] = items[--size];
+      items[size] = null;
+    }
+  }
+
+  // A sequence evicted from the pool
+  public static final class Eviction {
+    public final Sequence seq;
+    public final int spillId; // its record in the spill store, or -1 if it wasn't stored
+
+    Eviction(Sequence seq, int spillId) {
+      this.seq = seq;
+      this.spillId = spillId;
+    }
+  }
+
+  public SequencePool() {
+    this(0, null, evicted -> {});
+  }
+
+  // evictionListener is told about every sequence evicted to stay within capacity
+  public SequencePool(int capacity, SpillStore spill, Consumer<Eviction> evictionListener) {
+    this.capacity = capacity;
+    this.spill = spill;
+    this.evictionListener = evictionListener;
+  }
+
+  public int size() {
+    return entries.size();
+  }
 
   public void addSequence(Sequence seq) {
-    allSequences.add(seq);
+    addSequence(seq, 0, 0);
+  }
 
+  // Adds seq, which took executionNanos to execute and was credited with novelty new behaviour,
+  // evicting whatever no longer fits
+  public void addSequence(Sequence seq, long executionNanos, int novelty) {
+    add(seq, executionNanos, novelty);
+    evictToCapacity();
+  }
+
+  private Entry add(Sequence seq, long executionNanos, int novelty) {
     // Map the sequence to all the types it contains
-    for (Statement stmt : seq.statements) {
+    Set<Class<?>> produced = new LinkedHashSet<>();
+    for (Statement stmt : seq.getStatements()) {
       Class<?> type = stmt.getType();
-      if (type != void.class) {
-        typeIndex.computeIfAbsent(type, k -> new ArrayList<>()).add(seq);
+      if (type != void.class) produced.add(type);
+    }
+    Entry entry = new Entry(seq, produced.toArray(new Class<?>[0]), executionNanos, novelty);
+    entry.position = entries.size();
+    entries.add(entry);
+
+    for (Class<?> type : entry.producedTypes) {
+      typeIndex.computeIfAbsent(type, k -> new ArrayList<>()).add(entry);
+      producerCounts.merge(type, 1, Integer::sum);
+      for (Candidates candidates : targetsOf(type)) {
+        candidates.add(entry);
+      }
+    }
+    return entry;
+  }
+
+  // Returns a random pooled sequence to build on, or null if the pool is empty
+  public Sequence randomSequence() {
+    int spilled = spill != null ? spill.size() : 0;
+    if (entries.size() + spilled == 0) return null;
+    while (true) {
+      int index = random.nextInt(entries.size() + spilled);
+      if (index >= entries.size()) {
+        int spillId = index - entries.size();
+        // Already pooled, and so counted among the entries
+        if (pagedIn.containsKey(spillId)) continue;
+        return pageIn(spillId);
       }
+      Entry entry = entries.get(index);
+      entry.reuses++;
+      return entry.seq;
     }
   }
 
   // Returns a Sequence containing a Statement with a return value of targetType
   public Sequence findSequenceOfType(Class<?> targetType) {
-    List<Sequence> candidates = typeIndex.get(targetType);
-    if (candidates == null) candidates = new ArrayList<>();
-
-    // If subclasses are possible, check for them
-    if (
-      !targetType.isPrimitive() && 
-      !targetType.isArray() &&
-      !Modifier.isFinal(targetType.getModifiers())
-    ) {
-      for (Map.Entry<Class<?>, List<Sequence>> entry : typeIndex.entrySet()) {
-        if (targetType.isAssignableFrom(entry.getKey())) {
-          candidates.addAll(entry.getValue());
-        }
+    Candidates candidates = candidatesByTarget.get(targetType);
+    if (candidates == null) candidates = indexTarget(targetType);
+
+    int spilled = spilledCountOfType(targetType);
+    while (candidates.size + spilled > 0) {
+      // Return a random candidate
+      int index = random.nextInt(candidates.size + spilled);
+      if (index >= candidates.size) {
+        int spillId = spilledIdOfType(targetType, index - candidates.size);
+        // Already pooled, and so counted among the candidates
+        if (pagedIn.containsKey(spillId)) continue;
+        return pageIn(spillId);
+      }
+      Entry entry = candidates.items[index];
+      if (!entry.evicted) {
+        entry.reuses++;
+        return entry.seq;
       }
+      candidates.removeAt(index);
     }
+    return null;
+  }
 
-    if (candidates.isEmpty()) {
-      return null;
+  private void evictToCapacity() {
+    for (Eviction evicted = evictOverflow(); evicted != null; evicted = evictOverflow()) {
+      evictionListener.accept(evicted);
     }
-    // Return a random candidate
-    return candidates.get(random.nextInt(candidates.size()));
   }
 
-  // Returns the statement in seq with return type of targetType
-  public Statement findStatementOfType(Sequence seq, Class<?> targetType) {
-    // Get all statements of targetType from the sequence
-    List<Statement> candidates = new ArrayList<>();
-    for (Statement stmt : seq.statements) {
-      if (targetType.isAssignableFrom(stmt.getType())) {
-        candidates.add(stmt);
+  // Evicts a sequence if the pool is over capacity and returns it, otherwise returns null
+  public Eviction evictOverflow() {
+    if (capacity <= 0 || entries.size() <= capacity) return null;
+
+    Entry victim = null;
+    double victimScore = Double.MAX_VALUE;
+    for (int i = 0; i < EVICTION_SAMPLES; i++) {
+      Entry entry = entries.get(random.nextInt(entries.size()));
+      double score = score(entry);
+      if (score < victimScore) {
+        victim = entry;
+        victimScore = score;
       }
     }
-    
-    if (candidates.isEmpty()) {
-      return null;
+
+    victim.evicted = true;
+    Entry last = entries.remove(entries.size() - 1);
+    if (last != victim) {
+      entries.set(victim.position, last);
+      last.position = victim.position;
+    }
+    for (Class<?> type : victim.producedTypes) {
+      producerCounts.merge(type, -1, Integer::sum);
     }
-    
-    // Return a random candidate
-    return candidates.get(random.nextInt(candidates.size()));
+    evictedInIndex++;
+    if (evictedInIndex > entries.size()) compactIndexes();
+
+    if (victim.spillId >= 0) {
+      pagedIn.remove(victim.spillId);
+    } else if (spill != null) {
+      victim.spillId = spill.append(victim.seq, victim.producedTypes);
+    }
+    return new Eviction(victim.seq, victim.spillId);
+  }
+
+  // Returns the spilled sequence with the given record id, pooling it again if it isn't
+  private Sequence pageIn(int spillId) {
+    Entry entry = pagedIn.get(spillId);
+    if (entry == null) {
+      entry = add(spill.read(spillId), 0, 0);
+      entry.spillId = spillId;
+      pagedIn.put(spillId, entry);
+      entry.reuses++;
+      // The victim may be the sequence just read, which is still returned
+      evictToCapacity();
+      return entry.seq;
+    }
+    entry.reuses++;
+    return entry.seq;
+  }
+
+  private int spilledCountOfType(Class<?> targetType) {
+    if (spill == null) return 0;
+    int count = 0;
+    for (Class<?> type : spill.getTypes()) {
+      if (TypeMetadata.of(type).isAssignableTo(targetType)) count += spill.countOfType(type);
+    }
+    return count;
+  }
+
+  // Record id of the index-th spilled sequence producing a value assignable to targetType
+  private int spilledIdOfType(Class<?> targetType, int index) {
+    for (Class<?> type : spill.getTypes()) {
+      if (!TypeMetadata.of(type).isAssignableTo(targetType)) continue;
+      int count = spill.countOfType(type);
+      if (index < count) return spill.idOfType(type, index);
+      index -= count;
+    }
+    throw new IndexOutOfBoundsException("No spilled sequence " + index + " of " + targetType.getName());
   }
-}
 
+  // How much a sequence is worth keeping: more for producing types few others produce, for
+  // having been built on often and for having shown new behaviour, less for being long and slow
+  // to execute
+  private double score(Entry entry) {
+    int rarest = Integer.MAX_VALUE;
+    for (Class<?> type : entry.producedTypes) {
+      rarest = Math.min(rarest, producerCounts.get(type));
+    }
+    double rarity = entry.producedTypes.length == 0 ? 0 : 1.0 / rarest;
+    double usefulness = 1 + Math.log1p(entry.reuses);
+    double length = 1 + entry.seq.size() / 32.0;
+    double cost = 1 + entry.executionNanos / 1_000_000.0;
+    double behaviour = 1 + entry.novelty;
+    return rarity * usefulness * behaviour / (length * cost);
+  }
+
+  // Drops evicted sequences from every list and array, including candidate arrays that are
+  // rarely sampled and so wouldn't otherwise shed them
+  private void compactIndexes() {
+    for (List<Entry> list : typeIndex.values()) {
+      list.removeIf(entry -> entry.evicted);
+    }
+    for (Candidates candidates : candidatesByTarget.values()) {
+      for (int i = candidates.size - 1; i >= 0; i--) {
+        if (candidates.items[i].evicted) candidates.removeAt(i);
+      }
+    }
+    evictedInIndex = 0;
+  }
+
+  // Builds the candidate array for a type requested for the first time
+  private Candidates indexTarget(Class<?> targetType) {
+    Candidates candidates = new Candidates();
+    Map<Entry, Boolean> seen = new IdentityHashMap<>();
+    for (Map.Entry<Class<?>, List<Entry>> entry : typeIndex.entrySet()) {
+      if (!TypeMetadata.of(entry.getKey()).isAssignableTo(targetType)) continue;
+      for (Entry pooled : entry.getValue()) {
+        if (!pooled.evicted && seen.put(pooled, Boolean.TRUE) == null) candidates.add(pooled);
+      }
+    }
+    // Types already produced learn about the new target; new ones find it when first produced
+    for (Map.Entry<Class<?>, List<Candidates>> entry : targetsByType.entrySet()) {
+      if (TypeMetadata.of(entry.getKey()).isAssignableTo(targetType)) entry.getValue().add(candidates);
+    }
+    candidatesByTarget.put(targetType, candidates);
+    return candidates;
+  }
+
+  // The candidate arrays a value of the given type qualifies for
+  private List<Candidates> targetsOf(Class<?> type) {
+    List<Candidates> targets = targetsByType.get(type);
+    if (targets == null) {
+      targets = new ArrayList<>();
+      for (Class<?> supertype : TypeMetadata.of(type).getSupertypes()) {
+        Candidates candidates = candidatesByTarget.get(supertype);
+        if (candidates != null) targets.add(candidates);
+      }
+      targetsByType.put(type, targets);
+    }
+    return targets;
+  }
+
+  // Returns the statement in seq with return type of targetType
+  public Statement findStatementOfType(Sequence seq, Class<?> targetType) {
+    // The sequence keeps the positions of its statements by type
+    return seq.findStatementOfType(targetType, random);
+  }
+}
@@ -0,0 +1,54 @@
+package com.woops;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Append-only pool through which parallel workers exchange accepted sequences.
+ * Workers publish in batches and read whatever was added since their last visit;
+ * any number of workers can read at the same time.
+ */
+public class SharedSequencePool {
+  private final List<Sequence> sequences = new ArrayList<>();
+  private final List<Integer> publishers = new ArrayList<>();
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+  public void publish(int workerId, List<Sequence> batch) {
+    lock.writeLock().lock();
+    try {
+      for (Sequence seq : batch) {
+        sequences.add(seq);
+        publishers.add(workerId);
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  // Adds the sequences other workers published from index from onwards to out,
+  // and returns the index to continue from next time
+  public int collect(int workerId, int from, List<Sequence> out) {
+    lock.readLock().lock();
+    try {
+      for (int i = from; i < sequences.size(); i++) {
+        if (publishers.get(i) != workerId) {
+          out.add(sequences.get(i));
+        }
+      }
+      return sequences.size();
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  public int size() {
+    lock.readLock().lock();
+    try {
+      return sequences.size();
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+}
@@ -0,0 +1,200 @@
+package com.woops;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Append-only store of sequences on disk, for pools too large to keep on the heap.
+ *
+ * Records go into a memory-mapped temporary file, encoded with one SequenceCodec.Encoder, so
+ * classes and executables are written once per store. Each record holds the encoded sequence
+ * and which of its statements had non-null results. A second mapped file indexes records by
+ * the types their statements produce, in blocks of record ids; only the block offsets stay on
+ * the heap, so the i-th record of a type is found in O(1).
+ *
+ * Both files are deleted when the JVM exits. Reading a record returns a fresh, unexecuted
+ * sequence built from the same classes and executables the stored one was.
+ */
+final class SpillStore {
+  private static final int SEGMENT_SIZE = 64 << 20;
+  private static final int BLOCK_IDS = 256; // record ids per type index block
+
+  // A file grown and mapped a segment at a time; no write straddles two segments
+  private static final class MappedFile {
+    private final FileChannel channel;
+    private final List<MappedByteBuffer> segments = new ArrayList<>();
+    private long end = 0;
+
+    MappedFile(Path path) throws IOException {
+      this.channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    // Reserves length bytes in a single segment and returns their offset
+    long reserve(int length) throws IOException {
+      if (length > SEGMENT_SIZE) throw new IllegalArgumentException("Record of " + length + " bytes is too large");
+      long segmentEnd = (end / SEGMENT_SIZE + 1) * (long) SEGMENT_SIZE;
+      if (end + length > segmentEnd) end = segmentEnd;
+      int segment = (int) (end / SEGMENT_SIZE);
+      while (segments.size() <= segment) {
+        segments.add(channel.map(FileChannel.MapMode.READ_WRITE, (long) segments.size() * SEGMENT_SIZE, SEGMENT_SIZE));
+      }
+      long offset = end;
+      end += length;
+      return offset;
+    }
+
+    void put(long offset, byte[] bytes) {
+      segment(offset).put(position(offset), bytes);
+    }
+
+    void get(long offset, byte[] bytes) {
+      segment(offset).get(position(offset), bytes);
+    }
+
+    void putInt(long offset, int value) {
+      segment(offset).putInt(position(offset), value);
+    }
+
+    int getInt(long offset) {
+      return segment(offset).getInt(position(offset));
+    }
+
+    private MappedByteBuffer segment(long offset) {
+      return segments.get((int) (offset / SEGMENT_SIZE));
+    }
+
+    private static int position(long offset) {
+      return (int) (offset % SEGMENT_SIZE);
+    }
+  }
+
+  // The ids of the records producing one type, in blocks of the index file
+  private static final class Postings {
+    long[] blocks = new long[4];
+    int size = 0;
+  }
+
+  private final SequenceCodec.Encoder encoder = new SequenceCodec.Encoder();
+  private final SequenceCodec.Decoder decoder = new SequenceCodec.Decoder(encoder);
+  private final MappedFile records;
+  private final MappedFile index;
+  private long[] offsets = new long[1024]; // of each record in records
+  private int size = 0;
+  private final Map<Class<?>, Postings> postings = new HashMap<>();
+
+  SpillStore(Path directory) throws IOException {
+    Files.createDirectories(directory);
+    Path recordPath = Files.createTempFile(directory, "woops-spill", ".seq");
+    Path indexPath = Files.createTempFile(directory, "woops-spill", ".idx");
+    recordPath.toFile().deleteOnExit();
+    indexPath.toFile().deleteOnExit();
+    this.records = new MappedFile(recordPath);
+    this.index = new MappedFile(indexPath);
+  }
+
+  int size() {
+    return size;
+  }
+
+  // Stores seq under each of the given types and returns its record id, or -1 if it can't be
+  // encoded
+  int append(Sequence seq, Class<?>[] producedTypes) {
+    byte[] encoded;
+    try {
+      encoded = encoder.encode(seq);
+    } catch (IllegalArgumentException e) {
+      return -1;
+    }
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(encoded.length + 16);
+    try {
+      DataOutputStream out = new DataOutputStream(bytes);
+      byte[] mask = nonNullResults(seq).toByteArray();
+      SequenceCodec.writeVarInt(out, mask.length);
+      out.write(mask);
+      out.write(encoded);
+      byte[] record = bytes.toByteArray();
+
+      // Each record is its length followed by its bytes
+      long offset = records.reserve(4 + record.length);
+      records.putInt(offset, record.length);
+      records.put(offset + 4, record);
+      if (size == offsets.length) offsets = Arrays.copyOf(offsets, size * 2);
+      offsets[size] = offset;
+      for (Class<?> type : producedTypes) {
+        addPosting(type, size);
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException("Cannot spill sequence", e);
+    }
+    return size++;
+  }
+
+  // Reads back the record with the given id
+  Sequence read(int id) {
+    long offset = offsets[id];
+    byte[] record = new byte[records.getInt(offset)];
+    records.get(offset + 4, record);
+    try {
+      DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+      byte[] mask = new byte[SequenceCodec.readVarInt(in)];
+      in.readFully(mask);
+      Sequence seq = decoder.read(in);
+      seq.setNonNullResults(BitSet.valueOf(mask));
+      return seq;
+    } catch (IOException e) {
+      throw new UncheckedIOException("Corrupt spilled sequence " + id, e);
+    }
+  }
+
+  // Types some stored sequence produces
+  Set<Class<?>> getTypes() {
+    return postings.keySet();
+  }
+
+  int countOfType(Class<?> type) {
+    Postings list = postings.get(type);
+    return list == null ? 0 : list.size;
+  }
+
+  // Id of the i-th record stored under type
+  int idOfType(Class<?> type, int i) {
+    Postings list = postings.get(type);
+    return index.getInt(list.blocks[i / BLOCK_IDS] + 4L * (i % BLOCK_IDS));
+  }
+
+  private void addPosting(Class<?> type, int id) throws IOException {
+    Postings list = postings.computeIfAbsent(type, k -> new Postings());
+    int block = list.size / BLOCK_IDS;
+    if (list.size % BLOCK_IDS == 0) {
+      if (block == list.blocks.length) list.blocks = Arrays.copyOf(list.blocks, block * 2);
+      list.blocks[block] = index.reserve(4 * BLOCK_IDS);
+    }
+    index.putInt(list.blocks[block] + 4L * (list.size % BLOCK_IDS), id);
+    list.size++;
+  }
+
+  private static BitSet nonNullResults(Sequence seq) {
+    BitSet nonNull = new BitSet(seq.size());
+    for (int i = 0; i < seq.size(); i++) {
+      if (seq.hasNonNullResult(i)) nonNull.set(i);
+    }
+    return nonNull;
+  }
+}
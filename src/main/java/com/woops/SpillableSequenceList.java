@@ -0,0 +1,62 @@
+package com.woops;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+
+/**
+ * A growable list of sequences, any of which can be moved out to a SpillStore or flattened into
+ * a CompactSequence. Either way the sequence itself is no longer held here, and a fresh,
+ * unexecuted copy is built each time it is asked for.
+ */
+final class SpillableSequenceList extends AbstractList<Sequence> {
+  private final SpillStore store; // null if nothing is ever spilled
+  private Object[] items = new Object[64]; // a Sequence or CompactSequence, null once spilled
+  private int[] spillIds = new int[64]; // record of each spilled item, -1 while it is held
+  private int size = 0;
+
+  SpillableSequenceList(SpillStore store) {
+    this.store = store;
+  }
+
+  @Override
+  public boolean add(Sequence seq) {
+    if (size == items.length) {
+      items = Arrays.copyOf(items, size * 2);
+      spillIds = Arrays.copyOf(spillIds, size * 2);
+    }
+    items[size] = seq;
+    spillIds[size] = -1;
+    size++;
+    modCount++;
+    return true;
+  }
+
+  @Override
+  public Sequence get(int index) {
+    if (index < 0 || index >= size) throw new IndexOutOfBoundsException("Index " + index + " of " + size);
+    if (spillIds[index] >= 0) return store.read(spillIds[index]);
+    Object item = items[index];
+    return item instanceof CompactSequence ? ((CompactSequence) item).toSequence() : (Sequence) item;
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  // Keeps the item at index flattened, if it can be
+  void compact(int index) {
+    if (!(items[index] instanceof Sequence)) return;
+    try {
+      items[index] = CompactSequence.of((Sequence) items[index]);
+    } catch (IllegalArgumentException e) {
+      // Kept as it is
+    }
+  }
+
+  // Drops the item at index, which the store holds under spillId
+  void spill(int index, int spillId) {
+    items[index] = null;
+    spillIds[index] = spillId;
+  }
+}
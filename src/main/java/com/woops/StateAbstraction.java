@@ -0,0 +1,325 @@
+package com.woops;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Hashes the object graphs reachable from a few values to 128 bits, so that executions which
+ * leave their objects in the same state can be told apart from ones that reach a new state.
+ *
+ * The graph is walked breadth first, and each object is numbered in the order the walk first
+ * reaches it. A reference is hashed as that number, not by identity, so two graphs of the same
+ * shape with the same field values hash the same even if they are made of different objects,
+ * shared references and cycles included. Boxed primitives, strings and enums are hashed by
+ * value. A class with a public getAbstraction() is hashed by what it returns instead of its
+ * fields, unless its shouldAbstract() says otherwise. JDK collections and maps are hashed by
+ * their elements in iteration order, and other JDK objects, whose fields can't be read, only by
+ * their class.
+ *
+ * A walk visits at most a budget of fields and elements. A graph too large for it has no hash,
+ * which callers treat as a state not seen before.
+ */
+public final class StateAbstraction {
+  private static final int DEFAULT_BUDGET = 4096;
+
+  private static final long NULL = 0x6a09e667f3bcc909L;
+  private static final long NEW = 0xbb67ae8584caa73bL;
+  private static final long REFERENCE = 0x3c6ef372fe94f82bL;
+  private static final long OPAQUE = 0xa54ff53a5f1d36f1L;
+
+  // How objects of a class are hashed
+  private static final class Shape {
+    final long nameHash;
+    final Field[] fields; // instance fields, superclass first; null if they can't be read
+    final MethodHandle abstraction; // getAbstraction(), if offered
+    final MethodHandle shouldAbstract; // shouldAbstract(), if offered along with it
+    final boolean jdk;
+
+    Shape(Class<?> cls) {
+      nameHash = hashString(cls.getName());
+      jdk = cls.getName().startsWith("java.") || cls.getName().startsWith("javax.") ||
+            cls.getName().startsWith("jdk.") || cls.getName().startsWith("sun.");
+      MethodHandle found = null;
+      MethodHandle guard = null;
+      if (!jdk && !cls.isArray()) {
+        found = publicMethod(cls, "getAbstraction", Object.class);
+        if (found != null) guard = publicMethod(cls, "shouldAbstract", boolean.class);
+      }
+      abstraction = found;
+      shouldAbstract = guard;
+      fields = jdk || cls.isArray() ? null : readableFields(cls);
+    }
+  }
+
+  private static final ClassValue<Shape> SHAPES = new ClassValue<>() {
+    @Override
+    protected Shape computeValue(Class<?> type) {
+      return new Shape(type);
+    }
+  };
+
+  private final int budget;
+  private Object[] roots = new Object[4];
+  private final Map<Object, Integer> ids = new IdentityHashMap<>();
+  private final Deque<Object> pending = new ArrayDeque<>();
+  private int remaining;
+  private long high;
+  private long low;
+
+  public StateAbstraction() {
+    this(DEFAULT_BUDGET);
+  }
+
+  public StateAbstraction(int budget) {
+    this.budget = budget;
+  }
+
+  // Hashes the state the last statement of seq left behind: its value and the values of its
+  // arguments, receiver included, as they are in frame after the execution
+  public boolean hashLastStatement(Sequence seq, ValueFrame frame) {
+    Statement last = seq.get(seq.size() - 1);
+    List<Argument> args = last instanceof MethodCall ? ((MethodCall) last).getArguments()
+                        : last instanceof ConstructorCall ? ((ConstructorCall) last).getArguments()
+                        : List.of();
+    if (roots.length <= args.size()) roots = new Object[args.size() + 1];
+    int index = frame.size() - 1;
+    roots[0] = frame.get(index);
+    for (int i = 0; i < args.size(); i++) {
+      Argument arg = args.get(i);
+      roots[i + 1] = arg.hasStatement() ? frame.argument(index, i) : arg.getValue();
+    }
+    try {
+      return hash(roots, args.size() + 1);
+    } finally {
+      Arrays.fill(roots, null);
+    }
+  }
+
+  // Hashes the graph reachable from the first count roots. Returns false if it didn't fit in
+  // the budget or couldn't be walked, in which case there is no hash.
+  public boolean hash(Object[] roots, int count) {
+    ids.clear();
+    pending.clear();
+    remaining = budget;
+    high = count;
+    low = ~(long) count;
+    try {
+      for (int i = 0; i < count; i++) {
+        if (!value(roots[i])) return false;
+      }
+      while (!pending.isEmpty()) {
+        if (!expand(pending.poll())) return false;
+      }
+    } catch (RuntimeException | StackOverflowError e) {
+      return false;
+    } finally {
+      ids.clear();
+      pending.clear();
+    }
+    high = finish(high);
+    low = finish(low);
+    return true;
+  }
+
+  public long getHigh() {
+    return high;
+  }
+
+  public long getLow() {
+    return low;
+  }
+
+  // Hashes one reference or primitive, queueing objects reached for the first time
+  private boolean value(Object value) {
+    if (--remaining < 0) return false;
+    if (value == null) {
+      mix(NULL);
+    } else if (value instanceof String) {
+      mix(hashString((String) value));
+    } else if (value instanceof Double || value instanceof Float) {
+      mix(Double.doubleToLongBits(((Number) value).doubleValue()));
+    } else if (value instanceof Number && value.getClass().getName().startsWith("java.lang.")) {
+      mix(((Number) value).longValue());
+    } else if (value instanceof Boolean) {
+      mix((Boolean) value ? 1 : 0);
+    } else if (value instanceof Character) {
+      mix((Character) value);
+    } else if (value instanceof Enum) {
+      mix(SHAPES.get(((Enum<?>) value).getDeclaringClass()).nameHash ^ ((Enum<?>) value).ordinal());
+    } else {
+      Integer id = ids.get(value);
+      if (id != null) {
+        mix(REFERENCE + id);
+      } else {
+        ids.put(value, ids.size());
+        pending.add(value);
+        mix(NEW);
+      }
+    }
+    return true;
+  }
+
+  // Hashes the class and contents of an object the walk has reached
+  private boolean expand(Object object) {
+    Class<?> cls = object.getClass();
+    Shape shape = SHAPES.get(cls);
+    mix(shape.nameHash);
+    if (cls.isArray()) {
+      int length = Array.getLength(object);
+      mix(length);
+      if (cls.getComponentType().isPrimitive()) {
+        if ((remaining -= length) < 0) return false;
+        for (int i = 0; i < length; i++) {
+          Object element = Array.get(object, i);
+          mix(element instanceof Double || element instanceof Float
+              ? Double.doubleToLongBits(((Number) element).doubleValue()) : primitiveBits(element));
+        }
+        return true;
+      }
+      Object[] elements = (Object[]) object;
+      for (Object element : elements) {
+        if (!value(element)) return false;
+      }
+      return true;
+    }
+    if (shape.abstraction != null && abstracts(shape, object)) {
+      try {
+        return value(shape.abstraction.invoke(object));
+      } catch (Throwable t) {
+        mix(OPAQUE);
+        return true;
+      }
+    }
+    if (shape.jdk) {
+      // Only the code under test's own collections are walked by their fields
+      if (object instanceof Collection) {
+        Collection<?> collection = (Collection<?>) object;
+        mix(collection.size());
+        for (Object element : collection) {
+          if (!value(element)) return false;
+        }
+      } else if (object instanceof Map) {
+        Map<?, ?> map = (Map<?, ?>) object;
+        mix(map.size());
+        for (Map.Entry<?, ?> entry : map.entrySet()) {
+          if (!value(entry.getKey()) || !value(entry.getValue())) return false;
+        }
+      } else {
+        mix(OPAQUE);
+      }
+      return true;
+    }
+    if (shape.fields == null) {
+      mix(OPAQUE);
+      return true;
+    }
+    for (Field field : shape.fields) {
+      Class<?> type = field.getType();
+      try {
+        if (!type.isPrimitive()) {
+          if (!value(field.get(object))) return false;
+        } else {
+          if (--remaining < 0) return false;
+          if (type == boolean.class) {
+            mix(field.getBoolean(object) ? 1 : 0);
+          } else if (type == double.class || type == float.class) {
+            mix(Double.doubleToLongBits(field.getDouble(object)));
+          } else {
+            mix(field.getLong(object));
+          }
+        }
+      } catch (IllegalAccessException e) {
+        mix(OPAQUE);
+      }
+    }
+    return true;
+  }
+
+  private static boolean abstracts(Shape shape, Object object) {
+    if (shape.shouldAbstract == null) return true;
+    try {
+      return (boolean) shape.shouldAbstract.invoke(object);
+    } catch (Throwable t) {
+      return false;
+    }
+  }
+
+  private static long primitiveBits(Object element) {
+    if (element instanceof Boolean) return (Boolean) element ? 1 : 0;
+    if (element instanceof Character) return (Character) element;
+    return ((Number) element).longValue();
+  }
+
+  private void mix(long value) {
+    high = Long.rotateLeft(high ^ value, 27) * 0x9e3779b97f4a7c15L;
+    low = Long.rotateLeft(low + value, 31) * 0xc2b2ae3d27d4eb4fL;
+  }
+
+  private static long finish(long h) {
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    h *= 0xc4ceb9fe1a85ec53L;
+    return h ^ (h >>> 33);
+  }
+
+  private static long hashString(String s) {
+    long h = 0xcbf29ce484222325L ^ s.length();
+    for (int i = 0; i < s.length(); i++) {
+      h = (h ^ s.charAt(i)) * 0x100000001b3L;
+    }
+    return h;
+  }
+
+  // A public no-argument instance method returning the given type, adapted to take an Object
+  private static MethodHandle publicMethod(Class<?> cls, String name, Class<?> returnType) {
+    try {
+      Method method = cls.getMethod(name);
+      if (Modifier.isStatic(method.getModifiers())) return null;
+      if (returnType == boolean.class ? method.getReturnType() != boolean.class
+                                      : method.getReturnType().isPrimitive()) return null;
+      return MethodHandles.publicLookup().unreflect(method)
+                          .asType(MethodType.methodType(returnType, Object.class));
+    } catch (NoSuchMethodException | IllegalAccessException | SecurityException e) {
+      return null;
+    }
+  }
+
+  // The instance fields of cls and its superclasses, or null if any of them can't be read
+  private static Field[] readableFields(Class<?> cls) {
+    List<Field> fields = new ArrayList<>();
+    List<Class<?>> hierarchy = new ArrayList<>();
+    for (Class<?> c = cls; c != null && c != Object.class; c = c.getSuperclass()) {
+      hierarchy.add(0, c);
+    }
+    for (Class<?> c : hierarchy) {
+      List<Field> declared = new ArrayList<>();
+      for (Field field : c.getDeclaredFields()) {
+        if (Modifier.isStatic(field.getModifiers())) continue;
+        try {
+          field.setAccessible(true);
+        } catch (RuntimeException e) {
+          return null;
+        }
+        declared.add(field);
+      }
+      declared.sort(Comparator.comparing(Field::getName));
+      fields.addAll(declared);
+    }
+    return fields.toArray(new Field[0]);
+  }
+}
@@ -1,29 +1,57 @@
 package com.woops;
 
+import java.util.Map;
+
 /**
  * Abstract base class for all statements (methodCall, constructorCall, constantAssignment).
+ * Statements only describe what to do; the values they produce go into a ValueFrame.
  */
 public abstract class Statement {
-  protected Object result;
   protected final Class<?> type;
   private String variableName;
+  // getSignature() hashed into two independent lanes, computed on first use
+  private long signatureHigh;
+  private long signatureLow;
+  private boolean signatureHashed = false;
 
   protected Statement(Class<?> type) {
     this.type = type;
   }
 
   protected Object addQuotes(Object obj) {
-    if (obj instanceof String) return "\"" + (String) obj + "\"";
-    if (obj instanceof Character) return "'" + obj + "'";
+    if (obj instanceof String) return "\"" + escape((String) obj, '"') + "\"";
+    if (obj instanceof Character) return "'" + escape(obj.toString(), '\'') + "'";
     return obj; 
   }
 
-  public abstract void execute() throws Exception;
-
-  public Object getResult() {
-    return result;
+  // Escapes s for a Java literal quoted with quote. Literals mined from class files can hold
+  // anything, so everything outside printable ASCII becomes a unicode escape.
+  private static String escape(String s, char quote) {
+    StringBuilder out = new StringBuilder(s.length());
+    for (int i = 0; i < s.length(); i++) {
+      char c = s.charAt(i);
+      if (c == quote || c == '\\') {
+        out.append('\\').append(c);
+      } else if (c == '\n') {
+        out.append("\\n");
+      } else if (c == '\r') {
+        out.append("\\r");
+      } else if (c == '\t') {
+        out.append("\\t");
+      } else if (c < 32 || c > 126) {
+        out.append(String.format("\\u%04x", (int) c));
+      } else {
+        out.append(c);
+      }
+    }
+    return out.toString();
   }
 
+  // Executes the statement with argument values from frame and returns its value
+  public abstract Object execute(ValueFrame frame) throws Exception;
+
+  // Returns an unexecuted copy whose arguments point at the copies of their statements
+  abstract Statement copy(Map<Statement, Statement> copies);
 
   public abstract String toCode();
 
@@ -34,6 +62,24 @@ public abstract class Statement {
   // ✅ for equivalence filtering
   public abstract String getSignature();
 
+  // Lane 0 or 1 of the hash of getSignature(), see Sequence.getFingerprintHigh()
+  final long signatureHash(int lane) {
+    if (!signatureHashed) {
+      String signature = getSignature();
+      long high = 0xcbf29ce484222325L;
+      long low = 0x6a09e667f3bcc909L;
+      for (int i = 0; i < signature.length(); i++) {
+        char c = signature.charAt(i);
+        high = (high ^ c) * 0x100000001b3L;
+        low = (low + c) * 0x9e3779b97f4a7c15L;
+      }
+      signatureHigh = FingerprintSet.mix(high);
+      signatureLow = FingerprintSet.mix(low ^ signature.length());
+      signatureHashed = true;
+    }
+    return lane == 0 ? signatureHigh : signatureLow;
+  }
+
   public void setVariableName(String name) {
     this.variableName = name;
   }
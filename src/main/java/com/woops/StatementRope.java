@@ -0,0 +1,205 @@
+package com.woops;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * The statements of a Sequence as a rope: an immutable tree of shared chunks plus a small
+ * private tail that add() appends to.
+ *
+ * Appending another rope links to its tree instead of copying it, so a pooled prefix is
+ * stored once however many sequences extend it. The other rope's tail is frozen into a chunk
+ * first, which changes its layout but not its contents. Trees that grow too deep are rebuilt
+ * balanced over the same chunks.
+ */
+final class StatementRope {
+  private static final int MAX_DEPTH = 48;
+
+  private abstract static class Node {
+    final int size;
+    final int depth;
+
+    Node(int size, int depth) {
+      this.size = size;
+      this.depth = depth;
+    }
+
+    abstract Statement get(int index);
+
+    abstract void collectLeaves(List<Leaf> leaves);
+  }
+
+  private static final class Leaf extends Node {
+    final Statement[] items;
+
+    Leaf(Statement[] items) {
+      super(items.length, 0);
+      this.items = items;
+    }
+
+    @Override
+    Statement get(int index) {
+      return items[index];
+    }
+
+    @Override
+    void collectLeaves(List<Leaf> leaves) {
+      leaves.add(this);
+    }
+  }
+
+  private static final class Concat extends Node {
+    final Node left;
+    final Node right;
+
+    Concat(Node left, Node right) {
+      super(left.size + right.size, Math.max(left.depth, right.depth) + 1);
+      this.left = left;
+      this.right = right;
+    }
+
+    @Override
+    Statement get(int index) {
+      Node node = this;
+      while (node instanceof Concat) {
+        Concat concat = (Concat) node;
+        if (index < concat.left.size) {
+          node = concat.left;
+        } else {
+          index -= concat.left.size;
+          node = concat.right;
+        }
+      }
+      return node.get(index);
+    }
+
+    @Override
+    void collectLeaves(List<Leaf> leaves) {
+      // Iterative on the left spine, which is where long chains of extensions build up
+      Node node = this;
+      Deque<Node> pending = new ArrayDeque<>();
+      while (true) {
+        if (node instanceof Concat) {
+          pending.push(((Concat) node).right);
+          node = ((Concat) node).left;
+        } else {
+          leaves.add((Leaf) node);
+          if (pending.isEmpty()) return;
+          node = pending.pop();
+        }
+      }
+    }
+  }
+
+  private Node root = null; // shared, never modified
+  private Statement[] tail = new Statement[4];
+  private int tailSize = 0;
+
+  int size() {
+    return (root != null ? root.size : 0) + tailSize;
+  }
+
+  void add(Statement stmt) {
+    if (tailSize == tail.length) tail = Arrays.copyOf(tail, tailSize * 2);
+    tail[tailSize++] = stmt;
+  }
+
+  // Appends the statements of other, sharing its tree
+  void append(StatementRope other) {
+    Node shared = other.freeze();
+    if (shared == null) return;
+    freeze();
+    root = join(root, shared);
+  }
+
+  Statement get(int index) {
+    int rootSize = root != null ? root.size : 0;
+    if (index < 0 || index >= rootSize + tailSize) {
+      throw new IndexOutOfBoundsException("Index " + index + " out of bounds for length " + size());
+    }
+    return index < rootSize ? root.get(index) : tail[index - rootSize];
+  }
+
+  // Iterates from the given position in O(1) amortized per statement
+  Iterator<Statement> iterator(int from) {
+    return new Iterator<>() {
+      private final Deque<Node> pending = new ArrayDeque<>();
+      private final int rootSize = root != null ? root.size : 0;
+      private Statement[] chunk = null;
+      private int chunkIndex = 0;
+      private int position = from;
+
+      {
+        if (from < rootSize) descend(root, from);
+      }
+
+      private void descend(Node node, int offset) {
+        while (node instanceof Concat) {
+          Concat concat = (Concat) node;
+          if (offset < concat.left.size) {
+            pending.push(concat.right);
+            node = concat.left;
+          } else {
+            offset -= concat.left.size;
+            node = concat.right;
+          }
+        }
+        chunk = ((Leaf) node).items;
+        chunkIndex = offset;
+      }
+
+      @Override
+      public boolean hasNext() {
+        return position < rootSize + tailSize;
+      }
+
+      @Override
+      public Statement next() {
+        if (!hasNext()) throw new NoSuchElementException();
+        Statement stmt;
+        if (position >= rootSize) {
+          stmt = tail[position - rootSize];
+        } else {
+          while (chunkIndex >= chunk.length) descend(pending.pop(), 0);
+          stmt = chunk[chunkIndex++];
+        }
+        position++;
+        return stmt;
+      }
+    };
+  }
+
+  // Moves the tail into the tree and returns the tree
+  private Node freeze() {
+    if (tailSize > 0) {
+      root = join(root, new Leaf(Arrays.copyOf(tail, tailSize)));
+      tail = new Statement[4];
+      tailSize = 0;
+    }
+    return root;
+  }
+
+  private static Node join(Node left, Node right) {
+    if (left == null) return right;
+    if (right == null) return left;
+    Node joined = new Concat(left, right);
+    return joined.depth > MAX_DEPTH ? balance(joined) : joined;
+  }
+
+  private static Node balance(Node node) {
+    List<Leaf> leaves = new ArrayList<>();
+    node.collectLeaves(leaves);
+    return build(leaves, 0, leaves.size());
+  }
+
+  private static Node build(List<Leaf> leaves, int from, int to) {
+    if (to - from == 1) return leaves.get(from);
+    int middle = (from + to) >>> 1;
+    return new Concat(build(leaves, from, middle), build(leaves, middle, to));
+  }
+}
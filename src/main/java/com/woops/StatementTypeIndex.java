@@ -0,0 +1,103 @@
+package com.woops;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * The positions of a Sequence's statements whose values are assignable to a type, for every
+ * type that has been asked for, so a usable statement is picked with one random index.
+ *
+ * Positions for a type are found the first time it's asked for and extended with the
+ * statements added since on later requests. A range that was concatenated from another
+ * sequence takes that sequence's positions for the type when it already has them, instead of
+ * checking its statements one by one. Only the source's positions are kept for that, never the
+ * source itself, so a sequence doesn't hold on to the sequences it was built from.
+ */
+final class StatementTypeIndex {
+  // Positions of the matching statements in increasing order
+  private static final class Positions {
+    int[] items = new int[4];
+    int size = 0;
+    int indexedTo = 0; // statements before this position have been checked
+
+    void add(int position) {
+      if (size == items.length) items = Arrays.copyOf(items, size * 2);
+      items[size++] = position;
+    }
+  }
+
+  private final Sequence owner;
+  private Map<Class<?>, Positions> byType = null; // created on the first lookup
+  // Ranges concatenated from other sequences: the statements in [starts[i], starts[i] + lengths[i])
+  // have the positions in sources[i], shared with the index of the sequence they came from
+  private Map<?, ?>[] sources = new Map<?, ?>[0];
+  private int[] starts = new int[0];
+  private int[] lengths = new int[0];
+
+  StatementTypeIndex(Sequence owner) {
+    this.owner = owner;
+  }
+
+  // Records that the statements of source were appended at position start
+  void concatenated(StatementTypeIndex source, int start, int length) {
+    if (length == 0) return;
+    if (source.byType == null) source.byType = new HashMap<>();
+    int n = sources.length;
+    sources = Arrays.copyOf(sources, n + 1);
+    starts = Arrays.copyOf(starts, n + 1);
+    lengths = Arrays.copyOf(lengths, n + 1);
+    sources[n] = source.byType;
+    starts[n] = start;
+    lengths[n] = length;
+  }
+
+  // Returns a random statement whose value is assignable to type, or null if there is none
+  Statement randomOfType(Class<?> type, Random random) {
+    if (byType == null) byType = new HashMap<>();
+    Positions positions = byType.get(type);
+    if (positions == null) {
+      positions = new Positions();
+      byType.put(type, positions);
+    }
+    if (positions.indexedTo < owner.size()) update(positions, type);
+    if (positions.size == 0) return null;
+    return owner.get(positions.items[random.nextInt(positions.size)]);
+  }
+
+  private void update(Positions positions, Class<?> type) {
+    int size = owner.size();
+    int segment = 0;
+    while (positions.indexedTo < size) {
+      int from = positions.indexedTo;
+      while (segment < sources.length && starts[segment] + lengths[segment] <= from) segment++;
+
+      // Take a whole concatenated range from its source if the source already knows the type
+      if (segment < sources.length && starts[segment] == from) {
+        Positions sourcePositions = (Positions) sources[segment].get(type);
+        if (sourcePositions != null && sourcePositions.indexedTo >= lengths[segment]) {
+          for (int i = 0; i < sourcePositions.size; i++) {
+            int position = sourcePositions.items[i];
+            if (position >= lengths[segment]) break;
+            positions.add(from + position);
+          }
+          positions.indexedTo = from + lengths[segment];
+          continue;
+        }
+      }
+
+      // Otherwise check statements up to the next concatenated range
+      int to = size;
+      if (segment < sources.length) {
+        to = starts[segment] > from ? starts[segment] : starts[segment] + lengths[segment];
+      }
+      Iterator<Statement> it = owner.iterator(from);
+      for (int i = from; i < to; i++) {
+        if (type.isAssignableFrom(it.next().getType())) positions.add(i);
+      }
+      positions.indexedTo = to;
+    }
+  }
+}
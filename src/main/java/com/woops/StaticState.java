@@ -0,0 +1,222 @@
+package com.woops;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.security.CodeSource;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Snapshots the static fields of the classes under test so every execution can start from the
+ * state they had right after class initialization, instead of whatever earlier sequences left.
+ *
+ * Besides the given classes this covers the classes reachable from their signatures that come
+ * from the same class loader. Values are copied shallowly: arrays and Cloneable objects (the
+ * usual HashSet counters and caches) are cloned, anything else is restored by reference.
+ * Final fields can't be reassigned, so collections, maps and arrays held in them are restored
+ * in place.
+ */
+public final class StaticState {
+  private static final ClassValue<Method> CLONE = new ClassValue<>() {
+    @Override
+    protected Method computeValue(Class<?> type) {
+      if (!Cloneable.class.isAssignableFrom(type)) return null;
+      try {
+        Method clone = type.getMethod("clone");
+        return Modifier.isPublic(clone.getDeclaringClass().getModifiers()) ? clone : null;
+      } catch (NoSuchMethodException e) {
+        return null;
+      }
+    }
+  };
+
+  private final List<Field> fields = new ArrayList<>();
+  private final Object[] initial;
+
+  // Initializes the classes and takes the snapshot restoreInitial goes back to
+  public StaticState(List<Class<?>> classes) {
+    for (Class<?> cls : reachableClasses(classes)) {
+      try {
+        Class.forName(cls.getName(), true, cls.getClassLoader());
+      } catch (ClassNotFoundException | LinkageError e) {
+        continue;
+      }
+      for (Field field : cls.getDeclaredFields()) {
+        int modifiers = field.getModifiers();
+        if (!Modifier.isStatic(modifiers)) continue;
+        if (Modifier.isFinal(modifiers) && (field.getType().isPrimitive() || field.getType() == String.class)) continue;
+        try {
+          field.setAccessible(true);
+        } catch (RuntimeException e) {
+          continue;
+        }
+        fields.add(field);
+      }
+    }
+    initial = capture();
+  }
+
+  public int getFieldCount() {
+    return fields.size();
+  }
+
+  public Object[] capture() {
+    Object[] snapshot = new Object[fields.size()];
+    for (int i = 0; i < snapshot.length; i++) {
+      snapshot[i] = copyOf(read(fields.get(i)));
+    }
+    return snapshot;
+  }
+
+  // Puts copies of the snapshot's values back, leaving the snapshot itself untouched
+  public void restore(Object[] snapshot) {
+    for (int i = 0; i < snapshot.length; i++) {
+      Field field = fields.get(i);
+      if (Modifier.isFinal(field.getModifiers())) {
+        restoreContents(read(field), snapshot[i]);
+      } else {
+        try {
+          field.set(null, copyOf(snapshot[i]));
+        } catch (IllegalAccessException | RuntimeException e) {
+          // Leave the field as it is
+        }
+      }
+    }
+  }
+
+  public void restoreInitial() {
+    restore(initial);
+  }
+
+  private static Object read(Field field) {
+    try {
+      return field.get(null);
+    } catch (IllegalAccessException | RuntimeException e) {
+      return null;
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private static void restoreContents(Object current, Object saved) {
+    if (current == null || saved == null || current == saved) return;
+    if (current instanceof Collection && saved instanceof Collection) {
+      Collection<Object> target = (Collection<Object>) current;
+      target.clear();
+      target.addAll((Collection<Object>) saved);
+    } else if (current instanceof Map && saved instanceof Map) {
+      Map<Object, Object> target = (Map<Object, Object>) current;
+      target.clear();
+      target.putAll((Map<Object, Object>) saved);
+    } else if (current.getClass().isArray() && current.getClass() == saved.getClass() &&
+               Array.getLength(current) == Array.getLength(saved)) {
+      System.arraycopy(saved, 0, current, 0, Array.getLength(saved));
+    }
+  }
+
+  private static Object copyOf(Object value) {
+    if (value == null || value instanceof Number || value instanceof Boolean || value instanceof Character ||
+        value instanceof String || value instanceof Enum || value instanceof Class) {
+      return value;
+    }
+    Class<?> type = value.getClass();
+    if (type.isArray()) {
+      int length = Array.getLength(value);
+      Object copy = Array.newInstance(type.getComponentType(), length);
+      System.arraycopy(value, 0, copy, 0, length);
+      return copy;
+    }
+    Method clone = CLONE.get(type);
+    if (clone != null) {
+      try {
+        return clone.invoke(value);
+      } catch (ReflectiveOperationException | RuntimeException e) {
+        // Fall through and share it
+      }
+    }
+    return value;
+  }
+
+  // The locations the classes were loaded from
+  static URL[] targetUrls(List<Class<?>> classes) {
+    Set<URL> urls = new LinkedHashSet<>();
+    for (Class<?> cls : classes) {
+      CodeSource source = cls.getProtectionDomain().getCodeSource();
+      if (source != null && source.getLocation() != null) urls.add(source.getLocation());
+    }
+    return urls.toArray(new URL[0]);
+  }
+
+  // A loader that defines its own copies of the classes at urls, with fresh static state
+  static URLClassLoader freshLoader(URL[] urls) {
+    if (CoverageRuntime.isEnabled()) return new InstrumentingClassLoader(urls, StaticState.class.getClassLoader());
+    return new ChildFirstLoader(urls, StaticState.class.getClassLoader());
+  }
+
+  // Prefers its own URLs over the parent's, except for the JDK and the generator itself, so
+  // targets that are also on the generator's class path still get fresh copies
+  static class ChildFirstLoader extends URLClassLoader {
+    ChildFirstLoader(URL[] urls, ClassLoader parent) {
+      super(urls, parent);
+    }
+
+    @Override
+    protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+      if (name.startsWith("java.") || name.startsWith("com.woops.")) return super.loadClass(name, resolve);
+      synchronized (getClassLoadingLock(name)) {
+        Class<?> cls = findLoadedClass(name);
+        if (cls == null) {
+          try {
+            cls = findClass(name);
+          } catch (ClassNotFoundException e) {
+            return super.loadClass(name, resolve);
+          }
+        }
+        if (resolve) resolveClass(cls);
+        return cls;
+      }
+    }
+  }
+
+  // The classes plus everything their members mention that comes from one of their loaders
+  private static Set<Class<?>> reachableClasses(List<Class<?>> classes) {
+    Set<ClassLoader> loaders = new LinkedHashSet<>();
+    for (Class<?> cls : classes) {
+      if (cls.getClassLoader() != null) loaders.add(cls.getClassLoader());
+    }
+
+    Set<Class<?>> reached = new LinkedHashSet<>();
+    Deque<Class<?>> queue = new ArrayDeque<>(classes);
+    while (!queue.isEmpty()) {
+      Class<?> cls = queue.poll();
+      while (cls.isArray()) cls = cls.getComponentType();
+      if (cls.isPrimitive() || !loaders.contains(cls.getClassLoader()) || !reached.add(cls)) continue;
+
+      try {
+        for (Field field : cls.getDeclaredFields()) queue.add(field.getType());
+        for (Method method : cls.getDeclaredMethods()) {
+          queue.add(method.getReturnType());
+          queue.addAll(List.of(method.getParameterTypes()));
+        }
+        for (Constructor<?> constructor : cls.getDeclaredConstructors()) {
+          queue.addAll(List.of(constructor.getParameterTypes()));
+        }
+        queue.addAll(List.of(cls.getDeclaredClasses()));
+        if (cls.getSuperclass() != null) queue.add(cls.getSuperclass());
+      } catch (LinkageError e) {
+        // Members refer to something missing; keep what we have
+      }
+    }
+    return reached;
+  }
+}
@@ -0,0 +1,143 @@
+package com.woops;
+
+import java.io.Serializable;
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Executable;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Reflection results for a type, looked up once per run and shared by everything that needs
+ * them: public constructors and methods, their parameter types and static-ness, and the types
+ * a value of this type can be assigned to.
+ *
+ * Reflection hands out a fresh copy of every array and member on each call, so callers must
+ * treat the lists and arrays returned here as read-only. Parallel workers share the cache; a
+ * value computed twice by racing threads is merely wasted work.
+ */
+final class TypeMetadata {
+  private static final ClassValue<TypeMetadata> CACHE = new ClassValue<>() {
+    @Override
+    protected TypeMetadata computeValue(Class<?> type) {
+      return new TypeMetadata(type);
+    }
+  };
+
+  // What is needed of a constructor or method to call it
+  private static final class ExecutableInfo {
+    final Class<?>[] parameterTypes;
+    final boolean isStatic;
+
+    ExecutableInfo(Executable executable) {
+      this.parameterTypes = executable.getParameterTypes();
+      this.isStatic = Modifier.isStatic(executable.getModifiers());
+    }
+  }
+
+  private final Class<?> type;
+  private volatile List<Constructor<?>> publicConstructors;
+  private volatile List<Method> publicMethods;
+  private volatile Set<Class<?>> supertypes;
+  private final Map<Executable, ExecutableInfo> executables = new ConcurrentHashMap<>();
+
+  private TypeMetadata(Class<?> type) {
+    this.type = type;
+  }
+
+  static TypeMetadata of(Class<?> type) {
+    return CACHE.get(type);
+  }
+
+  // Public constructors declared by the type
+  List<Constructor<?>> getPublicConstructors() {
+    if (publicConstructors == null) {
+      List<Constructor<?>> constructors = new ArrayList<>();
+      for (Constructor<?> constructor : type.getDeclaredConstructors()) {
+        if (Modifier.isPublic(constructor.getModifiers())) {
+          constructors.add(constructor);
+        }
+      }
+      publicConstructors = Collections.unmodifiableList(constructors);
+    }
+    return publicConstructors;
+  }
+
+  // Public methods declared by the type, in declaration order as reflection reports it
+  List<Method> getPublicMethods() {
+    if (publicMethods == null) {
+      List<Method> methods = new ArrayList<>();
+      for (Method method : type.getDeclaredMethods()) {
+        if (Modifier.isPublic(method.getModifiers())) {
+          methods.add(method);
+        }
+      }
+      publicMethods = Collections.unmodifiableList(methods);
+    }
+    return publicMethods;
+  }
+
+  // Every type a value of this type can be assigned to, including itself
+  Set<Class<?>> getSupertypes() {
+    if (supertypes == null) {
+      Set<Class<?>> found = new LinkedHashSet<>();
+      if (type.isArray() && !type.getComponentType().isPrimitive()) {
+        // Arrays are covariant in their element type
+        for (Class<?> element : of(type.getComponentType()).getSupertypes()) {
+          found.add(Array.newInstance(element, 0).getClass());
+        }
+        found.add(Object.class);
+        found.add(Cloneable.class);
+        found.add(Serializable.class);
+      } else if (type.isArray()) {
+        found.add(type);
+        found.add(Object.class);
+        found.add(Cloneable.class);
+        found.add(Serializable.class);
+      } else {
+        collectSupertypes(type, found);
+        if (type.isInterface()) found.add(Object.class);
+      }
+      supertypes = Collections.unmodifiableSet(found);
+    }
+    return supertypes;
+  }
+
+  boolean isAssignableTo(Class<?> target) {
+    return getSupertypes().contains(target);
+  }
+
+  private static void collectSupertypes(Class<?> type, Set<Class<?>> found) {
+    if (type == null || !found.add(type)) return;
+    collectSupertypes(type.getSuperclass(), found);
+    for (Class<?> implemented : type.getInterfaces()) {
+      collectSupertypes(implemented, found);
+    }
+  }
+
+  // Parameter types of a constructor or method of any type, without the defensive copy
+  static Class<?>[] parameterTypes(Executable executable) {
+    return info(executable).parameterTypes;
+  }
+
+  static boolean isStatic(Method method) {
+    return info(method).isStatic;
+  }
+
+  private static ExecutableInfo info(Executable executable) {
+    Map<Executable, ExecutableInfo> executables = of(executable.getDeclaringClass()).executables;
+    ExecutableInfo info = executables.get(executable);
+    if (info == null) {
+      info = new ExecutableInfo(executable);
+      executables.put(executable, info);
+    }
+    return info;
+  }
+}
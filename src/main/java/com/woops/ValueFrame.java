@@ -0,0 +1,79 @@
+package com.woops;
+
+import java.util.Arrays;
+
+/**
+ * The values of one execution of a sequence, a register per statement position.
+ *
+ * Statements are shared by every sequence built from them, so they hold no results; each
+ * execution writes its own frame instead, and any number of executions over the same
+ * statements can run side by side. Arguments name the statement they come from; the sequence
+ * resolves each to the latest position that statement was executed at, as it would be read in
+ * the generated test, once for all its executions, and the frame reads them by position.
+ *
+ * A frame also lends out the argument arrays calls are made with, one per arity, so
+ * marshaling arguments allocates nothing.
+ */
+public final class ValueFrame {
+  private Object[] values;
+  private int size = 0;
+  private int[] argumentStarts = null; // see layOut()
+  private int[] argumentPositions = null;
+  private Object[][] argumentArrays = new Object[4][];
+
+  public ValueFrame(int capacity) {
+    values = new Object[Math.max(capacity, 4)];
+  }
+
+  // A frame holding the given values of the first statements of seq, to execute the rest into
+  ValueFrame(Sequence seq, Object[] prefixValues, int prefixSize) {
+    this(seq.size());
+    System.arraycopy(prefixValues, 0, values, 0, prefixSize);
+    size = prefixSize;
+  }
+
+  // Number of statements executed into the frame
+  public int size() {
+    return size;
+  }
+
+  public Object get(int position) {
+    return values[position];
+  }
+
+  // Value of argument arg of the statement at index, or null if it doesn't come from an earlier
+  // statement
+  public Object argument(int index, int arg) {
+    int position = argumentPositions[argumentStarts[index] + arg];
+    return position >= 0 ? values[position] : null;
+  }
+
+  // Sets where the arguments of each statement are read from, laid out by the sequence executed
+  // into the frame
+  void layOut(int[] argumentStarts, int[] argumentPositions) {
+    this.argumentStarts = argumentStarts;
+    this.argumentPositions = argumentPositions;
+  }
+
+  // Records the value of the statement at the next position
+  void put(Object value) {
+    if (size == values.length) values = Arrays.copyOf(values, size * 2);
+    values[size++] = value;
+  }
+
+  // The values so far, in a new array
+  Object[] toArray() {
+    return Arrays.copyOf(values, size);
+  }
+
+  // An argument array of the given length, overwritten by the next call of the same arity
+  Object[] argumentArray(int length) {
+    if (length >= argumentArrays.length) argumentArrays = Arrays.copyOf(argumentArrays, length + 1);
+    Object[] array = argumentArrays[length];
+    if (array == null) {
+      array = new Object[length];
+      argumentArrays[length] = array;
+    }
+    return array;
+  }
+}
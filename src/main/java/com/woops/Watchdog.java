@@ -0,0 +1,158 @@
+package com.woops;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * Puts a deadline on executions. They run on the calling thread, and a timer thread shared by
+ * all watchdogs interrupts one once its deadline passes; Sequence.execute checks for that
+ * between statements, so the execution ends after the statement that ran over.
+ *
+ * A call that ignores the interrupt, such as a loop that never returns, keeps the thread. If it
+ * is still running GRACE_MILLIS after its deadline, the thread is abandoned to it and the
+ * runaway handler is called from the timer thread to carry on the caller's work on another
+ * thread. Should the abandoned thread ever come back, it unwinds with Abandoned rather than
+ * touching anything. Abandoned threads that are still running are counted, since each of them
+ * keeps changing objects and statics behind the generator's back.
+ */
+public class Watchdog {
+  public interface Task {
+    void run() throws Exception;
+  }
+
+  // Thrown on an abandoned thread that comes back from a runaway call, to unwind it
+  public static final class Abandoned extends Error {
+    private static final long serialVersionUID = 1L;
+
+    private Abandoned() {
+      super("Execution was abandoned", null, false, false);
+    }
+  }
+
+  // How often the timer thread checks deadlines
+  private static final long TICK_MILLIS = 5;
+  // How long past its deadline an execution may take to notice the interrupt
+  private static final long GRACE_MILLIS = 100;
+
+  private static final List<Watchdog> ACTIVE = new CopyOnWriteArrayList<>();
+  private static Thread timer = null;
+
+  private final long timeoutMillis;
+  private final Consumer<ExecutionTimeoutException> runawayHandler;
+  // Guarded by this
+  private Thread runner = null;
+  private Sequence running = null;
+  private long deadline = 0; // System.nanoTime() the running execution is due by, 0 if none
+  private boolean interrupted = false; // whether the running execution was interrupted
+  private final List<Thread> abandoned = new ArrayList<>();
+  private int timeouts = 0;
+
+  private Watchdog(long timeoutMillis, Consumer<ExecutionTimeoutException> runawayHandler) {
+    this.timeoutMillis = timeoutMillis;
+    this.runawayHandler = runawayHandler;
+  }
+
+  // Returns a watchdog the timer thread checks until shutdown(). runawayHandler is told about
+  // each call that kept its thread, with the statement it was stuck in; it runs on the timer
+  // thread.
+  public static Watchdog start(long timeoutMillis, Consumer<ExecutionTimeoutException> runawayHandler) {
+    // Registered only once constructed, so the timer never sees it half-built
+    Watchdog watchdog = new Watchdog(timeoutMillis, runawayHandler);
+    ACTIVE.add(watchdog);
+    startTimer();
+    return watchdog;
+  }
+
+  // Runs task on this thread, rethrowing what it throws, or throws ExecutionTimeoutException
+  // if the deadline passed before it returned. running names the sequence being executed, for
+  // reporting the culprit.
+  public void run(Task task, Sequence running) throws Exception {
+    Thread self = Thread.currentThread();
+    synchronized (this) {
+      this.runner = self;
+      this.running = running;
+      this.interrupted = false;
+      this.deadline = System.nanoTime() + timeoutMillis * 1_000_000L;
+    }
+    Throwable failure = null;
+    try {
+      task.run();
+    } catch (Exception | Error e) {
+      failure = e;
+    }
+    Statement culprit = running.getExecutingStatement();
+    synchronized (this) {
+      if (abandoned.contains(self)) throw new Abandoned();
+      boolean timedOut = interrupted;
+      deadline = 0;
+      runner = null;
+      this.running = null;
+      if (timedOut) {
+        // The interrupt was meant for the execution, not for whatever this thread does next
+        Thread.interrupted();
+        timeouts++;
+        throw new ExecutionTimeoutException("Execution exceeded " + timeoutMillis + " ms", culprit);
+      }
+    }
+    if (failure instanceof Error) throw (Error) failure;
+    if (failure != null) throw (Exception) failure;
+  }
+
+  public synchronized int getTimeoutCount() {
+    return timeouts;
+  }
+
+  // Abandoned threads still stuck in the call they were abandoned to
+  public synchronized int getRunawayCount() {
+    abandoned.removeIf(thread -> !thread.isAlive());
+    return abandoned.size();
+  }
+
+  public void shutdown() {
+    ACTIVE.remove(this);
+  }
+
+  // Interrupts an execution past its deadline, or abandons its thread if it is past the grace
+  // period too
+  private void check(long now) {
+    ExecutionTimeoutException runaway;
+    synchronized (this) {
+      if (deadline == 0 || now < deadline) return;
+      if (!interrupted) {
+        interrupted = true;
+        runner.interrupt();
+        return;
+      }
+      if (now < deadline + GRACE_MILLIS * 1_000_000L) return;
+      abandoned.add(runner);
+      timeouts++;
+      runaway = new ExecutionTimeoutException("Execution exceeded " + timeoutMillis + " ms and ignored the interrupt",
+                                              running.getExecutingStatement(), running);
+      deadline = 0;
+      runner = null;
+      running = null;
+    }
+    runawayHandler.accept(runaway);
+  }
+
+  private static synchronized void startTimer() {
+    if (timer != null) return;
+    timer = new Thread(() -> {
+      while (true) {
+        try {
+          Thread.sleep(TICK_MILLIS);
+        } catch (InterruptedException e) {
+          return;
+        }
+        long now = System.nanoTime();
+        for (Watchdog watchdog : ACTIVE) {
+          watchdog.check(now);
+        }
+      }
+    }, "watchdog-timer");
+    timer.setDaemon(true);
+    timer.start();
+  }
+}
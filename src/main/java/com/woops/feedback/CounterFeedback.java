@@ -0,0 +1,62 @@
+package com.woops.feedback;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads the static int counter that a class under test raises whenever it reaches a state it
+ * hasn't reached before, like the branch fingerprint counts of the demo classes. A counter
+ * only counts as having grown past the highest value seen, so a counter put back by restored
+ * static state isn't credited twice.
+ *
+ * The counters are read through VarHandles looked up once, on the classes the generator was
+ * given; copies of a class in loaders made for a single execution aren't seen.
+ */
+public class CounterFeedback implements FeedbackSource {
+  private static final String FIELD = "counter";
+
+  private VarHandle[] counters = new VarHandle[0];
+  private int[] highest = new int[0];
+
+  @Override
+  public void bind(List<Class<?>> classes) {
+    List<VarHandle> found = new ArrayList<>();
+    for (Class<?> cls : classes) {
+      try {
+        Field field = cls.getDeclaredField(FIELD);
+        if (!Modifier.isStatic(field.getModifiers()) || field.getType() != int.class) continue;
+        found.add(MethodHandles.privateLookupIn(cls, MethodHandles.lookup())
+                               .findStaticVarHandle(cls, FIELD, int.class));
+      } catch (NoSuchFieldException | IllegalAccessException | SecurityException e) {
+        // No counter to read in this class
+      }
+    }
+    counters = found.toArray(new VarHandle[0]);
+    highest = new int[counters.length];
+    for (int i = 0; i < counters.length; i++) {
+      highest[i] = (int) counters[i].getVolatile();
+    }
+  }
+
+  @Override
+  public int poll() {
+    int gained = 0;
+    for (int i = 0; i < counters.length; i++) {
+      int value = (int) counters[i].getVolatile();
+      if (value > highest[i]) {
+        gained += value - highest[i];
+        highest[i] = value;
+      }
+    }
+    return gained;
+  }
+
+  @Override
+  public String getName() {
+    return "CounterFeedback";
+  }
+}
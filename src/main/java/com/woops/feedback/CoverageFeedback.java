@@ -0,0 +1,25 @@
+package com.woops.feedback;
+
+import com.woops.CoverageRuntime;
+
+import java.util.List;
+
+// Probes covered for the first time, when the classes under test are loaded with --coverage
+public class CoverageFeedback implements FeedbackSource {
+  private boolean enabled = false;
+
+  @Override
+  public void bind(List<Class<?>> classes) {
+    enabled = CoverageRuntime.isEnabled();
+  }
+
+  @Override
+  public int poll() {
+    return enabled ? CoverageRuntime.collect() : 0;
+  }
+
+  @Override
+  public String getName() {
+    return "CoverageFeedback";
+  }
+}
@@ -0,0 +1,45 @@
+// This class loads feedback sources from a JSON config file
+package com.woops.feedback;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+public class FeedbackLoader {
+
+  // Load the sources listed under "feedback" in config.json; none if there is no such list
+  public static List<FeedbackSource> loadSourcesFromConfig(String configPath) {
+    List<FeedbackSource> sources = new ArrayList<>();
+    try {
+      String content = Files.readString(Paths.get(configPath));
+      JSONObject json = new JSONObject(content);
+      JSONArray sourceClasses = json.optJSONArray("feedback");
+      if (sourceClasses == null) return sources;
+
+      for (int i = 0; i < sourceClasses.length(); i++) {
+        String className = sourceClasses.getString(i);
+        try {
+          Class<?> cls = Class.forName(className);
+          Object instance = cls.getDeclaredConstructor().newInstance();
+          if (instance instanceof FeedbackSource) {
+            sources.add((FeedbackSource) instance);
+            System.out.println(" Loaded feedback source: " + className);
+          } else {
+            System.err.println("❌ " + className + " does not implement FeedbackSource interface");
+          }
+        } catch (Exception e) {
+          System.err.println(" Failed to load feedback source class: " + className);
+          e.printStackTrace();
+        }
+      }
+
+    } catch (IOException e) {
+      System.err.println("Failed to read config file: " + e.getMessage());
+    }
+    return sources;
+  }
+}
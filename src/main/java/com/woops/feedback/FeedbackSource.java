@@ -0,0 +1,20 @@
+package com.woops.feedback;
+
+import java.util.List;
+
+/**
+ * A signal of new behaviour in the classes under test, polled by the generator after every
+ * execution. Sources are listed under "feedback" in config.json.
+ *
+ * poll() runs once per execution, so it should only read state the source looked up in
+ * bind(), not search for it again.
+ */
+public interface FeedbackSource {
+  // Looks up whatever poll() reads from the classes under test; called once before generation
+  void bind(List<Class<?>> classes);
+
+  // How much new behaviour the executions since the last poll showed, 0 for none
+  int poll();
+
+  String getName();
+}
@@ -1,23 +1,18 @@
 package com.woops.filters;
 
+import com.woops.FingerprintSet;
 import com.woops.Sequence;
 
-import java.util.HashSet;
-import java.util.Set;
-
+// Rejects sequences that leave their objects in a state an earlier sequence already reached,
+// compared by the StateAbstraction hash taken when they were executed
 public class EqualityFilter implements Filter {
-  private final Set<String> seen = new HashSet<>();
+  private final FingerprintSet seen = new FingerprintSet();
 
   @Override
   public boolean isValid(Sequence sequence) {
-    // TEMPORARILY ALWAYS RETURN TRUE:
-
-    // Object result = sequence.getLastResult();
-    // if (result == null) return false;
-    // String repr = result.toString();
-    // if (seen.contains(repr)) return false;
-    // seen.add(repr);
-    return true;
+    // A state too large to hash counts as new
+    if (!sequence.hasState()) return true;
+    return seen.add(sequence.getStateHigh(), sequence.getStateLow());
   }
 
   @Override
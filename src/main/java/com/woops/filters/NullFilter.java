@@ -6,13 +6,11 @@ import com.woops.Statement;
 public class NullFilter implements Filter {
   @Override
   public boolean isValid(Sequence sequence) {
-    Object result = sequence.getLastResult();
-    
     // If result is not null, it's valid
-    if (result != null) return true;
+    if (sequence.hasNonNullResult(sequence.size() - 1)) return true;
     
     // If result is null, make sure last statement wasn't just a void method
-    Statement lastStmt = sequence.statements.get(sequence.statements.size() - 1);
+    Statement lastStmt = sequence.get(sequence.size() - 1);
     return lastStmt.getType() == void.class;
   }
 
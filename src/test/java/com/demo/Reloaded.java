@@ -0,0 +1,18 @@
+package com.demo;
+
+import com.woops.StaticsReloadTest;
+
+import java.lang.ref.WeakReference;
+
+// A target whose every copy reports the class loader that defined it, see StaticsReloadTest
+public class Reloaded {
+    private static int created = 0;
+
+    public Reloaded() {
+        if (created++ == 0) StaticsReloadTest.LOADERS.add(new WeakReference<>(getClass().getClassLoader()));
+    }
+
+    public int created() {
+        return created;
+    }
+}
@@ -0,0 +1,85 @@
+package com.woops;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+public class CompactSequenceTest {
+
+    @Test
+    void roundTripsEveryKindOfConstant() throws Exception {
+        Sequence seq = Sequences.listOfConstants();
+        CompactSequence compact = CompactSequence.of(seq);
+        assertEquals(seq.size(), compact.size());
+
+        Sequence rebuilt = compact.toSequence();
+        Sequences.assertSameStatements(seq, rebuilt);
+        ValueFrame frame = rebuilt.execute();
+        assertEquals(Sequences.CONSTANTS.length, frame.get(frame.size() - 1));
+    }
+
+    @Test
+    void keepsPrimitiveEdgeValues() throws Exception {
+        Object[] values = {Integer.MIN_VALUE, Long.MAX_VALUE, -0.0, Double.NaN, Float.MIN_VALUE,
+                           false, Character.MAX_VALUE, Byte.MIN_VALUE, Short.MIN_VALUE};
+        Class<?>[] types = {int.class, long.class, double.class, double.class, float.class,
+                            boolean.class, char.class, byte.class, short.class};
+        Sequence seq = new Sequence();
+        for (int i = 0; i < values.length; i++) {
+            seq.add(new ConstantAssignment(values[i], types[i]));
+        }
+        Sequence rebuilt = CompactSequence.of(seq).toSequence();
+        for (int i = 0; i < values.length; i++) {
+            assertEquals(values[i], ((ConstantAssignment) rebuilt.get(i)).getValue());
+        }
+    }
+
+    @Test
+    void argumentsReferToTheLatestPositionOfASharedStatement() throws Exception {
+        Sequence prefix = Sequences.listOfConstants();
+        Sequence twice = new Sequence();
+        twice.concat(prefix);
+        twice.concat(prefix);
+        Sequence rebuilt = CompactSequence.of(twice).toSequence();
+        Sequences.assertSameStatements(twice, rebuilt);
+    }
+
+    @Test
+    void keepsNonNullResults() throws Exception {
+        Sequence seq = Sequences.listOfConstants();
+        BitSet nonNull = new BitSet();
+        nonNull.set(0);
+        nonNull.set(seq.size() - 1);
+        seq.setNonNullResults(nonNull);
+        Sequence rebuilt = CompactSequence.of(seq).toSequence();
+        for (int i = 0; i < seq.size(); i++) {
+            assertEquals(nonNull.get(i), rebuilt.hasNonNullResult(i), "statement " + i);
+        }
+    }
+
+    @Test
+    void rejectsArgumentsThatDontComeFromAStatement() throws Exception {
+        Sequence seq = new Sequence();
+        ConstructorCall list = new ConstructorCall(ArrayList.class.getConstructor(), List.of());
+        seq.add(list);
+        seq.add(new MethodCall(ArrayList.class.getMethod("add", Object.class),
+                               List.of(new Argument(list), new Argument("direct"))));
+        assertThrows(IllegalArgumentException.class, () -> CompactSequence.of(seq));
+    }
+
+    @Test
+    void rebuildsFreshStatements() throws Exception {
+        Sequence seq = Sequences.listOfConstants();
+        Sequence rebuilt = CompactSequence.of(seq).toSequence();
+        for (int i = 0; i < seq.size(); i++) {
+            assertTrue(seq.get(i) != rebuilt.get(i), "statement " + i + " is shared");
+        }
+    }
+}
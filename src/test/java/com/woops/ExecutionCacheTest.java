@@ -0,0 +1,155 @@
+package com.woops;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+public class ExecutionCacheTest {
+
+    private final ExecutionCache cache = new ExecutionCache(false);
+
+    // new ArrayList(), then "a" added to it
+    private static Sequence listPrefix() throws ReflectiveOperationException {
+        Sequence seq = new Sequence();
+        ConstructorCall list = new ConstructorCall(ArrayList.class.getConstructor(), List.of());
+        seq.add(list);
+        seq.add(add(list, "a"));
+        return seq;
+    }
+
+    private static MethodCall add(Statement list, Object value) throws ReflectiveOperationException {
+        return new MethodCall(ArrayList.class.getMethod("add", Object.class),
+                              List.of(new Argument(list), new Argument(value)));
+    }
+
+    private static MethodCall call(Statement list, String name, Class<?>[] types, Object... values)
+            throws ReflectiveOperationException {
+        List<Argument> args = new ArrayList<>();
+        args.add(new Argument(list));
+        for (Object value : values) {
+            args.add(new Argument(value));
+        }
+        return new MethodCall(ArrayList.class.getMethod(name, types), args);
+    }
+
+    // prefix, then "b" added to its list, then the list's size()
+    private static Sequence extend(Sequence prefix) throws ReflectiveOperationException {
+        Sequence seq = new Sequence();
+        seq.concat(prefix);
+        Statement list = prefix.get(0);
+        seq.add(add(list, "b"));
+        seq.add(call(list, "size", new Class<?>[0]));
+        return seq;
+    }
+
+    private Sequence recordedPrefix() throws Exception {
+        Sequence prefix = listPrefix();
+        cache.execute(prefix, null);
+        cache.record(prefix);
+        return prefix;
+    }
+
+    private static void assertSameValues(ValueFrame expected, ValueFrame actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertTrue(Objects.deepEquals(expected.get(i), actual.get(i)),
+                       "value " + i + " was " + actual.get(i) + ", expected " + expected.get(i));
+        }
+    }
+
+    @Test
+    void resumingFromALivePrefixGivesTheFrameOfAFullReplay() throws Exception {
+        Sequence prefix = recordedPrefix();
+        Sequence seq = extend(prefix);
+
+        ValueFrame resumed = cache.execute(seq, prefix);
+        assertEquals(1, cache.getResumedCount());
+        assertSameValues(seq.execute(), resumed);
+        assertEquals(2, resumed.get(seq.size() - 1));
+    }
+
+    @Test
+    void mutablePrefixIsReplayedAfterBeingResumedOnce() throws Exception {
+        Sequence prefix = recordedPrefix();
+        Object recordedList = cache.execute(extend(prefix), prefix).get(0);
+        assertEquals(1, cache.getResumedCount());
+
+        // The first candidate added "b" to the recorded list, so it can't be resumed from again
+        int replays = cache.getReplayedCount();
+        Sequence seq = extend(prefix);
+        ValueFrame replayed = cache.execute(seq, prefix);
+        assertEquals(1, cache.getResumedCount());
+        assertEquals(replays + 1, cache.getReplayedCount());
+        assertTrue(replayed.get(0) != recordedList, "replay reused the recorded list");
+        assertSameValues(seq.execute(), replayed);
+    }
+
+    @Test
+    void executeCarriesOnFromACleanEagerFrame() throws Exception {
+        Sequence prefix = recordedPrefix();
+        Sequence seq = new Sequence();
+        seq.concat(prefix);
+        Statement list = prefix.get(0);
+        seq.add(add(list, "b"));
+        cache.executeLast(seq, prefix);
+        seq.add(call(list, "size", new Class<?>[0]));
+
+        int replays = cache.getReplayedCount();
+        ValueFrame frame = cache.execute(seq, prefix);
+        assertEquals(replays, cache.getReplayedCount());
+        assertEquals(1, cache.getResumedCount());
+        assertSameValues(seq.execute(), frame);
+    }
+
+    @Test
+    void executeReplaysWhenAnEagerStatementFailed() throws Exception {
+        Sequence prefix = recordedPrefix();
+        Sequence seq = new Sequence();
+        seq.concat(prefix);
+        Statement list = prefix.get(0);
+        seq.add(call(list, "get", new Class<?>[] {int.class}, 5));
+        assertThrows(Exception.class, () -> cache.executeLast(seq, prefix));
+        seq.add(call(list, "size", new Class<?>[0]));
+
+        // Resuming already stamped the prefix, and the failure left the eager frame unusable
+        int resumes = cache.getResumedCount();
+        int replays = cache.getReplayedCount();
+        assertThrows(Exception.class, () -> cache.execute(seq, prefix));
+        assertEquals(resumes, cache.getResumedCount());
+        assertEquals(replays + 1, cache.getReplayedCount());
+    }
+
+    @Test
+    void invalidateForcesAReplay() throws Exception {
+        // A prefix of immutable values can be resumed from any number of times
+        Sequence prefix = new Sequence();
+        ConstantAssignment text = new ConstantAssignment("text", String.class);
+        prefix.add(text);
+        prefix.add(new MethodCall(String.class.getMethod("length"), List.of(new Argument(text))));
+        cache.execute(prefix, null);
+        cache.record(prefix);
+        Sequence seq = new Sequence();
+        seq.concat(prefix);
+        seq.add(new MethodCall(String.class.getMethod("isEmpty"), List.of(new Argument(text))));
+
+        cache.execute(seq, prefix);
+        cache.execute(seq, prefix);
+        assertEquals(2, cache.getResumedCount());
+
+        cache.invalidate();
+        int replays = cache.getReplayedCount();
+        ValueFrame frame = cache.execute(seq, prefix);
+        assertEquals(2, cache.getResumedCount());
+        assertEquals(replays + 1, cache.getReplayedCount());
+        assertSame(false, frame.get(2));
+        assertSameValues(seq.execute(), frame);
+    }
+}
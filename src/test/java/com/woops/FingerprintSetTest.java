@@ -0,0 +1,85 @@
+package com.woops;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+public class FingerprintSetTest {
+
+    @Test
+    void growsAndKeepsEveryFingerprint() {
+        FingerprintSet set = new FingerprintSet();
+        Set<List<Long>> expected = new HashSet<>();
+        Random random = new Random(1);
+        for (int i = 0; i < 100_000; i++) {
+            long high = random.nextLong();
+            long low = random.nextLong();
+            assertTrue(set.add(high, low));
+            expected.add(List.of(high, low));
+        }
+        assertEquals(expected.size(), set.size());
+        for (List<Long> fingerprint : expected) {
+            assertTrue(set.contains(fingerprint.get(0), fingerprint.get(1)));
+            assertFalse(set.add(fingerprint.get(0), fingerprint.get(1)));
+        }
+        for (int i = 0; i < 10_000; i++) {
+            long high = random.nextLong();
+            long low = random.nextLong();
+            assertEquals(expected.contains(List.of(high, low)), set.contains(high, low));
+        }
+        assertEquals(expected.size(), set.size());
+    }
+
+    @Test
+    void tellsApartFingerprintsSharingAHalf() {
+        FingerprintSet set = new FingerprintSet();
+        assertTrue(set.add(5, 1));
+        assertTrue(set.add(5, 2));
+        assertTrue(set.add(1, 5));
+        assertTrue(set.add(0, 5));
+        assertTrue(set.add(5, 0));
+        assertEquals(5, set.size());
+        assertFalse(set.contains(5, 3));
+        assertFalse(set.contains(2, 5));
+        assertFalse(set.contains(0, 0));
+    }
+
+    @Test
+    void probesPastFingerprintsThatHashAlike() {
+        // high ^ rotl(low, 32) is the same for all of these, so they all start at one slot
+        FingerprintSet set = new FingerprintSet();
+        long key = 0x1234_5678_9abc_def0L;
+        for (long low = 1; low <= 2000; low++) {
+            assertTrue(set.add(key ^ Long.rotateLeft(low, 32), low));
+        }
+        assertEquals(2000, set.size());
+        for (long low = 1; low <= 2000; low++) {
+            assertTrue(set.contains(key ^ Long.rotateLeft(low, 32), low));
+            assertFalse(set.contains(key ^ Long.rotateLeft(low, 32), low + 5000));
+        }
+    }
+
+    @Test
+    void holdsTheZeroFingerprint() {
+        FingerprintSet set = new FingerprintSet();
+        assertFalse(set.contains(0, 0));
+        assertTrue(set.add(0, 0));
+        assertFalse(set.add(0, 0));
+        assertTrue(set.contains(0, 0));
+        assertEquals(1, set.size());
+
+        set.clear();
+        assertEquals(0, set.size());
+        assertFalse(set.contains(0, 0));
+        assertTrue(set.add(3, 4));
+        assertTrue(set.contains(3, 4));
+    }
+}
@@ -0,0 +1,140 @@
+package com.woops;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Executable;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+public class InvokerTest {
+
+    // What reflection returns or throws for the call, the receiver first for instance methods
+    private static Object reflect(Executable executable, Object... values) {
+        try {
+            if (executable instanceof Constructor) {
+                return ((Constructor<?>) executable).newInstance(values);
+            }
+            Method method = (Method) executable;
+            if (Modifier.isStatic(method.getModifiers())) {
+                return method.invoke(null, values);
+            }
+            return method.invoke(values[0], Arrays.copyOfRange(values, 1, values.length));
+        } catch (Exception e) {
+            return e;
+        }
+    }
+
+    private static Object invoke(Executable executable, Object... values) {
+        try {
+            return Invoker.of(executable).invoke(values);
+        } catch (Exception e) {
+            return e;
+        }
+    }
+
+    // Checks that the invoker returns what reflection returns, or throws what it throws
+    private static void assertInvokesAsReflection(Executable executable, Object... values) {
+        Object want = reflect(executable, values);
+        Object got = invoke(executable, values);
+        if (want instanceof Exception) {
+            assertSame(want.getClass(), got.getClass(), "threw " + got);
+            Throwable wantCause = ((Exception) want).getCause();
+            Throwable gotCause = ((Exception) got).getCause();
+            assertSame(wantCause == null ? null : wantCause.getClass(),
+                       gotCause == null ? null : gotCause.getClass(), "cause of " + got);
+        } else {
+            assertTrue(Objects.deepEquals(want, got), "returned " + got + ", expected " + want);
+            assertSame(want == null ? null : want.getClass(), got == null ? null : got.getClass());
+        }
+    }
+
+    @Test
+    void wrapsWhatTheTargetThrows() throws Exception {
+        Method parseInt = Integer.class.getMethod("parseInt", String.class);
+        InvocationTargetException thrown = assertThrows(InvocationTargetException.class,
+                                                        () -> Invoker.of(parseInt).invoke(new Object[] {"x"}));
+        assertSame(NumberFormatException.class, thrown.getCause().getClass());
+
+        Constructor<?> sized = ArrayList.class.getConstructor(int.class);
+        thrown = assertThrows(InvocationTargetException.class, () -> Invoker.of(sized).invoke(new Object[] {-1}));
+        assertSame(IllegalArgumentException.class, thrown.getCause().getClass());
+        assertInvokesAsReflection(parseInt, "x");
+        assertInvokesAsReflection(sized, -1);
+    }
+
+    @Test
+    void nullValuesFallBackToReflection() throws Exception {
+        Method length = String.class.getMethod("length");
+        Method abs = Math.class.getMethod("abs", int.class);
+        Method valueOf = String.class.getMethod("valueOf", Object.class);
+        assertThrows(NullPointerException.class, () -> Invoker.of(length).invoke(new Object[] {null}));
+        assertThrows(IllegalArgumentException.class, () -> Invoker.of(abs).invoke(new Object[] {null}));
+        assertInvokesAsReflection(length, (Object) null);
+        assertInvokesAsReflection(abs, (Object) null);
+        // A null where a reference is expected is passed on as is
+        assertEquals("null", Invoker.of(valueOf).invoke(new Object[] {null}));
+    }
+
+    @Test
+    void mismatchedValuesFallBackToReflection() throws Exception {
+        Method length = String.class.getMethod("length");
+        Method abs = Math.class.getMethod("abs", int.class);
+        Method add = List.class.getMethod("add", Object.class);
+        assertThrows(IllegalArgumentException.class, () -> Invoker.of(length).invoke(new Object[] {7}));
+        assertThrows(IllegalArgumentException.class, () -> Invoker.of(abs).invoke(new Object[] {"7"}));
+        assertThrows(IllegalArgumentException.class, () -> Invoker.of(abs).invoke(new Object[] {7L}));
+        assertInvokesAsReflection(length, 7);
+        assertInvokesAsReflection(abs, "7");
+        assertInvokesAsReflection(abs, 7L);
+        assertInvokesAsReflection(add, "not a list", 1);
+        // Too few or too many values
+        assertInvokesAsReflection(abs);
+        assertInvokesAsReflection(abs, 1, 2);
+    }
+
+    @Test
+    void widensAndUnboxesLikeReflection() throws Exception {
+        Method absLong = Math.class.getMethod("abs", long.class);
+        Method sqrt = Math.class.getMethod("sqrt", double.class);
+        Method valueOf = Integer.class.getMethod("valueOf", int.class);
+        Method isDigit = Character.class.getMethod("isDigit", char.class);
+        assertEquals(3L, Invoker.of(absLong).invoke(new Object[] {-3}));
+        assertEquals(3.0, Invoker.of(sqrt).invoke(new Object[] {9}));
+        assertInvokesAsReflection(absLong, -3);
+        assertInvokesAsReflection(absLong, (byte) -3);
+        assertInvokesAsReflection(absLong, 'a');
+        assertInvokesAsReflection(absLong, -3L);
+        assertInvokesAsReflection(sqrt, 9);
+        assertInvokesAsReflection(sqrt, 2.25f);
+        assertInvokesAsReflection(sqrt, 9L);
+        assertInvokesAsReflection(valueOf, (short) 300);
+        assertInvokesAsReflection(valueOf, 'q');
+        assertInvokesAsReflection(isDigit, '7');
+        // Narrowing is refused as reflection refuses it
+        assertInvokesAsReflection(valueOf, 3L);
+        assertInvokesAsReflection(isDigit, 55);
+        assertInvokesAsReflection(sqrt, true);
+    }
+
+    @Test
+    void passesArraysToVarargsAsIs() throws Exception {
+        Method asList = Arrays.class.getMethod("asList", Object[].class);
+        Method format = String.class.getMethod("format", String.class, Object[].class);
+        assertEquals(List.of("a", "b"), Invoker.of(asList).invoke(new Object[] {new Object[] {"a", "b"}}));
+        assertInvokesAsReflection(asList, (Object) new String[] {"a"});
+        assertInvokesAsReflection(format, "%s-%s", new Object[] {1, 2});
+        assertInvokesAsReflection(format, "%s", "not an array");
+    }
+}
@@ -0,0 +1,88 @@
+package com.woops;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+
+public class MethodSamplerTest {
+
+    private static final int SAMPLES = 200_000;
+
+    private static List<Method> methods(int count) {
+        Method[] methods = String.class.getMethods();
+        Arrays.sort(methods, (a, b) -> a.toString().compareTo(b.toString()));
+        return List.of(Arrays.copyOf(methods, count));
+    }
+
+    // Checks the sampling frequencies against weights of (highest usage - usage + 1)
+    private static void assertDistribution(MethodSampler sampler, int[] usage) {
+        int max = Arrays.stream(usage).max().getAsInt();
+        long total = 0;
+        for (int u : usage) total += max - u + 1;
+        int[] counts = new int[usage.length];
+        Random random = new Random(42);
+        for (int i = 0; i < SAMPLES; i++) {
+            counts[sampler.sample(random)]++;
+        }
+        for (int id = 0; id < usage.length; id++) {
+            double expected = (double) (max - usage[id] + 1) / total;
+            assertEquals(expected, (double) counts[id] / SAMPLES, 0.01, "method " + id + " of " + Arrays.toString(usage));
+        }
+    }
+
+    @Test
+    void unusedMethodsAreEquallyLikely() {
+        for (int n : new int[] {1, 2, 5, 8, 13}) {
+            assertDistribution(new MethodSampler(methods(n)), new int[n]);
+        }
+    }
+
+    @Test
+    void favoursLessUsedMethods() {
+        for (int n : new int[] {3, 7, 16}) {
+            MethodSampler sampler = new MethodSampler(methods(n));
+            int[] usage = new int[n];
+            for (int id = 0; id < n; id++) {
+                usage[id] = (id * 7) % 11;
+                sampler.addUsage(id, usage[id]);
+            }
+            assertDistribution(sampler, usage);
+        }
+    }
+
+    @Test
+    void followsUsageUpdates() {
+        List<Method> methods = methods(6);
+        MethodSampler sampler = new MethodSampler(methods);
+        int[] usage = new int[6];
+        Random random = new Random(7);
+        for (int i = 0; i < 1000; i++) {
+            usage[sampler.pick(random)]++;
+        }
+        // Picks are spread so that no method runs far ahead
+        assertDistribution(sampler, usage);
+
+        int max = Arrays.stream(usage).max().getAsInt();
+        int top = 0;
+        while (usage[top] != max) top++;
+        sampler.timedOut(methods.get(top));
+        usage[top] += 50;
+        int other = (top + 1) % 6;
+        sampler.reward(methods.get(other), 3, false, false, 0);
+        usage[other] -= 6;
+        assertDistribution(sampler, usage);
+    }
+
+    @Test
+    void ignoresMethodsOfOtherClasses() throws Exception {
+        MethodSampler sampler = new MethodSampler(methods(4));
+        sampler.addUsage(Object.class.getMethod("hashCode"), 100);
+        assertDistribution(sampler, new int[4]);
+    }
+}
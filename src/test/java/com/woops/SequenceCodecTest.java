@@ -0,0 +1,137 @@
+package com.woops;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.BitSet;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+
+public class SequenceCodecTest {
+
+    private static Sequence roundTrip(Sequence seq) throws IOException {
+        byte[] bytes = new SequenceCodec.Encoder().encode(seq);
+        return new SequenceCodec.Decoder(SequenceCodecTest.class.getClassLoader())
+            .read(new DataInputStream(new ByteArrayInputStream(bytes)));
+    }
+
+    @Test
+    void roundTripsEveryKindOfConstant() throws Exception {
+        Sequence seq = Sequences.listOfConstants();
+        Sequence decoded = roundTrip(seq);
+        Sequences.assertSameStatements(seq, decoded);
+
+        ValueFrame frame = decoded.execute();
+        assertEquals(Sequences.CONSTANTS.length, frame.get(frame.size() - 1));
+    }
+
+    @Test
+    void argumentsReferToTheLatestPositionOfASharedStatement() throws Exception {
+        Sequence prefix = Sequences.listOfConstants();
+        Sequence twice = new Sequence();
+        twice.concat(prefix);
+        twice.concat(prefix);
+        Sequence decoded = roundTrip(twice);
+        Sequences.assertSameStatements(twice, decoded);
+
+        // The second half adds to the second list only
+        ValueFrame frame = decoded.execute();
+        assertEquals(Sequences.CONSTANTS.length, frame.get(frame.size() - 1));
+        assertEquals(Sequences.CONSTANTS.length, ((List<?>) frame.get(0)).size());
+    }
+
+    @Test
+    void decoderSharingTheEncoderReadsSequencesInAnyOrder() throws Exception {
+        SequenceCodec.Encoder encoder = new SequenceCodec.Encoder();
+        Sequence first = Sequences.listOfConstants();
+        Sequence second = new Sequence();
+        second.add(new ConstantAssignment(new int[] {4, 5}, int[].class));
+        byte[] firstBytes = encoder.encode(first);
+        byte[] secondBytes = encoder.encode(second);
+
+        SequenceCodec.Decoder decoder = new SequenceCodec.Decoder(encoder);
+        Sequences.assertSameStatements(second, decoder.read(new DataInputStream(new ByteArrayInputStream(secondBytes))));
+        Sequences.assertSameStatements(first, decoder.read(new DataInputStream(new ByteArrayInputStream(firstBytes))));
+    }
+
+    @Test
+    void unsupportedConstantLeavesNoDefinitionsBehind() throws Exception {
+        SequenceCodec.Encoder encoder = new SequenceCodec.Encoder();
+        Sequence bad = new Sequence();
+        bad.add(new ConstantAssignment(new int[] {1}, int[].class));
+        bad.add(new ConstantAssignment(new Object(), Object.class));
+        assertThrows(IllegalArgumentException.class, () -> encoder.encode(bad));
+
+        // A fresh decoder must still find every definition the next sequence refers to
+        Sequence good = Sequences.listOfConstants();
+        byte[] bytes = encoder.encode(good);
+        Sequence decoded = new SequenceCodec.Decoder(getClass().getClassLoader())
+            .read(new DataInputStream(new ByteArrayInputStream(bytes)));
+        Sequences.assertSameStatements(good, decoded);
+    }
+
+    @Test
+    void roundTripsOutcomes() throws IOException {
+        BitSet nonNull = new BitSet();
+        nonNull.set(0);
+        nonNull.set(9);
+        List<ExecutionOutcome> outcomes = List.of(
+            ExecutionOutcome.normal(nonNull, null, -1).withState(-5L, 12L),
+            ExecutionOutcome.normal(new BitSet(), "equalsReflexive", 3),
+            ExecutionOutcome.exception("java.lang.IllegalStateException: boom", 4),
+            ExecutionOutcome.timeout("Execution exceeded 100 ms", 2),
+            ExecutionOutcome.crash("Worker exited"));
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        for (ExecutionOutcome outcome : outcomes) {
+            SequenceCodec.writeOutcome(out, outcome);
+        }
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        for (ExecutionOutcome outcome : outcomes) {
+            ExecutionOutcome read = SequenceCodec.readOutcome(in);
+            assertEquals(outcome.getStatus(), read.getStatus());
+            assertEquals(outcome.getFailingIndex(), read.getFailingIndex());
+            assertEquals(outcome.getViolatedContract(), read.getViolatedContract());
+            assertEquals(outcome.getViolatingIndex(), read.getViolatingIndex());
+            assertEquals(outcome.hasState(), read.hasState());
+            assertEquals(outcome.getStateHigh(), read.getStateHigh());
+            assertEquals(outcome.getStateLow(), read.getStateLow());
+        }
+        assertEquals(nonNull, SequenceCodec.readOutcome(
+            new DataInputStream(new ByteArrayInputStream(writeOne(outcomes.get(0))))).getNonNullResults());
+    }
+
+    @Test
+    void roundTripsVarIntsAndStrings() throws IOException {
+        int[] values = {0, 1, 127, 128, 16383, 16384, Integer.MAX_VALUE, -1, Integer.MIN_VALUE};
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        for (int value : values) {
+            SequenceCodec.writeVarInt(out, value);
+        }
+        SequenceCodec.writeString(out, "");
+        SequenceCodec.writeString(out, "café 😀");
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        for (int value : values) {
+            assertEquals(value, SequenceCodec.readVarInt(in));
+        }
+        assertEquals("", SequenceCodec.readString(in));
+        assertEquals("café 😀", SequenceCodec.readString(in));
+        assertFalse(in.available() > 0);
+    }
+
+    private static byte[] writeOne(ExecutionOutcome outcome) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        SequenceCodec.writeOutcome(new DataOutputStream(bytes), outcome);
+        return bytes.toByteArray();
+    }
+}
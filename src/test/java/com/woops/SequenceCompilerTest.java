@@ -0,0 +1,150 @@
+package com.woops;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+public class SequenceCompilerTest {
+
+    private final Sequence seq = new Sequence();
+
+    private ConstantAssignment constant(Object value, Class<?> type) {
+        ConstantAssignment constant = new ConstantAssignment(value, type);
+        seq.add(constant);
+        return constant;
+    }
+
+    private MethodCall call(Class<?> owner, String name, Class<?>[] types, Statement... args)
+            throws ReflectiveOperationException {
+        List<Argument> arguments = new ArrayList<>();
+        for (Statement arg : args) {
+            arguments.add(new Argument(arg));
+        }
+        MethodCall call = new MethodCall(owner.getMethod(name, types), arguments);
+        seq.add(call);
+        return call;
+    }
+
+    // Replays seq through its compiled form and checks it ends as the interpreter does, with the
+    // same values or the same exception, wrapped only if the target threw it
+    private void assertReplaysAsInterpreted() throws Exception {
+        assertNotNull(SequenceCompiler.compile(seq), "sequence didn't compile");
+        ValueFrame interpreted = new ValueFrame(seq.size());
+        Exception interpreterFailure = null;
+        try {
+            seq.execute(interpreted);
+        } catch (Exception e) {
+            interpreterFailure = e;
+        }
+
+        ExecutionCache cache = new ExecutionCache(true);
+        cache.record(seq);
+        ValueFrame compiled = null;
+        Exception compiledFailure = null;
+        try {
+            compiled = cache.execute(seq, seq);
+        } catch (Exception e) {
+            compiledFailure = e;
+        }
+
+        if (interpreterFailure != null) {
+            assertNotNull(compiledFailure, "compiled replay didn't throw " + interpreterFailure);
+            assertSame(interpreterFailure.getClass(), compiledFailure.getClass(), "thrown " + compiledFailure);
+            if (interpreterFailure instanceof InvocationTargetException) {
+                Throwable want = interpreterFailure.getCause();
+                Throwable got = compiledFailure.getCause();
+                assertSame(want.getClass(), got.getClass(), "thrown " + got);
+                assertEquals(want.getMessage(), got.getMessage());
+            }
+            return;
+        }
+        assertNull(compiledFailure, "compiled replay threw " + compiledFailure);
+        assertEquals(1, cache.getCompiledReplayCount());
+        assertEquals(interpreted.size(), compiled.size());
+        for (int i = 0; i < interpreted.size(); i++) {
+            Object want = interpreted.get(i);
+            Object got = compiled.get(i);
+            assertTrue(Objects.deepEquals(want, got), "value " + i + " was " + got + ", expected " + want);
+            assertSame(want == null ? null : want.getClass(), got == null ? null : got.getClass(),
+                       "type of value " + i);
+        }
+    }
+
+    @Test
+    void primitivesMatchTheInterpreter() throws Exception {
+        ConstantAssignment three = constant(3, int.class);
+        ConstantAssignment seven = constant(7, int.class);
+        constant(2.5, double.class);
+        call(Math.class, "max", new Class<?>[] {int.class, int.class}, three, seven);
+        call(Math.class, "sqrt", new Class<?>[] {double.class}, seq.get(2));
+        call(Character.class, "isDigit", new Class<?>[] {char.class}, constant('q', char.class));
+        call(Long.class, "toHexString", new Class<?>[] {long.class}, constant(-3L, long.class));
+        call(Integer.class, "toString", new Class<?>[] {int.class}, constant((short) 300, short.class));
+        // Widened as reflection widens them
+        call(Math.class, "max", new Class<?>[] {long.class, long.class}, three, seven);
+        call(Math.class, "sqrt", new Class<?>[] {double.class}, seven);
+        call(Integer.class, "valueOf", new Class<?>[] {int.class}, constant('q', char.class));
+        assertReplaysAsInterpreted();
+    }
+
+    @Test
+    void boxedValuesMatchTheInterpreter() throws Exception {
+        ConstantAssignment four = constant(4, int.class);
+        MethodCall boxed = call(Integer.class, "valueOf", new Class<?>[] {int.class}, four);
+        call(Integer.class, "sum", new Class<?>[] {int.class, int.class}, boxed, four);
+        MethodCall list = call(List.class, "of", new Class<?>[] {Object.class, Object.class}, four, boxed);
+        call(List.class, "contains", new Class<?>[] {Object.class}, list, constant(4L, long.class));
+        call(List.class, "indexOf", new Class<?>[] {Object.class}, list, four);
+        assertReplaysAsInterpreted();
+    }
+
+    @Test
+    void nullArgumentsMatchTheInterpreter() throws Exception {
+        ConstantAssignment none = constant(null, String.class);
+        call(String.class, "valueOf", new Class<?>[] {Object.class}, none);
+        call(Objects.class, "equals", new Class<?>[] {Object.class, Object.class}, none, none);
+        ConstantAssignment dash = constant("-", String.class);
+        call(Objects.class, "toString", new Class<?>[] {Object.class, String.class}, none, dash);
+        call(Objects.class, "hashCode", new Class<?>[] {Object.class}, none);
+        assertReplaysAsInterpreted();
+    }
+
+    @Test
+    void exceptionsFromTargetsMatchTheInterpreter() throws Exception {
+        ConstantAssignment text = constant("x", String.class);
+        call(String.class, "length", new Class<?>[0], text);
+        call(Integer.class, "parseInt", new Class<?>[] {String.class}, text);
+        assertReplaysAsInterpreted();
+    }
+
+    @Test
+    void exceptionsFromConstructorsMatchTheInterpreter() throws Exception {
+        ConstantAssignment capacity = constant(-1, int.class);
+        seq.add(new ConstructorCall(ArrayList.class.getConstructor(int.class), List.of(new Argument(capacity))));
+        assertReplaysAsInterpreted();
+    }
+
+    @Test
+    void nullUnboxedArgumentMatchesTheInterpreter() throws Exception {
+        ConstantAssignment property = constant("no such property", String.class);
+        MethodCall none = call(Integer.class, "getInteger", new Class<?>[] {String.class}, property);
+        call(Math.class, "abs", new Class<?>[] {long.class}, none);
+        assertReplaysAsInterpreted();
+    }
+
+    @Test
+    void nullReceiverMatchesTheInterpreter() throws Exception {
+        call(String.class, "length", new Class<?>[0], constant(null, String.class));
+        assertReplaysAsInterpreted();
+    }
+}
@@ -0,0 +1,93 @@
+package com.woops;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Sequences shared by the tests, and a check that two sequences describe the same statements
+final class Sequences {
+    // One constant of each kind the encodings handle, and the types they are declared as; lists
+    // are read back as ArrayLists
+    static final Object[] CONSTANTS = {
+        7, -3L, 2.5, 1.5f, true, 'q', (byte) -8, (short) 300, "a \"quoted\" é", null,
+        new int[] {1, 2, 3}, new String[] {"x", null}, new ArrayList<>(List.of(1, "y"))
+    };
+    static final Class<?>[] CONSTANT_TYPES = {
+        int.class, long.class, double.class, float.class, boolean.class, char.class, byte.class,
+        short.class, String.class, String.class, int[].class, String[].class, List.class
+    };
+
+    private Sequences() {}
+
+    // new ArrayList(), then each constant added to it, then its size()
+    static Sequence listOfConstants() throws ReflectiveOperationException {
+        Sequence seq = new Sequence();
+        ConstructorCall list = new ConstructorCall(ArrayList.class.getConstructor(), List.of());
+        seq.add(list);
+        Method add = ArrayList.class.getMethod("add", Object.class);
+        for (int i = 0; i < CONSTANTS.length; i++) {
+            ConstantAssignment constant = new ConstantAssignment(CONSTANTS[i], CONSTANT_TYPES[i]);
+            seq.add(constant);
+            seq.add(new MethodCall(add, List.of(new Argument(list), new Argument(constant))));
+        }
+        seq.add(new MethodCall(ArrayList.class.getMethod("size"), List.of(new Argument(list))));
+        return seq;
+    }
+
+    // Checks statement by statement that actual does what expected does
+    static void assertSameStatements(Sequence expected, Sequence actual) {
+        assertEquals(expected.size(), actual.size());
+        List<int[]> expectedPositions = argumentPositions(expected);
+        List<int[]> actualPositions = argumentPositions(actual);
+        for (int i = 0; i < expected.size(); i++) {
+            Statement want = expected.get(i);
+            Statement got = actual.get(i);
+            assertSame(want.getClass(), got.getClass(), "statement " + i);
+            assertEquals(want.getSignature(), got.getSignature(), "statement " + i);
+            assertEquals(want.getType(), got.getType(), "statement " + i);
+            if (want instanceof ConstantAssignment) {
+                Object wantValue = ((ConstantAssignment) want).getValue();
+                Object gotValue = ((ConstantAssignment) got).getValue();
+                assertTrue(Objects.deepEquals(wantValue, gotValue), "constant " + i + " was " + gotValue);
+            } else {
+                assertEquals(List.of(boxed(expectedPositions.get(i))), List.of(boxed(actualPositions.get(i))),
+                             "arguments of statement " + i);
+            }
+        }
+    }
+
+    // Latest earlier position of each argument's statement, -1 for a direct value
+    private static List<int[]> argumentPositions(Sequence seq) {
+        Map<Statement, Integer> latest = new IdentityHashMap<>();
+        List<int[]> positions = new ArrayList<>();
+        for (int i = 0; i < seq.size(); i++) {
+            Statement stmt = seq.get(i);
+            List<Argument> args = stmt instanceof MethodCall ? ((MethodCall) stmt).getArguments()
+                                : stmt instanceof ConstructorCall ? ((ConstructorCall) stmt).getArguments()
+                                : List.of();
+            int[] argPositions = new int[args.size()];
+            for (int j = 0; j < args.size(); j++) {
+                Argument arg = args.get(j);
+                argPositions[j] = arg.hasStatement() ? latest.getOrDefault(arg.getStatement(), -1) : -1;
+            }
+            positions.add(argPositions);
+            latest.put(stmt, i);
+        }
+        return positions;
+    }
+
+    private static Integer[] boxed(int[] values) {
+        Integer[] boxed = new Integer[values.length];
+        for (int i = 0; i < values.length; i++) {
+            boxed[i] = values[i];
+        }
+        return boxed;
+    }
+}
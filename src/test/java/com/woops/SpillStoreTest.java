@@ -0,0 +1,116 @@
+package com.woops;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+public class SpillStoreTest {
+
+    @TempDir
+    Path directory;
+
+    private static Sequence stringConstant(String value) {
+        Sequence seq = new Sequence();
+        seq.add(new ConstantAssignment(value, String.class));
+        return seq;
+    }
+
+    @Test
+    void readsBackRecordsOnBothSidesOfASegmentBoundary() throws Exception {
+        SpillStore store = new SpillStore(directory);
+        // Records of a little over 1 MB, so that one of them doesn't fit at the end of the
+        // first 64 MB segment and has to start the next one
+        int records = 70;
+        List<String> values = new ArrayList<>();
+        for (int i = 0; i < records; i++) {
+            String value = i + ":" + "x".repeat(1_000_003 + i * 1_001);
+            values.add(value);
+            assertEquals(i, store.append(stringConstant(value), new Class<?>[] {String.class}));
+        }
+        assertEquals(records, store.size());
+        for (int i = 0; i < records; i++) {
+            ConstantAssignment read = (ConstantAssignment) store.read(i).get(0);
+            assertEquals(values.get(i), read.getValue(), "record " + i);
+        }
+    }
+
+    @Test
+    void indexesRecordsByTypeAcrossBlocks() throws Exception {
+        SpillStore store = new SpillStore(directory);
+        List<Integer> lists = new ArrayList<>();
+        List<Integer> strings = new ArrayList<>();
+        // More records of each type than fit in one block of the type index
+        for (int i = 0; i < 700; i++) {
+            if (i % 3 == 0) {
+                lists.add(store.append(Sequences.listOfConstants(),
+                                       new Class<?>[] {ArrayList.class, int.class, boolean.class}));
+            } else {
+                strings.add(store.append(stringConstant("s" + i), new Class<?>[] {String.class}));
+            }
+        }
+        assertEquals(lists.size(), store.countOfType(ArrayList.class));
+        assertEquals(strings.size(), store.countOfType(String.class));
+        assertEquals(0, store.countOfType(Object.class));
+        for (int i = 0; i < lists.size(); i++) {
+            assertEquals(lists.get(i), store.idOfType(ArrayList.class, i));
+        }
+        for (int i = 0; i < strings.size(); i++) {
+            assertEquals(strings.get(i), store.idOfType(String.class, i));
+        }
+        Sequences.assertSameStatements(Sequences.listOfConstants(), store.read(lists.get(lists.size() - 1)));
+    }
+
+    @Test
+    void keepsNonNullResults() throws Exception {
+        SpillStore store = new SpillStore(directory);
+        Sequence seq = Sequences.listOfConstants();
+        BitSet nonNull = new BitSet();
+        nonNull.set(0);
+        nonNull.set(4);
+        seq.setNonNullResults(nonNull);
+        int id = store.append(seq, new Class<?>[] {ArrayList.class});
+        Sequence read = store.read(id);
+        for (int i = 0; i < seq.size(); i++) {
+            assertEquals(nonNull.get(i), read.hasNonNullResult(i), "statement " + i);
+        }
+    }
+
+    @Test
+    void refusesSequencesItCannotEncode() throws Exception {
+        SpillStore store = new SpillStore(directory);
+        Sequence seq = new Sequence();
+        seq.add(new ConstantAssignment(new Object(), Object.class));
+        assertEquals(-1, store.append(seq, new Class<?>[] {Object.class}));
+        assertEquals(0, store.size());
+    }
+
+    @Test
+    void poolPagesSpilledSequencesBackInWithinCapacity() throws Exception {
+        SpillStore store = new SpillStore(directory);
+        List<SequencePool.Eviction> evictions = new ArrayList<>();
+        SequencePool pool = new SequencePool(2, store, evictions::add);
+        for (int i = 0; i < 6; i++) {
+            pool.addSequence(stringConstant("s" + i));
+        }
+        assertEquals(2, pool.size());
+        assertEquals(4, store.size());
+        assertEquals(4, evictions.size());
+
+        for (int i = 0; i < 200; i++) {
+            assertNotNull(i % 2 == 0 ? pool.randomSequence() : pool.findSequenceOfType(String.class));
+            assertTrue(pool.size() <= 2, "pool grew to " + pool.size());
+        }
+        // Sequences read back in are evicted again without being written out twice, so at most
+        // the two that were never spilled are added
+        assertTrue(store.size() <= 6, store.size() + " records");
+    }
+}
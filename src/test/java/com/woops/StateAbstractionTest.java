@@ -0,0 +1,152 @@
+package com.woops;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+public class StateAbstractionTest {
+
+    public static class Node {
+        int value;
+        Node next;
+        Node other;
+
+        Node(int value) {
+            this.value = value;
+        }
+    }
+
+    // Same fields as Node, but another class
+    public static class Twin {
+        int value;
+        Node next;
+        Node other;
+
+        Twin(int value) {
+            this.value = value;
+        }
+    }
+
+    // Hashed by what getAbstraction() returns rather than by its fields
+    public static class Counter {
+        private int count;
+        private final long created;
+
+        Counter(int count, long created) {
+            this.count = count;
+            this.created = created;
+        }
+
+        public Object getAbstraction() {
+            return count;
+        }
+    }
+
+    private final StateAbstraction abstraction = new StateAbstraction();
+
+    // The hash of the graph reachable from roots, as a list so hashes compare with equals
+    private List<Long> hash(Object... roots) {
+        assertTrue(abstraction.hash(roots, roots.length), "no hash");
+        return List.of(abstraction.getHigh(), abstraction.getLow());
+    }
+
+    private static Node cycle(int length, int start) {
+        Node first = new Node(start);
+        Node last = first;
+        for (int i = 1; i < length; i++) {
+            last.next = new Node(start + i);
+            last = last.next;
+        }
+        last.next = first;
+        return first;
+    }
+
+    @Test
+    void cyclesTerminate() {
+        assertTimeoutPreemptively(Duration.ofSeconds(10), () -> {
+            Node self = new Node(1);
+            self.next = self;
+            self.other = self;
+            hash(self);
+            hash(cycle(50, 0));
+
+            List<Object> list = new ArrayList<>();
+            list.add(list);
+            Node node = new Node(2);
+            node.other = new Node(3);
+            node.other.other = node;
+            list.add(node);
+            hash(list, node);
+
+            // A cycle larger than the budget ends the walk without a hash
+            assertFalse(new StateAbstraction(100).hash(new Object[] {cycle(1000, 0)}, 1));
+        });
+    }
+
+    @Test
+    void equalStatesHashTheSame() {
+        assertEquals(hash(cycle(5, 10)), hash(cycle(5, 10)));
+        assertEquals(hash(3, "three", 3.0, 'c', true, null), hash(3, "three", 3.0, 'c', true, null));
+
+        // Shared references hash as the same shape whichever objects they are made of
+        Node shared = new Node(7);
+        Node a = new Node(1);
+        a.next = shared;
+        a.other = shared;
+        Node otherShared = new Node(7);
+        Node b = new Node(1);
+        b.next = otherShared;
+        b.other = otherShared;
+        assertEquals(hash(a), hash(b));
+        assertEquals(hash(a, shared), hash(b, otherShared));
+
+        assertEquals(hash(new ArrayList<>(List.of(1, "x"))), hash(new ArrayList<>(List.of(1, "x"))));
+        assertEquals(hash(Map.of("k", new Node(4))), hash(Map.of("k", new Node(4))));
+        // Only the abstraction counts, not the other fields
+        assertEquals(hash(new Counter(2, 100)), hash(new Counter(2, 200)));
+    }
+
+    @Test
+    void differentStatesHashDifferently() {
+        assertNotEquals(hash(cycle(5, 10)), hash(cycle(5, 11)));
+        assertNotEquals(hash(cycle(5, 10)), hash(cycle(6, 10)));
+        assertNotEquals(hash(new Node(1)), hash(new Twin(1)));
+        assertNotEquals(hash(new Node(1)), hash((Object) null));
+        assertNotEquals(hash(1), hash(1L, 1));
+        assertNotEquals(hash(1.0), hash(-1.0));
+        assertNotEquals(hash("ab"), hash("ba"));
+
+        // Two references to one object differ from references to two equal objects
+        Node shared = new Node(7);
+        Node a = new Node(1);
+        a.next = shared;
+        a.other = shared;
+        Node b = new Node(1);
+        b.next = new Node(7);
+        b.other = new Node(7);
+        assertNotEquals(hash(a), hash(b));
+
+        // A change deep in the graph changes the hash
+        Node deep = cycle(20, 0);
+        List<Long> before = hash(deep);
+        Node node = deep;
+        for (int i = 0; i < 15; i++) {
+            node = node.next;
+        }
+        node.value++;
+        assertNotEquals(before, hash(deep));
+
+        assertNotEquals(hash(new ArrayList<>(List.of(1, 2))), hash(new ArrayList<>(List.of(2, 1))));
+        assertNotEquals(hash(new Counter(2, 100)), hash(new Counter(3, 100)));
+    }
+}
@@ -0,0 +1,118 @@
+package com.woops;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+
+public class StatementRopeTest {
+
+    private int created = 0;
+
+    private Statement statement() {
+        return new ConstantAssignment(created++, int.class);
+    }
+
+    private static void assertContents(List<Statement> expected, StatementRope rope) {
+        assertEquals(expected.size(), rope.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertSame(expected.get(i), rope.get(i), "statement " + i);
+        }
+        for (int from = 0; from <= expected.size(); from += Math.max(1, expected.size() / 7)) {
+            Iterator<Statement> it = rope.iterator(from);
+            for (int i = from; i < expected.size(); i++) {
+                assertSame(expected.get(i), it.next(), "statement " + i + " iterated from " + from);
+            }
+            assertFalse(it.hasNext());
+        }
+    }
+
+    @Test
+    void indexesAfterAppendingToTheTail() {
+        StatementRope rope = new StatementRope();
+        List<Statement> expected = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            Statement stmt = statement();
+            rope.add(stmt);
+            expected.add(stmt);
+        }
+        assertContents(expected, rope);
+    }
+
+    @Test
+    void indexesAfterConcat() {
+        StatementRope prefix = new StatementRope();
+        List<Statement> prefixStatements = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            Statement stmt = statement();
+            prefix.add(stmt);
+            prefixStatements.add(stmt);
+        }
+
+        StatementRope rope = new StatementRope();
+        List<Statement> expected = new ArrayList<>();
+        rope.add(statement());
+        expected.add(rope.get(0));
+        rope.append(prefix);
+        expected.addAll(prefixStatements);
+        rope.append(prefix);
+        expected.addAll(prefixStatements);
+        Statement tail = statement();
+        rope.add(tail);
+        expected.add(tail);
+        assertContents(expected, rope);
+
+        // Adding to either rope afterwards leaves the other as it was
+        prefix.add(statement());
+        rope.add(tail);
+        expected.add(tail);
+        assertContents(expected, rope);
+        prefixStatements.add(prefix.get(10));
+        assertContents(prefixStatements, prefix);
+    }
+
+    @Test
+    void indexesAfterDeepConcats() {
+        // Each rope extends the one before it, far deeper than the tree is allowed to get
+        Random random = new Random(3);
+        StatementRope rope = new StatementRope();
+        List<Statement> expected = new ArrayList<>();
+        for (int round = 0; round < 200; round++) {
+            StatementRope next = new StatementRope();
+            List<Statement> nextExpected = new ArrayList<>();
+            if (random.nextBoolean()) {
+                Statement stmt = statement();
+                next.add(stmt);
+                nextExpected.add(stmt);
+            }
+            next.append(rope);
+            nextExpected.addAll(expected);
+            for (int i = random.nextInt(4); i > 0; i--) {
+                Statement stmt = statement();
+                next.add(stmt);
+                nextExpected.add(stmt);
+            }
+            rope = next;
+            expected = nextExpected;
+        }
+        assertContents(expected, rope);
+    }
+
+    @Test
+    void appendsEmptyRopes() {
+        StatementRope rope = new StatementRope();
+        rope.append(new StatementRope());
+        assertEquals(0, rope.size());
+        Statement stmt = statement();
+        rope.add(stmt);
+        rope.append(new StatementRope());
+        assertContents(List.of(stmt), rope);
+    }
+}
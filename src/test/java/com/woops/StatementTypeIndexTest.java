@@ -0,0 +1,90 @@
+package com.woops;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.ref.WeakReference;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+
+public class StatementTypeIndexTest {
+
+    private static final Class<?>[] TYPES = {int.class, String.class, Object.class, List.class, Thread.class};
+
+    // The statements findStatementOfType picks from, found by sampling until no new one shows up
+    private static Set<Statement> found(Sequence seq, Class<?> type) {
+        Set<Statement> found = Collections.newSetFromMap(new IdentityHashMap<>());
+        Random random = new Random(1);
+        for (int i = 0; i < 2000; i++) {
+            Statement stmt = seq.findStatementOfType(type, random);
+            if (stmt == null) break;
+            found.add(stmt);
+        }
+        return found;
+    }
+
+    private static Set<Statement> scanned(Sequence seq, Class<?> type) {
+        Set<Statement> scanned = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (Statement stmt : seq.getStatements()) {
+            if (type.isAssignableFrom(stmt.getType())) scanned.add(stmt);
+        }
+        return scanned;
+    }
+
+    @Test
+    void findsTheSameStatementsAsAScanAcrossConcatenations() throws Exception {
+        Sequence searched = Sequences.listOfConstants();
+        for (Class<?> type : TYPES) {
+            found(searched, type);
+        }
+        Sequence unsearched = Sequences.listOfConstants();
+
+        Sequence seq = new Sequence();
+        seq.add(new ConstantAssignment("head", String.class));
+        seq.concat(searched);
+        seq.add(new ConstantAssignment(4, int.class));
+        seq.concat(unsearched);
+        seq.concat(searched);
+        for (Class<?> type : TYPES) {
+            assertEquals(scanned(seq, type), found(seq, type), type.getName());
+        }
+
+        // Statements added after a lookup are found by the next one
+        Sequence grown = new Sequence();
+        grown.concat(seq);
+        for (Class<?> type : TYPES) {
+            found(grown, type);
+        }
+        grown.add(new ConstantAssignment("tail", String.class));
+        grown.concat(searched);
+        for (Class<?> type : TYPES) {
+            assertEquals(scanned(grown, type), found(grown, type), type.getName());
+        }
+    }
+
+    @Test
+    void concatenatedSequencesCanBeCollected() throws Exception {
+        Sequence seq = new Sequence();
+        WeakReference<Sequence> source = concatSearched(seq);
+        for (int i = 0; i < 100 && source.get() != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertNull(source.get(), "concatenated sequence kept alive");
+        assertNotNull(seq.findStatementOfType(String.class, new Random(1)));
+    }
+
+    private static WeakReference<Sequence> concatSearched(Sequence seq) throws Exception {
+        Sequence source = Sequences.listOfConstants();
+        found(source, String.class);
+        seq.concat(source);
+        return new WeakReference<>(source);
+    }
+}
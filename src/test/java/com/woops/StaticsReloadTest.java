@@ -0,0 +1,56 @@
+package com.woops;
+
+import com.demo.Reloaded;
+import org.junit.jupiter.api.Test;
+
+import java.lang.ref.WeakReference;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+
+
+public class StaticsReloadTest {
+
+    // The loaders copies of Reloaded were defined by, added by the copies themselves
+    public static final List<WeakReference<ClassLoader>> LOADERS = new CopyOnWriteArrayList<>();
+
+    private static int reachable() {
+        int count = 0;
+        for (WeakReference<ClassLoader> loader : LOADERS) {
+            if (loader.get() != null) count++;
+        }
+        return count;
+    }
+
+    @Test
+    void reloadedClassLoadersBecomeUnreachable() throws Exception {
+        GeneratorOptions options = new GeneratorOptions();
+        options.statics = GeneratorOptions.StaticsMode.RELOAD;
+        InProcessExecutor executor = new InProcessExecutor(options, List.of(Reloaded.class), runaway -> {});
+
+        Sequence seq = new Sequence();
+        ConstructorCall created = new ConstructorCall(Reloaded.class.getConstructor(), List.of());
+        seq.add(created);
+        seq.add(new MethodCall(Reloaded.class.getMethod("created"), List.of(new Argument(created))));
+        int executions = 20;
+        for (int i = 0; i < executions; i++) {
+            ExecutionOutcome outcome = executor.execute(List.of(seq), Collections.singletonList(null)).get(0);
+            assertEquals(ExecutionOutcome.Status.NORMAL, outcome.getStatus(), outcome.getMessage());
+        }
+        executor.shutdown();
+
+        // Every execution had fresh statics in a loader of its own
+        assertEquals(executions, LOADERS.size());
+        for (WeakReference<ClassLoader> loader : LOADERS) {
+            assertNotSame(Reloaded.class.getClassLoader(), loader.get());
+        }
+        for (int i = 0; i < 100 && reachable() > 0; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertEquals(0, reachable(), "class loaders kept alive after their executions");
+    }
+}